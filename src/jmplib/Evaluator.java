@@ -3,6 +3,8 @@ package jmplib;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import jmplib.agent.UpdaterAgent;
@@ -15,6 +17,7 @@ import jmplib.sourcecode.SourceCodeCache;
 import jmplib.util.ClassPathUtil;
 import jmplib.util.EnvironmentSetUp;
 import jmplib.util.InheritanceTables;
+import jmplib.util.InvokerRegistry;
 import jmplib.util.JavaSourceFromString;
 import jmplib.util.PathConstants;
 import jmplib.util.WrapperClassGenerator;
@@ -102,9 +105,13 @@ public class Evaluator {
 			writer.close();
 			JavaSourceFromString[] instrumented = PolyglotAdapter
 					.instrument(source);
-			ClassCompiler.getInstance().compile(
-					ClassPathUtil.getApplicationClassPath(), instrumented);
-			Class<?> clazz = Class.forName(name);
+			Class<?> clazz = ClassCompiler.getInstance()
+					.compile(ClassPathUtil.getApplicationClassPath(),
+							instrumented).get(name);
+			if (clazz == null) {
+				throw new StructuralIntercessionException("The class " + name
+						+ " cannot be obtained");
+			}
 			if (!clazz.isInterface()) {
 				if (inheritance) {
 					writer = new FileWriter(source);
@@ -119,7 +126,7 @@ public class Evaluator {
 			source.delete();
 			return clazz;
 		} catch (ParseException | IOException | CompilationFailedException
-				| ClassNotFoundException | StructuralIntercessionException e) {
+				| StructuralIntercessionException e) {
 			if (source != null) {
 				source.delete();
 			}
@@ -176,6 +183,13 @@ public class Evaluator {
 			Class<T> functionalInterface, String[] paramNames,
 			Class<?>... parametrizationClasses)
 			throws StructuralIntercessionException {
+		// The same code is compiled only once
+		List<Object> key = InvokerRegistry.key("eval", code, paramNames,
+				parametrizationClasses);
+		T evalInvoker = InvokerRegistry.getInstance().get(
+				functionalInterface, key);
+		if (evalInvoker != null)
+			return evalInvoker;
 		String name = "Generated_Eval_Class_" + ++evalVersion;
 		File file = null;
 		try {
@@ -186,16 +200,16 @@ public class Evaluator {
 					"generateEvalInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e.getCause());
 		}
-		T evalInvoker;
 		try {
-			evalInvoker = compileFile(file, name,
-					WrapperClassGenerator.GENERATED_EVAL_PACKAGE);
+			evalInvoker = newInstance(compileFile(file, name,
+					WrapperClassGenerator.GENERATED_EVAL_PACKAGE));
 		} catch (CompilationFailedException e) {
 			throw new StructuralIntercessionException(
 					"generateEvalInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
-		return evalInvoker;
+		return InvokerRegistry.getInstance().register(
+				functionalInterface, key, evalInvoker);
 	}
 
 	/**
@@ -266,6 +280,15 @@ public class Evaluator {
 			Map<String, Class<?>> environment, String[] paramNames,
 			Class<?>... parametrizationClasses)
 			throws StructuralIntercessionException {
+		// The class is shared, each invoker has its own environment
+		List<Object> key = InvokerRegistry.key("environment", code,
+				environment == null ? null
+						: new HashMap<String, Class<?>>(environment),
+				paramNames, parametrizationClasses);
+		Class<?> evalClass = InvokerRegistry.getInstance().get(
+				functionalInterface, key);
+		if (evalClass != null)
+			return newInstance(evalClass);
 		String name = "Generated_Eval_Class_" + ++evalVersion;
 		File file = null;
 		try {
@@ -277,22 +300,24 @@ public class Evaluator {
 					"generateEvalInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e.getCause());
 		}
-		T evalInvoker;
 		try {
-			evalInvoker = compileFile(file, name,
+			evalClass = compileFile(file, name,
 					WrapperClassGenerator.GENERATED_EVAL_PACKAGE);
 		} catch (CompilationFailedException e) {
 			throw new StructuralIntercessionException(
 					"generateEvalInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
-		return evalInvoker;
+		evalClass = InvokerRegistry.getInstance().register(
+				functionalInterface, key, evalClass);
+		return newInstance(evalClass);
 	}
 
 	/**
-	 * Compiles a class file and return an instance of the compiled class. Each
-	 * class compiled is instrumented by Polyglot. The name and the package of
-	 * the class are needed to load the {@link Class} instance.
+	 * Compiles a class file and return the compiled class. Each class compiled
+	 * is instrumented by Polyglot. The name and the package of the class are
+	 * needed to load the {@link Class} instance. The class is loaded by its
+	 * own class loader, so it is unloaded with its instances.
 	 * 
 	 * @param file
 	 *            The file of the class
@@ -300,33 +325,46 @@ public class Evaluator {
 	 *            The name of the class
 	 * @param packageName
 	 *            The package of the class
-	 * @return The instance of the compiled class
+	 * @return The compiled class
 	 * @throws CompilationFailedException
 	 *             If the class have compilation errors
 	 * @throws StructuralIntercessionException
 	 *             If some errors ocurrs
 	 * @throws RuntimeException
-	 *             If there are errors accesing the files, obtaining the class
-	 *             or creating the instance
+	 *             If there are errors accesing the files or obtaining the
+	 *             class
 	 */
-	@SuppressWarnings("unchecked")
-	private static <T> T compileFile(File file, String name, String packageName)
-			throws CompilationFailedException, StructuralIntercessionException {
+	private static Class<?> compileFile(File file, String name,
+			String packageName) throws CompilationFailedException,
+			StructuralIntercessionException {
+		Map<String, Class<?>> classes;
 		try {
-			ClassCompiler.getInstance().compile(
+			classes = ClassCompiler.getInstance().compileIsolated(
 					ClassPathUtil.getApplicationClassPath(),
 					PolyglotAdapter.instrument(file));
 		} catch (IOException e) {
 			throw new RuntimeException("Errors compiling the code: "
 					+ e.getMessage(), e);
 		}
-		Class<?> evalClass;
-		try {
-			evalClass = Class.forName(packageName + "." + name);
-		} catch (ClassNotFoundException e) {
+		Class<?> evalClass = classes.get(packageName + "." + name);
+		if (evalClass == null) {
 			throw new RuntimeException("Errors obtaining the class: "
-					+ e.getMessage(), e);
+					+ packageName + "." + name);
 		}
+		return evalClass;
+	}
+
+	/**
+	 * Creates a new instance of the compiled class
+	 * 
+	 * @param evalClass
+	 *            The compiled class
+	 * @return The instance of the class
+	 * @throws RuntimeException
+	 *             If there are errors creating the instance
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T newInstance(Class<?> evalClass) {
 		T evalInvoker;
 		try {
 			evalInvoker = (T) evalClass.newInstance();
@@ -1,22 +1,28 @@
 package jmplib;
 
-import java.io.File;
-import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import jmplib.classversions.VersionCallSite;
 import jmplib.classversions.VersionTables;
-import jmplib.compiler.ClassCompiler;
-import jmplib.compiler.PolyglotAdapter;
-import jmplib.exceptions.CompilationFailedException;
 import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.primitives.ExecutionResult;
+import jmplib.primitives.GroupCommitScheduler;
 import jmplib.primitives.Primitive;
 import jmplib.primitives.PrimitiveExecutor;
 import jmplib.primitives.PrimitiveFactory;
-import jmplib.util.ClassPathUtil;
+import jmplib.primitives.VersionHistory;
+import jmplib.util.InvokerClassGenerator;
+import jmplib.util.InvokerRegistry;
 import jmplib.util.MemberFinder;
 import jmplib.util.WrapperClassGenerator;
 
@@ -131,8 +137,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createAddMethodPrimitive(
 					clazz, name, methodType, parameterNames, body, modifiers);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"addMethod could not be executed due to the following reasons: "
@@ -195,8 +200,7 @@ public class Intercessor {
 					clazz, name, methodType, parameterNames, body, modifiers,
 					exceptions);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"addMethod could not be executed due to the following reasons: "
@@ -240,8 +244,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createReplaceImplementation(
 					clazz, name, body);
 			// Execute primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"replaceImplementation could not be executed due to the following reasons: "
@@ -291,8 +294,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createReplaceImplementation(
 					clazz, name, methodType, body);
 			// Execute primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"replaceImplementation could not be executed due to the following reasons: "
@@ -345,8 +347,7 @@ public class Intercessor {
 					.createReplaceMethodPrimitive(clazz, name, newMethodType,
 							body);
 			// Execute primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"replaceMethod could not be executed due to the following reasons: "
@@ -406,8 +407,7 @@ public class Intercessor {
 					.createReplaceMethodPrimitive(clazz, name, methodType,
 							newMethodType, body);
 			// Execute primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"replaceMethod could not be executed due to the following reasons: "
@@ -451,8 +451,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createDeleteMethodPrimitive(
 					clazz, name);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"deleteMethod could not be executed due to the following reasons: "
@@ -498,8 +497,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createDeleteMethodPrimitive(
 					clazz, name, methodType);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"deleteMethod could not be executed due to the following reasons: "
@@ -619,8 +617,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createAddFieldPrimitive(
 					clazz, modifiers, type, name, init);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"addField could not be executed due to the following reasons: "
@@ -659,8 +656,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createDeleteFieldPrimitive(
 					clazz, name);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"deleteField could not be executed due to the following reasons: "
@@ -731,8 +727,7 @@ public class Intercessor {
 			Primitive primitive = PrimitiveFactory.createReplaceFieldPrimitive(
 					clazz, name, newType, newInit);
 			// Executing the primitive
-			PrimitiveExecutor executor = new PrimitiveExecutor(primitive);
-			executor.executePrimitives();
+			execute(primitive);
 		} catch (StructuralIntercessionException e) {
 			throw new StructuralIntercessionException(
 					"replaceField could not be executed due to the following reasons: "
@@ -740,6 +735,48 @@ public class Intercessor {
 		}
 	}
 
+	/**
+	 * <p>
+	 * Rolls back the class to one of its previous versions. The hierarchy of
+	 * the class returns to the versions it had when the class got that
+	 * version number. The versions are already loaded, so nothing is
+	 * compiled. The instances are migrated to the old versions the next time
+	 * they are used. The version 0 is the original class.
+	 * </p>
+	 * <p>
+	 * For example:
+	 * </p>
+	 * 
+	 * <pre>
+	 * <code>Intercessor.rollback(Calculator.class, 2);</code>
+	 * </pre>
+	 * 
+	 * @param clazz
+	 *            The class to roll back
+	 * @param version
+	 *            The version number to roll back to
+	 * @throws IllegalArgumentException
+	 *             If the parameters are wrong
+	 * @throws StructuralIntercessionException
+	 *             If the version is not available anymore
+	 */
+	public static void rollback(Class<?> clazz, int version)
+			throws StructuralIntercessionException {
+		if (clazz == null)
+			throw new IllegalArgumentException(
+					"The class parameter cannot be null");
+		if (version < 1)
+			throw new IllegalArgumentException(
+					"The version parameter must be greater than zero");
+		try {
+			VersionHistory.rollback(clazz, version);
+		} catch (StructuralIntercessionException e) {
+			throw new StructuralIntercessionException(
+					"rollback could not be executed due to the following reasons: "
+							+ e.getMessage(), e.getCause());
+		}
+	}
+
 	/**
 	 * <p>
 	 * Generates an instance of the specified interface to invoke one instance
@@ -831,36 +868,36 @@ public class Intercessor {
 			parametrizationClasses = new Class[0];
 		// Checking params
 		checkGetInvokerParams(clazz, name, functionalInterface, modifiers);
+		Method method;
 		try {
-			checkVisibility(clazz, name, functionalInterface, modifiers,
-					parametrizationClasses);
+			method = checkVisibility(clazz, name, functionalInterface,
+					modifiers, parametrizationClasses);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(
 					"getInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
+		// The same invoker is returned for the same parameters
+		List<Object> key = InvokerRegistry.key("method", name,
+				functionalInterface, modifiers, parametrizationClasses);
+		T invoker = InvokerRegistry.getInstance().get(clazz, key);
+		if (invoker != null)
+			return invoker;
 		boolean isStatic = Modifier.isStatic(modifiers);
-		String className = "Generated_Invoker_Class_" + ++INVOKER_COUNTER;
-		File file = null;
+		String className = WrapperClassGenerator.GENERATED_INVOKER_PACKAGE
+				+ ".Generated_Invoker_Class_" + ++INVOKER_COUNTER;
 		try {
-			file = WrapperClassGenerator.generateMethodInvoker(className,
-					clazz, name, functionalInterface, parametrizationClasses,
-					isStatic);
-		} catch (StructuralIntercessionException e) {
-			throw new StructuralIntercessionException(
-					"getInvoker could not be executed due to the following reasons: "
-							+ e.getMessage(), e.getCause());
-		}
-		T invoker = null;
-		try {
-			invoker = compileFile(file, className,
-					WrapperClassGenerator.GENERATED_INVOKER_PACKAGE);
-		} catch (CompilationFailedException e) {
+			MethodHandle target = VersionCallSite.methodInvoker(clazz, name,
+					InvokerClassGenerator.getTargetType(functionalInterface),
+					method, isStatic);
+			invoker = InvokerClassGenerator.generate(className,
+					functionalInterface, target);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
 			throw new StructuralIntercessionException(
 					"getInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
-		return invoker;
+		return InvokerRegistry.getInstance().register(clazz, key, invoker);
 	}
 
 	/**
@@ -953,36 +990,35 @@ public class Intercessor {
 			parametrizationClasses = new Class[0];
 		// Checking params
 		checkGetInvokerParams(clazz, name, functionalInterface, modifiers);
+		Field field;
 		try {
-			checkVisibility(clazz, name);
+			field = checkVisibility(clazz, name);
 		} catch (NoSuchFieldException e) {
 			throw new StructuralIntercessionException(
 					"getAttributeInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
+		// The same invoker is returned for the same parameters
+		List<Object> key = InvokerRegistry.key("getter", name,
+				functionalInterface, modifiers, parametrizationClasses);
+		T invoker = InvokerRegistry.getInstance().get(clazz, key);
+		if (invoker != null)
+			return invoker;
 		boolean isStatic = Modifier.isStatic(modifiers);
-		String className = "Generated_Invoker_Class_" + ++INVOKER_COUNTER;
-		File file = null;
+		String className = WrapperClassGenerator.GENERATED_INVOKER_PACKAGE
+				+ ".Generated_Invoker_Class_" + ++INVOKER_COUNTER;
 		try {
-			file = WrapperClassGenerator
-					.generateFieldGetter(className, clazz, name,
-							functionalInterface, parametrizationClasses,
-							isStatic);
-		} catch (StructuralIntercessionException e) {
-			throw new StructuralIntercessionException(
-					"getAttributeInvoker could not be executed due to the following reasons: "
-							+ e.getMessage(), e.getCause());
-		}
-		T invoker = null;
-		try {
-			invoker = compileFile(file, className,
-					WrapperClassGenerator.GENERATED_INVOKER_PACKAGE);
-		} catch (CompilationFailedException e) {
+			MethodHandle target = VersionCallSite.fieldInvoker(clazz, name,
+					InvokerClassGenerator.getTargetType(functionalInterface),
+					field, isStatic, false);
+			invoker = InvokerClassGenerator.generate(className,
+					functionalInterface, target);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
 			throw new StructuralIntercessionException(
 					"getAttributeInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
-		return invoker;
+		return InvokerRegistry.getInstance().register(clazz, key, invoker);
 	}
 
 	/**
@@ -1075,87 +1111,85 @@ public class Intercessor {
 			parametrizationClasses = new Class[0];
 		// Checking params
 		checkGetInvokerParams(clazz, name, functionalInterface, modifiers);
+		Field field;
 		try {
-			checkVisibility(clazz, name);
+			field = checkVisibility(clazz, name);
 		} catch (NoSuchFieldException e) {
 			throw new StructuralIntercessionException(
 					"setAttributeInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
+		// The same invoker is returned for the same parameters
+		List<Object> key = InvokerRegistry.key("setter", name,
+				functionalInterface, modifiers, parametrizationClasses);
+		T invoker = InvokerRegistry.getInstance().get(clazz, key);
+		if (invoker != null)
+			return invoker;
 		boolean isStatic = Modifier.isStatic(modifiers);
-		String className = "Generated_Invoker_Class_" + ++INVOKER_COUNTER;
-		File file = null;
-		try {
-			file = WrapperClassGenerator
-					.generateFieldSetter(className, clazz, name,
-							functionalInterface, parametrizationClasses,
-							isStatic);
-		} catch (StructuralIntercessionException e) {
-			throw new StructuralIntercessionException(
-					"setAttributeInvoker could not be executed due to the following reasons: "
-							+ e.getMessage(), e.getCause());
-		}
-		T invoker = null;
+		String className = WrapperClassGenerator.GENERATED_INVOKER_PACKAGE
+				+ ".Generated_Invoker_Class_" + ++INVOKER_COUNTER;
 		try {
-			invoker = compileFile(file, className,
-					WrapperClassGenerator.GENERATED_INVOKER_PACKAGE);
-		} catch (CompilationFailedException e) {
+			MethodHandle target = VersionCallSite.fieldInvoker(clazz, name,
+					InvokerClassGenerator.getTargetType(functionalInterface),
+					field, isStatic, true);
+			invoker = InvokerClassGenerator.generate(className,
+					functionalInterface, target);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
 			throw new StructuralIntercessionException(
 					"setAttributeInvoker could not be executed due to the following reasons: "
 							+ e.getMessage(), e);
 		}
-		return invoker;
+		return InvokerRegistry.getInstance().register(clazz, key, invoker);
 	}
 
 	/**
-	 * Compiles a class file and return an instance of the compiled class. Each
-	 * class compiled is instrumented by Polyglot. The name and the package of
-	 * the class are needed to load the {@link Class} instance.
+	 * Executes the primitive. If the group commit is enabled, the primitive is
+	 * executed together with the primitives submitted concurrently by other
+	 * threads. An interrupted thread withdraws the primitive if its group has
+	 * not started, otherwise it waits for the result of the group.
 	 * 
-	 * @param file
-	 *            The file of the class
-	 * @param name
-	 *            The name of the class
-	 * @param packageName
-	 *            The package of the class
-	 * @return The instance of the compiled class
-	 * @throws CompilationFailedException
-	 *             If the class have compilation errors
+	 * @param primitive
+	 *            The primitive to execute
 	 * @throws StructuralIntercessionException
-	 *             If some errors ocurrs
-	 * @throws RuntimeException
-	 *             If there are errors accesing the files, obtaining the class
-	 *             or creating the instance
+	 *             If the primitive cannot be executed or the thread is
+	 *             interrupted before its group starts
 	 */
-	@SuppressWarnings("unchecked")
-	private static <T> T compileFile(File file, String name, String packageName)
-			throws CompilationFailedException, StructuralIntercessionException {
-		try {
-			ClassCompiler.getInstance().compile(
-					ClassPathUtil.getApplicationClassPath(),
-					PolyglotAdapter.instrument(file));
-		} catch (IOException e) {
-			throw new RuntimeException("Errors compiling the code: "
-					+ e.getMessage(), e);
-		}
-		Class<?> invokerClass;
-		try {
-			invokerClass = Class.forName(packageName + "." + name);
-		} catch (ClassNotFoundException e) {
-			throw new RuntimeException("Errors obtaining the class: "
-					+ e.getMessage(), e);
+	private static void execute(Primitive primitive)
+			throws StructuralIntercessionException {
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		if (!scheduler.isEnabled()) {
+			new PrimitiveExecutor(primitive).executePrimitives();
+			return;
 		}
-		T invoker;
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(primitive);
+		CompletableFuture<ExecutionResult> future = scheduler
+				.submit(primitives);
+		boolean interrupted = false;
 		try {
-			invoker = (T) invokerClass.newInstance();
-		} catch (InstantiationException e) {
-			throw new RuntimeException("Errors instantiating the class: "
-					+ e.getMessage(), e);
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException("Errors accesing the class: "
-					+ e.getMessage(), e);
+			while (true) {
+				try {
+					future.get();
+					return;
+				} catch (InterruptedException e) {
+					// Nothing is executed if the primitive is still waiting
+					if (scheduler.withdraw(future)) {
+						Thread.currentThread().interrupt();
+						throw new StructuralIntercessionException(
+								"Interrupted waiting for the group commit", e);
+					}
+					// The group is running, the real result is reported
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof StructuralIntercessionException)
+				throw (StructuralIntercessionException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
-		return invoker;
 	}
 
 	/**
@@ -1172,11 +1206,12 @@ public class Intercessor {
 	 *            The modifiers of the method
 	 * @param parametrizationClasses
 	 *            The classes that parametrize the interface
+	 * @return The method of the last version
 	 * @throws NoSuchMethodException
 	 *             If no method matches the functional interface method in the
 	 *             last version of the class
 	 */
-	private static void checkVisibility(Class<?> clazz, String name,
+	private static Method checkVisibility(Class<?> clazz, String name,
 			Class<?> methodInterface, int modifiers,
 			Class<?>[] parametrizationClasses) throws NoSuchMethodException {
 		Class<?> lastVersion = VersionTables.getNewVersion(clazz);
@@ -1202,6 +1237,7 @@ public class Intercessor {
 			throw new IllegalArgumentException("The method " + m.toString()
 					+ " is not visible");
 		}
+		return m;
 	}
 
 	/**
@@ -1212,10 +1248,11 @@ public class Intercessor {
 	 *            The original class
 	 * @param name
 	 *            The name of the field
+	 * @return The field of the last version
 	 * @throws NoSuchFieldException
 	 *             If the field isn't public or doesn't exist
 	 */
-	private static void checkVisibility(Class<?> clazz, String name)
+	private static Field checkVisibility(Class<?> clazz, String name)
 			throws NoSuchFieldException {
 		Class<?> lastVersion = VersionTables.getNewVersion(clazz);
 		Field f = null;
@@ -1229,6 +1266,7 @@ public class Intercessor {
 			throw new IllegalArgumentException("The field " + f.toString()
 					+ " is not visible");
 		}
+		return f;
 	}
 
 	/**
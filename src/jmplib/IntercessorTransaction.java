@@ -2,13 +2,23 @@ package jmplib;
 
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.primitives.ExecutionResult;
+import jmplib.primitives.GroupCommitScheduler;
 import jmplib.primitives.Primitive;
 import jmplib.primitives.PrimitiveExecutor;
 import jmplib.primitives.PrimitiveFactory;
+import jmplib.primitives.VersionHistory;
 
 /**
  * An intercessor of classes. This class is the faade of JMPlib and provides
@@ -22,10 +32,28 @@ import jmplib.primitives.PrimitiveFactory;
  */
 public class IntercessorTransaction {
 
+	private static ScheduledExecutorService expirations = null;
+
 	private Queue<Primitive> primitives = new LinkedList<Primitive>();
 
 	private boolean commited = false;
 
+	/**
+	 * The primitives are being committed or they are prepared
+	 */
+	private boolean running = false;
+
+	/**
+	 * The executor of the prepared primitives, until they are applied or
+	 * discarded
+	 */
+	private PrimitiveExecutor prepared = null;
+
+	/**
+	 * The result of the commit, used to roll it back
+	 */
+	private volatile ExecutionResult result = null;
+
 	/**
 	 * <p>
 	 * Adds new method to the specified class.
@@ -648,13 +676,306 @@ public class IntercessorTransaction {
 	 * @throws StructuralIntercessionException
 	 */
 	public void commit() throws StructuralIntercessionException {
+		begin();
+		boolean success = false;
+		try {
+			result = createExecutor().executePrimitives();
+			success = true;
+		} finally {
+			end(success);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Executes all the primitives added in the executor. The primitives are
+	 * executed and the new versions compiled outside the calling thread, and
+	 * the new versions are published at the end of the execution. If any error
+	 * occurr during the process, nothing is going to have effect over the
+	 * application and the future completes exceptionally with the
+	 * {@link StructuralIntercessionException}.
+	 * </p>
+	 * <p>
+	 * For example:
+	 * </p>
+	 * 
+	 * <pre>
+	 * <code>transaction.commitAsync(executor).thenAccept(result -&gt; {
+	 * 	Calculator c = new Calculator();
+	 * 	int sum = c.sum(1, 1);
+	 * });</code>
+	 * </pre>
+	 * 
+	 * @param executor
+	 *            The executor that runs the commit
+	 * @return The future result of the commit
+	 * @throws StructuralIntercessionException
+	 *             If the primitives have already been committed
+	 */
+	public CompletableFuture<ExecutionResult> commitAsync(Executor executor)
+			throws StructuralIntercessionException {
+		if (executor == null)
+			throw new IllegalArgumentException(
+					"The executor parameter cannot be null");
+		begin();
+		return createExecutor().executePrimitivesAsync(executor).whenComplete(
+				(executionResult, error) -> {
+					result = executionResult;
+					end(error == null);
+				});
+	}
+
+	/**
+	 * <p>
+	 * Executes all the primitives added together with the transactions
+	 * committed concurrently by other threads. The transactions that arrive
+	 * within the window of the {@link GroupCommitScheduler} are compiled at
+	 * once. If any error occurr during the process, nothing of this
+	 * transaction is going to have effect over the application and the future
+	 * completes exceptionally with the {@link StructuralIntercessionException}.
+	 * </p>
+	 * 
+	 * @return The future result of the commit
+	 * @throws StructuralIntercessionException
+	 *             If the primitives have already been committed
+	 */
+	public CompletableFuture<ExecutionResult> commitGrouped()
+			throws StructuralIntercessionException {
+		begin();
+		return GroupCommitScheduler.getInstance()
+				.submit(new LinkedList<Primitive>(primitives))
+				.whenComplete((executionResult, error) -> {
+					result = executionResult;
+					end(error == null);
+				});
+	}
+
+	/**
+	 * <p>
+	 * Executes all the primitives added and compiles the new versions, but
+	 * they are not visible to the application until {@link #apply()} is
+	 * called. If any error occurr during the process, nothing is going to
+	 * have effect over the application.
+	 * </p>
+	 * <p>
+	 * The prepared transaction blocks the transactions and primitives over
+	 * the same class hierarchies until it is applied or discarded, so the
+	 * changes are applied over the same classes they have been compiled
+	 * against. A prepared transaction has to be applied or discarded always,
+	 * even if the application fails meanwhile, otherwise the hierarchies stay
+	 * blocked. {@link #prepare(long, TimeUnit)} discards the changes
+	 * automatically if they are not applied in time.
+	 * </p>
+	 * <p>
+	 * For example:
+	 * </p>
+	 * 
+	 * <pre>
+	 * <code>transaction.addMethod(Counter.class, "sum", mt, 
+	 *  	"return this.counter += value;", "value");
+	 * transaction.prepare(); // Compiles the new version
+	 * 
+	 * transaction.apply(); // Publishes the new version</code>
+	 * </pre>
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the primitives cannot be executed or compiled
+	 */
+	public synchronized void prepare() throws StructuralIntercessionException {
+		begin();
+		PrimitiveExecutor executor = createExecutor();
+		boolean success = false;
+		try {
+			executor.prepare();
+			prepared = executor;
+			success = true;
+		} finally {
+			// The transaction keeps running until it is applied or discarded
+			if (!success)
+				end(false);
+		}
+	}
+
+	/**
+	 * Prepares the transaction like {@link #prepare()}, but the changes are
+	 * discarded if they are not applied or discarded before the timeout, so
+	 * the hierarchies are not blocked forever
+	 * 
+	 * @param timeout
+	 *            The maximum time the changes stay prepared
+	 * @param unit
+	 *            The unit of the timeout
+	 * @throws StructuralIntercessionException
+	 *             If the primitives cannot be executed or compiled
+	 */
+	public synchronized void prepare(long timeout, TimeUnit unit)
+			throws StructuralIntercessionException {
+		if (unit == null)
+			throw new IllegalArgumentException(
+					"The unit parameter cannot be null");
+		prepare();
+		PrimitiveExecutor executor = prepared;
+		getExpirations().schedule(() -> expire(executor), timeout, unit);
+	}
+
+	/**
+	 * Publishes the new versions compiled by {@link #prepare()}. The version
+	 * tables and the references of the modified classes are updated, without
+	 * compiling any code.
+	 * 
+	 * @return The result of the transaction
+	 * @throws StructuralIntercessionException
+	 *             If the transaction is not prepared or the versions cannot be
+	 *             published, in that case the changes are undone
+	 */
+	public synchronized ExecutionResult apply()
+			throws StructuralIntercessionException {
+		if (prepared == null) {
+			throw new StructuralIntercessionException(
+					"The transaction has not been prepared");
+		}
+		PrimitiveExecutor executor = prepared;
+		prepared = null;
+		boolean success = false;
+		try {
+			result = executor.apply();
+			success = true;
+			return result;
+		} finally {
+			end(success);
+		}
+	}
+
+	/**
+	 * Undoes the primitives executed by {@link #prepare()} without publishing
+	 * the new versions
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the transaction is not prepared or the changes cannot be
+	 *             undone
+	 */
+	public synchronized void discard() throws StructuralIntercessionException {
+		if (prepared == null) {
+			throw new StructuralIntercessionException(
+					"The transaction has not been prepared");
+		}
+		PrimitiveExecutor executor = prepared;
+		prepared = null;
+		try {
+			executor.discard();
+		} finally {
+			end(false);
+		}
+	}
+
+	/**
+	 * Discards the prepared changes if they are still prepared
+	 * 
+	 * @param executor
+	 *            The executor of the prepared changes
+	 */
+	private synchronized void expire(PrimitiveExecutor executor) {
+		if (prepared != executor)
+			return;
+		try {
+			discard();
+		} catch (StructuralIntercessionException e) {
+			// The changes could not be undone, the locks are released anyway
+		}
+	}
+
+	/**
+	 * Marks the transaction as running, so the same primitives are not
+	 * committed twice at the same time
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the primitives have already been committed or they are
+	 *             being committed
+	 */
+	private synchronized void begin() throws StructuralIntercessionException {
 		if (commited) {
 			throw new StructuralIntercessionException(
 					"The primitives have already been committed");
 		}
-		PrimitiveExecutor executor = new PrimitiveExecutor(primitives);
-		executor.executePrimitives();
-		commited = true;
+		if (running) {
+			throw new StructuralIntercessionException(
+					"The primitives are being committed");
+		}
+		running = true;
+	}
+
+	/**
+	 * Marks the end of the commit. Only a successful commit commits the
+	 * transaction, after a failure the primitives can be committed again.
+	 * 
+	 * @param success
+	 *            {@code true} if the changes have been published
+	 */
+	private synchronized void end(boolean success) {
+		running = false;
+		commited |= success;
+	}
+
+	/**
+	 * Creates the executor of the primitives. The executor works over a copy
+	 * of the primitives, so they are kept if the commit fails.
+	 * 
+	 * @return The executor
+	 */
+	private PrimitiveExecutor createExecutor() {
+		return new PrimitiveExecutor(new LinkedList<Primitive>(primitives));
+	}
+
+	/**
+	 * Obtains the scheduler that discards the expired prepared transactions,
+	 * it is created the first time
+	 * 
+	 * @return The scheduler
+	 */
+	private static synchronized ScheduledExecutorService getExpirations() {
+		if (expirations == null) {
+			expirations = Executors.newSingleThreadScheduledExecutor(
+					runnable -> {
+						Thread thread = new Thread(runnable,
+								"jmplib-prepare-expiration");
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+		return expirations;
+	}
+
+	/**
+	 * <p>
+	 * Rolls back the classes modified by the transaction to the versions they
+	 * had before the commit. The versions are already loaded, so nothing is
+	 * compiled. The instances are migrated to the old versions the next time
+	 * they are used. If other transactions have modified the same classes
+	 * after this one, their changes are rolled back too.
+	 * </p>
+	 * <p>
+	 * Rolling back the first changes of a class returns it to the original
+	 * class, and the changes applied replacing the bodies in place are
+	 * reverted redefining the classes with their previous bytes.
+	 * </p>
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the transaction has not been committed or there is no
+	 *             previous version available
+	 */
+	public synchronized void rollback() throws StructuralIntercessionException {
+		ExecutionResult executionResult = result;
+		if (executionResult == null) {
+			throw new StructuralIntercessionException(
+					"The transaction has not been committed");
+		}
+		Map<Class<?>, Class<?>> newVersions = new LinkedHashMap<Class<?>, Class<?>>();
+		for (Class<?> clazz : executionResult.getModifiedClasses()) {
+			newVersions.put(clazz, executionResult.getNewVersion(clazz));
+		}
+		if (!newVersions.isEmpty())
+			VersionHistory.rollbackBefore(newVersions);
+		result = null;
 	}
 
 	/**
@@ -0,0 +1,174 @@
+package jmplib.agent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Immutable index of the application classes, that is, the classes with a
+ * source file inside the source folder. The transformers check the index to
+ * reject the classes of the JDK and the libraries without accessing the file
+ * system.
+ * </p>
+ * <p>
+ * The classes indexed can be filtered by package with the arguments of the
+ * agent, for example
+ * {@code -javaagent:jmplib.jar=include=com.app,com.lib;exclude=com.app.gen}.
+ * The packages are included with their subpackages. If there is no include
+ * filter, all the packages are included.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ApplicationClassIndex {
+
+	private static final String INCLUDE = "include";
+	private static final String EXCLUDE = "exclude";
+	private static final String VERSION_MARK = "_NewVersion_";
+
+	/**
+	 * Index without classes, used before the agent is started
+	 */
+	public static final ApplicationClassIndex EMPTY = new ApplicationClassIndex(
+			Collections.<String> emptySet());
+
+	/**
+	 * The internal names of the indexed classes
+	 */
+	private final Set<String> classes;
+
+	private ApplicationClassIndex(Set<String> classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * Builds the index with the source files inside the folder
+	 * 
+	 * @param srcPath
+	 *            The source folder
+	 * @param agentArgs
+	 *            The arguments of the agent with the include and exclude
+	 *            filters, it can be {@code null}
+	 * @return The index
+	 */
+	public static ApplicationClassIndex build(String srcPath, String agentArgs) {
+		List<String> includes = new ArrayList<String>();
+		List<String> excludes = new ArrayList<String>();
+		parseArguments(agentArgs, includes, excludes);
+		Path root = Paths.get(srcPath);
+		Set<String> classes = new HashSet<String>();
+		if (!Files.isDirectory(root))
+			return new ApplicationClassIndex(classes);
+		try (Stream<Path> stream = Files.find(root, 500,
+				(path, attr) -> String.valueOf(path).endsWith(".java"))) {
+			stream.forEach(path -> {
+				String fileName = root.relativize(path).toString()
+						.replace('\\', '/');
+				String internalName = fileName.substring(0,
+						fileName.length() - ".java".length());
+				if (accepted(internalName, includes, excludes))
+					classes.add(internalName);
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(
+					"Error indexing the classes inside the source path", e);
+		}
+		return new ApplicationClassIndex(Collections.unmodifiableSet(classes));
+	}
+
+	/**
+	 * Checks if the class is an application class or a version of one
+	 * 
+	 * @param internalName
+	 *            The internal name of the class
+	 * @return {@code true} if the class is inside the index
+	 */
+	public boolean contains(String internalName) {
+		if (internalName == null)
+			return false;
+		int version = internalName.indexOf(VERSION_MARK);
+		if (version != -1)
+			internalName = internalName.substring(0, version);
+		return classes.contains(internalName);
+	}
+
+	/**
+	 * Obtains the number of indexed classes
+	 * 
+	 * @return The number of classes
+	 */
+	public int size() {
+		return classes.size();
+	}
+
+	/**
+	 * Parses the filters of the agent arguments. The filters are separated
+	 * by semicolons and the packages of each filter by commas.
+	 * 
+	 * @param agentArgs
+	 *            The arguments of the agent
+	 * @param includes
+	 *            The included packages in internal form
+	 * @param excludes
+	 *            The excluded packages in internal form
+	 */
+	private static void parseArguments(String agentArgs, List<String> includes,
+			List<String> excludes) {
+		if (agentArgs == null)
+			return;
+		for (String argument : agentArgs.split(";")) {
+			int separator = argument.indexOf('=');
+			if (separator == -1)
+				continue;
+			String name = argument.substring(0, separator).trim();
+			List<String> target;
+			if (INCLUDE.equals(name))
+				target = includes;
+			else if (EXCLUDE.equals(name))
+				target = excludes;
+			else
+				continue;
+			for (String pkg : argument.substring(separator + 1).split(",")) {
+				pkg = pkg.trim();
+				if (!pkg.isEmpty())
+					target.add(pkg.replace('.', '/') + "/");
+			}
+		}
+	}
+
+	/**
+	 * Checks the filters over the class
+	 * 
+	 * @param internalName
+	 *            The internal name of the class
+	 * @param includes
+	 *            The included packages
+	 * @param excludes
+	 *            The excluded packages
+	 * @return {@code true} if the class has to be indexed
+	 */
+	private static boolean accepted(String internalName, List<String> includes,
+			List<String> excludes) {
+		for (String exclude : excludes) {
+			if (internalName.startsWith(exclude))
+				return false;
+		}
+		if (includes.isEmpty())
+			return true;
+		for (String include : includes) {
+			if (internalName.startsWith(include))
+				return true;
+		}
+		return false;
+	}
+
+}
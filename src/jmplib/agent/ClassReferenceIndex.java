@@ -0,0 +1,156 @@
+package jmplib.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * <p>
+ * Reverse index of the classes referenced by the bytecode of the application
+ * classes. It stores, for each class name, the loaded classes whose constant
+ * pool references it. In lazy mode, only the classes that reference the
+ * activated classes have to be retransformed to redirect their accesses to
+ * the fields.
+ * </p>
+ * <p>
+ * The references are read from the constant pool of the class files, the
+ * methods are not parsed. The classes are indexed once and indexed again when
+ * they are redefined. If the class file of one class cannot be read, the
+ * class is considered dependent on every class.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ClassReferenceIndex {
+
+	private static final int CONSTANT_CLASS = 7;
+
+	/**
+	 * The internal names referenced by each class
+	 */
+	private final Map<Class<?>, Set<String>> references = new HashMap<Class<?>, Set<String>>();
+
+	/**
+	 * The classes that reference each internal name
+	 */
+	private final Map<String, Set<Class<?>>> dependents = new HashMap<String, Set<Class<?>>>();
+
+	/**
+	 * The classes whose class file cannot be read
+	 */
+	private final Set<Class<?>> unknown = new HashSet<Class<?>>();
+
+	/**
+	 * Indexes the classes reading their class files
+	 * 
+	 * @param classes
+	 *            The loaded classes
+	 */
+	public synchronized void addAll(Collection<Class<?>> classes) {
+		for (Class<?> clazz : classes) {
+			String resource = clazz.getName().replace('.', '/') + ".class";
+			ClassLoader loader = clazz.getClassLoader();
+			try (InputStream in = loader == null ? ClassLoader
+					.getSystemResourceAsStream(resource) : loader
+					.getResourceAsStream(resource)) {
+				if (in == null) {
+					remove(clazz);
+					unknown.add(clazz);
+				} else {
+					add(clazz, new ClassReader(in));
+				}
+			} catch (IOException e) {
+				remove(clazz);
+				unknown.add(clazz);
+			}
+		}
+	}
+
+	/**
+	 * Indexes the class with its new bytes, the previous references are
+	 * replaced
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @param bytes
+	 *            The bytes of the class
+	 */
+	public synchronized void add(Class<?> clazz, byte[] bytes) {
+		add(clazz, new ClassReader(bytes));
+	}
+
+	/**
+	 * Obtains the classes that reference any of the classes
+	 * 
+	 * @param internalNames
+	 *            The internal names of the classes
+	 * @return The classes indexed that reference them
+	 */
+	public synchronized Set<Class<?>> getDependents(
+			Collection<String> internalNames) {
+		Set<Class<?>> classes = new HashSet<Class<?>>(unknown);
+		for (String internalName : internalNames) {
+			Set<Class<?>> nameDependents = dependents.get(internalName);
+			if (nameDependents != null)
+				classes.addAll(nameDependents);
+		}
+		return classes;
+	}
+
+	/**
+	 * Replaces the references of the class with the classes of its constant
+	 * pool
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @param reader
+	 *            The reader of its bytes
+	 */
+	private void add(Class<?> clazz, ClassReader reader) {
+		remove(clazz);
+		Set<String> names = new HashSet<String>();
+		char[] buffer = new char[reader.getMaxStringLength()];
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			// The second slot of the long and double constants has no offset
+			if (offset > 0 && reader.readByte(offset - 1) == CONSTANT_CLASS)
+				names.add(reader.readUTF8(offset, buffer));
+		}
+		references.put(clazz, names);
+		for (String name : names) {
+			Set<Class<?>> nameDependents = dependents.get(name);
+			if (nameDependents == null) {
+				nameDependents = new HashSet<Class<?>>();
+				dependents.put(name, nameDependents);
+			}
+			nameDependents.add(clazz);
+		}
+	}
+
+	/**
+	 * Removes the references of the class
+	 * 
+	 * @param clazz
+	 *            The class
+	 */
+	private void remove(Class<?> clazz) {
+		unknown.remove(clazz);
+		Set<String> previous = references.remove(clazz);
+		if (previous == null)
+			return;
+		for (String name : previous) {
+			Set<Class<?>> nameDependents = dependents.get(name);
+			nameDependents.remove(clazz);
+			if (nameDependents.isEmpty())
+				dependents.remove(name);
+		}
+	}
+
+}
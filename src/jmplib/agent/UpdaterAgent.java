@@ -2,27 +2,28 @@ package jmplib.agent;
 
 import static jmplib.util.PathConstants.MODIFIED_CLASS_PATH;
 import static jmplib.util.PathConstants.ORIGINAL_CLASS_PATH;
+import static jmplib.util.PathConstants.ORIGINAL_SRC_PATH;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
-import jmplib.agent.impl.ChangeWriterTransformer;
-import jmplib.agent.impl.DefaultMethodTransformer;
-import jmplib.agent.impl.ExternalFieldAccessTransformer;
-import jmplib.agent.impl.OriginalClassLoadTimeTransformer;
-import jmplib.agent.impl.RedirectMethodTransformer;
-import jmplib.agent.impl.VersionClassLoadTimeTransformer;
+import jmplib.agent.impl.CompositeTransformer;
 import jmplib.annotations.NoCompatible;
+import jmplib.compiler.ClassCompiler;
 import jmplib.exceptions.StructuralIntercessionException;
 import jmplib.sourcecode.SourceCodeCache;
 import jmplib.util.FileUtils;
@@ -33,6 +34,11 @@ import jmplib.util.InheritanceTables;
  * This class is referenced to act as Java Agent on premain and agentmain.
  * Through this class, the code of the updated classes is updated to reference
  * the new functionalities.
+ * <p>
+ * If the {@code instrumentation.mode} property is set to {@code lazy} inside
+ * the config.properties file, the sources of the classes are parsed and the
+ * accesses to their fields are redirected the first time they are modified.
+ * </p>
  * 
  * @author Ignacio Lagartos
  *
@@ -47,10 +53,44 @@ public class UpdaterAgent {
 	/**
 	 * The classes that are instrumentable
 	 */
-	public static Map<Integer, String> instrumentables = new HashMap<Integer, String>();
+	public static Map<Integer, String> instrumentables = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * The application classes, the rest of classes are not instrumented
+	 */
+	private static volatile ApplicationClassIndex classIndex = ApplicationClassIndex.EMPTY;
 
 	private static List<Class<?>> toRetransform = new ArrayList<Class<?>>();
 
+	private static final String MODE_PROPERTY = "instrumentation.mode";
+	private static final String LAZY_MODE = "lazy";
+
+	/**
+	 * In lazy mode, the sources are parsed and the external accesses to the
+	 * fields are redirected only when the classes are modified
+	 */
+	private static boolean lazy = false;
+
+	private static boolean sourcesLoaded = false;
+
+	/**
+	 * The internal names of the classes targeted by any primitive in lazy
+	 * mode
+	 */
+	private static Set<String> activated = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * The classes referenced by the bytecode of the application classes, it
+	 * is built the first time a class is activated in lazy mode
+	 */
+	private static ClassReferenceIndex references = null;
+
+	/**
+	 * The transformers applied when the classes are loaded
+	 */
+	private static List<ClassFileTransformer> loadTimeTransformers = new ArrayList<ClassFileTransformer>();
+
 	/**
 	 * This method is call before main method, when the agent is pointed to the
 	 * JVM
@@ -87,6 +127,9 @@ public class UpdaterAgent {
 			Instrumentation inst) throws StructuralIntercessionException {
 		// Save a reference to the instrumentor
 		UpdaterAgent.inst = inst;
+		lazy = LAZY_MODE.equals(FileUtils.getProperty(MODE_PROPERTY,
+				"config.properties"));
+		classIndex = ApplicationClassIndex.build(ORIGINAL_SRC_PATH, agentArgs);
 		// Create the transformers
 		newTransformerInicialization();
 		// Load Data
@@ -102,20 +145,16 @@ public class UpdaterAgent {
 	private static void newTransformerInicialization()
 			throws StructuralIntercessionException {
 		initializeClassPaths();
-		OriginalClassLoadTimeTransformer originalLoadTransformer = new OriginalClassLoadTimeTransformer();
-		VersionClassLoadTimeTransformer versionLoadTransformer = new VersionClassLoadTimeTransformer();
-		ClassFileTransformer externalFieldAccessTransformer = new ExternalFieldAccessTransformer();
-		DefaultMethodTransformer defaultMethodTransformer = new DefaultMethodTransformer();
-		ChangeWriterTransformer writer = new ChangeWriterTransformer();
-		RedirectMethodTransformer redirect = new RedirectMethodTransformer();
-
-		inst.addTransformer(originalLoadTransformer);
-		inst.addTransformer(versionLoadTransformer);
-		inst.addTransformer(defaultMethodTransformer);
-		inst.addTransformer(writer);
-		inst.addTransformer(redirect, true);
-		inst.addTransformer(externalFieldAccessTransformer, true);
-		inst.addTransformer(writer);
+		// Each class is parsed and written once by the load time transformer
+		// and once by the transformer of the loaded classes
+		CompositeTransformer loadTimeTransformer = new CompositeTransformer(
+				false);
+		CompositeTransformer retransformer = new CompositeTransformer(true);
+
+		inst.addTransformer(loadTimeTransformer);
+		inst.addTransformer(retransformer, true);
+
+		loadTimeTransformers.add(loadTimeTransformer);
 	}
 
 	/**
@@ -132,11 +171,14 @@ public class UpdaterAgent {
 			FileUtils.deleteFile(file);
 		}
 		FileUtils.copyDirectory(bin, file);
+		ClassCompiler.getInstance().invalidate();
 	}
 
 	/**
 	 * Load all classes in the src folder. At the end, all classes are
-	 * instrumented and ready to use the library functionalities
+	 * instrumented and ready to use the library functionalities. In lazy mode,
+	 * the sources are not parsed and the classes are not retransformed until
+	 * they are modified.
 	 * 
 	 * @throws StructuralIntercessionException
 	 */
@@ -150,9 +192,90 @@ public class UpdaterAgent {
 			throw new RuntimeException(
 					"Error caching classes inside the source path");
 		}
+		if (lazy)
+			return;
+		sourcesLoaded = true;
 		updateClass(toRetransform.toArray(new Class<?>[0]));
 	}
 
+	/**
+	 * Checks if the class is an application class or a version of one. The
+	 * check does not access the file system.
+	 * 
+	 * @param internalName
+	 *            The internal name of the class
+	 * @return {@code true} if the class is inside the application class
+	 *         index
+	 */
+	public static boolean isApplicationClass(String internalName) {
+		return classIndex.contains(internalName);
+	}
+
+	/**
+	 * Checks if the accesses to the fields of the class have to be redirected
+	 * 
+	 * @param internalName
+	 *            The internal name of the class
+	 * @return {@code true} if the instrumentation is not lazy or the class has
+	 *         been targeted by any primitive
+	 */
+	public static boolean isActive(String internalName) {
+		return !lazy || activated.contains(internalName);
+	}
+
+	/**
+	 * Instruments the classes targeted by the primitives for the first time
+	 * in lazy mode. The subclasses are activated too, because they are
+	 * modified with their superclasses. The application classes whose
+	 * bytecode references the classes activated now are retransformed to
+	 * redirect their external accesses to the fields of those classes.
+	 * 
+	 * @param classes
+	 *            The classes targeted by the primitives
+	 */
+	public static synchronized void activate(Collection<Class<?>> classes) {
+		if (!lazy)
+			return;
+		List<String> owners = new ArrayList<String>();
+		List<Class<?>> pending = new ArrayList<Class<?>>(classes);
+		while (!pending.isEmpty()) {
+			Class<?> clazz = pending.remove(pending.size() - 1);
+			String internalName = clazz.getName().replace('.', '/');
+			if (activated.add(internalName)) {
+				owners.add(internalName);
+				pending.addAll(InheritanceTables.getSubclasses(clazz));
+			}
+		}
+		if (owners.isEmpty())
+			return;
+		if (references == null) {
+			references = new ClassReferenceIndex();
+			references.addAll(toRetransform);
+		}
+		// The activated classes reference themselves
+		Set<Class<?>> dependents = references.getDependents(owners);
+		if (!dependents.isEmpty())
+			updateClass(dependents.toArray(new Class<?>[0]));
+	}
+
+	/**
+	 * Parses the sources of all the application classes. In lazy mode, the
+	 * sources are parsed when a change needs all of them to be compiled.
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If any source cannot be parsed
+	 */
+	public static synchronized void loadSources()
+			throws StructuralIntercessionException {
+		if (sourcesLoaded)
+			return;
+		for (Class<?> clazz : toRetransform) {
+			if (!clazz.isAnnotationPresent(NoCompatible.class))
+				SourceCodeCache.getInstance().getClassContent(clazz);
+		}
+		sourcesLoaded = true;
+	}
+
 	/**
 	 * Load one class, instrument it, store the source code inside the source
 	 * code cache and add it to the inheritance tree
@@ -166,6 +289,8 @@ public class UpdaterAgent {
 
 		String className = srcPath.relativize(path).toString()
 				.replaceAll(".java", "").replace('\\', '.');
+		if (!classIndex.contains(className.replace('.', '/')))
+			return;
 		try {
 			Class<?> clazz = Class.forName(className, false,
 					UpdaterAgent.class.getClassLoader());
@@ -176,7 +301,8 @@ public class UpdaterAgent {
 				toRetransform.add(clazz);
 				return;
 			}
-			SourceCodeCache.getInstance().getClassContent(clazz);
+			if (!lazy)
+				SourceCodeCache.getInstance().getClassContent(clazz);
 			InheritanceTables.put(clazz.getSuperclass(), clazz);
 			toRetransform.add(clazz);
 		} catch (ClassNotFoundException | StructuralIntercessionException e) {
@@ -201,4 +327,52 @@ public class UpdaterAgent {
 		}
 	}
 
+	/**
+	 * Indexes again the references of the classes redefined, their new
+	 * bytecode can access the fields of other classes
+	 * 
+	 * @param definitions
+	 *            The classes and their new bytes
+	 */
+	private static synchronized void indexReferences(
+			Map<Class<?>, byte[]> definitions) {
+		if (references == null)
+			return;
+		for (Map.Entry<Class<?>, byte[]> definition : definitions.entrySet()) {
+			references.add(definition.getKey(), definition.getValue());
+		}
+	}
+
+	/**
+	 * Redefines the classes with new bytecode. The bytecode is processed by
+	 * the transformers applied when the classes are loaded, so the new
+	 * definitions have the same members than the loaded classes.
+	 * 
+	 * @param definitions
+	 *            The classes and their new bytes
+	 */
+	public static void redefineClasses(Map<Class<?>, byte[]> definitions) {
+		List<ClassDefinition> classDefinitions = new ArrayList<ClassDefinition>();
+		try {
+			for (Class<?> clazz : definitions.keySet()) {
+				byte[] bytes = definitions.get(clazz);
+				String className = clazz.getName().replace('.', '/');
+				for (ClassFileTransformer transformer : loadTimeTransformers) {
+					byte[] transformed = transformer.transform(
+							clazz.getClassLoader(), className, null,
+							clazz.getProtectionDomain(), bytes);
+					if (transformed != null)
+						bytes = transformed;
+				}
+				classDefinitions.add(new ClassDefinition(clazz, bytes));
+			}
+			inst.redefineClasses(classDefinitions
+					.toArray(new ClassDefinition[0]));
+			indexReferences(definitions);
+		} catch (Throwable t) {
+			throw new RuntimeException("Error redefining classes: "
+					+ t.getMessage(), t);
+		}
+	}
+
 }
@@ -1,12 +1,16 @@
 package jmplib.agent.impl;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import jmplib.agent.AbstractTransformer;
 import jmplib.agent.UpdaterAgent;
+import jmplib.compiler.ClassCompiler;
 import jmplib.util.PathConstants;
 
 import org.objectweb.asm.Opcodes;
@@ -40,16 +44,32 @@ public class ChangeWriterTransformer extends AbstractTransformer implements
 	@Override
 	public byte[] transform(String className, Class<?> classBeingRedefined,
 			byte[] classfileBuffer) {
+		write(className, classfileBuffer);
+		return classfileBuffer;
+	}
+
+	/**
+	 * Writes the bytes of the class in the modified classpath.
+	 * 
+	 * @param className
+	 *            The internal class name
+	 * @param bytes
+	 *            The bytes of the class
+	 */
+	public void write(String className, byte[] bytes) {
 		File file = new File(PathConstants.MODIFIED_CLASS_PATH + className
 				+ ".class");
-		updateClassFile(file, classfileBuffer);
-		return classfileBuffer;
+		updateClassFile(file, bytes);
 	}
 
 	/**
 	 * It saves the new bytes of the class in the new class path to allow the
 	 * new compiled classes to reference the new members like _newVersion
-	 * attribute.
+	 * attribute. If the class file already existed the compiler session is
+	 * invalidated to avoid compiling against the old bytes. The bytes are
+	 * written in a temporary file that replaces the class file, so the
+	 * compilations running at the same time never read a class file half
+	 * written.
 	 * 
 	 * @param file
 	 *            The <type>File</type> .class of the corresponding class in the
@@ -61,13 +81,27 @@ public class ChangeWriterTransformer extends AbstractTransformer implements
 		try {
 			// Creating the folders needed
 			file.getParentFile().mkdirs();
-			// Creating the file if not exists
-			file.createNewFile();
+			boolean created = !file.exists();
 			// Saving the bytes
-			FileOutputStream fos = new FileOutputStream(file);
-			fos.write(bytes);
-			fos.close();
-		} catch (FileNotFoundException e) {
+			Path temporary = Files.createTempFile(file.getParentFile()
+					.toPath(), file.getName(), ".tmp");
+			try {
+				Files.write(temporary, bytes);
+				try {
+					Files.move(temporary, file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporary, file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+			if (!created) {
+				ClassCompiler.getInstance().invalidate();
+			}
+		} catch (NoSuchFileException e) {
 			throw new RuntimeException("The class generated class "
 					+ "path hasn't all the class files", e);
 		} catch (IOException e) {
@@ -75,4 +109,4 @@ public class ChangeWriterTransformer extends AbstractTransformer implements
 					"An error happenend while updating the bytes", e);
 		}
 	}
-}
+}
\ No newline at end of file
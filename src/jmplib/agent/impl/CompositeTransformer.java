@@ -0,0 +1,114 @@
+package jmplib.agent.impl;
+
+import jmplib.agent.AbstractTransformer;
+import jmplib.agent.UpdaterAgent;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * <p>
+ * This transformer runs all the transformations of the library over one
+ * class. The class is parsed once, the transformations are applied over the
+ * same {@link ClassNode} and the bytes are written once, reusing the constant
+ * pool of the original class.
+ * </p>
+ * <p>
+ * The transformations applied when the classes are loaded and the ones
+ * applied when they are retransformed are run by different instances. The
+ * instance of the load time transformations is not able to retransform,
+ * because the virtual machine has to keep its output as the initial bytes of
+ * the classes.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class CompositeTransformer extends AbstractTransformer {
+
+	private final boolean retransformation;
+
+	private final OriginalClassLoadTimeTransformer original = new OriginalClassLoadTimeTransformer();
+	private final VersionClassLoadTimeTransformer version = new VersionClassLoadTimeTransformer();
+	private final ChangeWriterTransformer writer = new ChangeWriterTransformer();
+
+	/**
+	 * Creates the transformer
+	 * 
+	 * @param retransformation
+	 *            {@code true} to run the transformations of the loaded
+	 *            classes, {@code false} to run the ones of the first load
+	 */
+	public CompositeTransformer(boolean retransformation) {
+		this.retransformation = retransformation;
+	}
+
+	/**
+	 * It is aplicable when the class is loaded for the first time or when it
+	 * is retransformed, depending on the instance. The classes outside the
+	 * application class index are rejected before any other check.
+	 */
+	@Override
+	protected boolean instrumentableClass(String className,
+			Class<?> classBeingRedefined) {
+		return (classBeingRedefined != null) == retransformation
+				&& UpdaterAgent.isApplicationClass(className);
+	}
+
+	/**
+	 * Parses the class, applies the transformations and writes the class.
+	 * Returns {@code null} if no transformation is applicable. The
+	 * transformations that keep the state of the class being transformed are
+	 * created for each class, the classes of different hierarchies are
+	 * loaded and retransformed at the same time by several threads.
+	 */
+	@Override
+	protected byte[] transform(String className,
+			Class<?> classBeingRedefined, byte[] classfileBuffer) {
+		DefaultMethodTransformer defaultMethod = new DefaultMethodTransformer();
+		RedirectMethodTransformer redirect = new RedirectMethodTransformer();
+		ExternalFieldAccessTransformer externalFieldAccess = new ExternalFieldAccessTransformer();
+		boolean originalClass = original.instrumentableClass(className,
+				classBeingRedefined);
+		boolean versionClass = !originalClass
+				&& version.instrumentableClass(className, classBeingRedefined);
+		// The classes instrumented by the previous passes are instrumentables
+		boolean defaults = originalClass || versionClass
+				|| defaultMethod.instrumentableClass(className,
+						classBeingRedefined);
+		boolean redirected = redirect.instrumentableClass(className,
+				classBeingRedefined);
+		boolean externalAccesses = externalFieldAccess.instrumentableClass(
+				className, classBeingRedefined);
+		if (!defaults && !redirected && !externalAccesses)
+			return null;
+		ClassReader reader = new ClassReader(classfileBuffer);
+		ClassNode classNode = new ClassNode();
+		ClassVisitor visitor = classNode;
+		boolean modified = originalClass || versionClass;
+		if (originalClass)
+			visitor = original.getVisitor(className, visitor);
+		else if (versionClass)
+			visitor = version.getVisitor(className, visitor);
+		reader.accept(visitor, 0);
+		if (defaults)
+			modified |= defaultMethod.transform(className, classNode);
+		if (redirected) {
+			redirect.transform(classBeingRedefined, classNode);
+			modified = true;
+		}
+		if (externalAccesses)
+			modified |= externalFieldAccess.transform(className, classNode);
+		if (!modified)
+			return null;
+		ClassWriter cw = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+		classNode.accept(cw);
+		byte[] bytes = cw.toByteArray();
+		if (writer.instrumentableClass(className, classBeingRedefined))
+			writer.write(className, bytes);
+		return bytes;
+	}
+
+}
@@ -32,7 +32,8 @@ import org.objectweb.asm.tree.VarInsnNode;
 
 /**
  * This transformer overrides methods of the superclasses. This allows to
- * redefine this methods by version classes.
+ * redefine this methods by version classes. The instances keep the members of
+ * the class being transformed, each class is transformed by its own instance.
  * 
  * @author Ignacio Lagartos
  *
@@ -65,6 +66,30 @@ public class DefaultMethodTransformer extends AbstractTransformer implements
 	@Override
 	public byte[] transform(String className, Class<?> classBeingRedefined,
 			byte[] classfileBuffer) {
+		ClassNode classNode = ASMUtils.getClassNode(classfileBuffer);
+		if (!transform(className, classNode))
+			return classfileBuffer;
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		try {
+			classNode.accept(cw);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		byte[] bytes = cw.toByteArray();
+		return bytes;
+	}
+
+	/**
+	 * Redefine superclass methods and adds auxiliar methods to the class node.
+	 * 
+	 * @param className
+	 *            The internal class name
+	 * @param classNode
+	 *            The class
+	 * @return {@code false} if the class is an interface and it is not
+	 *         modified
+	 */
+	public boolean transform(String className, ClassNode classNode) {
 		if (className.contains("_NewVersion_")) {
 			isVersion = true;
 			originalClassName = className
@@ -72,21 +97,13 @@ public class DefaultMethodTransformer extends AbstractTransformer implements
 		} else {
 			isVersion = false;
 		}
-		ClassNode classNode = ASMUtils.getClassNode(classfileBuffer);
 		if (Modifier.isInterface(classNode.access))
-			return classfileBuffer;
+			return false;
 		List<ClassNode> superClasses = getSuperClasses(classNode.superName);
 		getSuperMembers(superClasses);
 		calculateDefaults(classNode);
 		addMembers(classNode);
-		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-		try {
-			classNode.accept(cw);
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
-		byte[] bytes = cw.toByteArray();
-		return bytes;
+		return true;
 	}
 
 	/**
@@ -19,7 +19,8 @@ import org.objectweb.asm.tree.MethodNode;
 
 /**
  * This transformer changes the external field access inside the original access
- * with method calls to its invoker methods.
+ * with method calls to its invoker methods. The instances keep the state of
+ * the class being transformed, each class is transformed by its own instance.
  * 
  * @author Ignacio Lagartos
  *
@@ -55,14 +56,8 @@ public class ExternalFieldAccessTransformer extends AbstractTransformer
 	public byte[] transform(String className, Class<?> classBeingRedefined,
 			byte[] classfileBuffer) {
 		ClassNode classNode = ASMUtils.getClassNode(classfileBuffer);
-		@SuppressWarnings("unchecked")
-		List<MethodNode> methods = classNode.methods;
-		for (MethodNode methodNode : methods) {
-			checkMethod(methodNode, className);
-		}
-		if (!modified)
+		if (!transform(className, classNode))
 			return null;
-		modified = false;
 		ClassWriter cw = null;
 		try {
 			cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
@@ -74,6 +69,27 @@ public class ExternalFieldAccessTransformer extends AbstractTransformer
 		return bytes;
 	}
 
+	/**
+	 * Replaces the external access of the class node with auxiliar method
+	 * calls.
+	 * 
+	 * @param className
+	 *            The internal class name
+	 * @param classNode
+	 *            The class
+	 * @return {@code true} if any access has been replaced
+	 */
+	public boolean transform(String className, ClassNode classNode) {
+		@SuppressWarnings("unchecked")
+		List<MethodNode> methods = classNode.methods;
+		for (MethodNode methodNode : methods) {
+			checkMethod(methodNode, className);
+		}
+		boolean replaced = modified;
+		modified = false;
+		return replaced;
+	}
+
 	/**
 	 * Returns false if the annotation {@link AuxiliaryMethod} is present in the
 	 * annotation list
@@ -114,7 +130,8 @@ public class ExternalFieldAccessTransformer extends AbstractTransformer
 				fieldNode = (FieldInsnNode) instructionNode;
 				if (!className.equals(fieldNode.owner)
 						&& UpdaterAgent.instrumentables
-								.containsKey(fieldNode.owner.hashCode())) {
+								.containsKey(fieldNode.owner.hashCode())
+						&& UpdaterAgent.isActive(fieldNode.owner)) {
 					replaceGetInsnIndy(methodNode, fieldNode, i);
 					modified = true;
 				}
@@ -123,7 +140,8 @@ public class ExternalFieldAccessTransformer extends AbstractTransformer
 				fieldNode = (FieldInsnNode) instructionNode;
 				if (!className.equals(fieldNode.owner)
 						&& UpdaterAgent.instrumentables
-								.containsKey(fieldNode.owner.hashCode())) {
+								.containsKey(fieldNode.owner.hashCode())
+						&& UpdaterAgent.isActive(fieldNode.owner)) {
 					replaceSetInsnIndy(methodNode, fieldNode, i);
 					modified = true;
 				}
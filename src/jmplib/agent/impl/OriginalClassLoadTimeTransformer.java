@@ -1,10 +1,7 @@
 package jmplib.agent.impl;
 
-import static jmplib.util.PathConstants.ORIGINAL_SRC_PATH;
 import static org.objectweb.asm.Opcodes.ASM5;
 
-import java.io.File;
-
 import jmplib.agent.AbstractTransformer;
 import jmplib.agent.UpdaterAgent;
 import jmplib.asm.visitor.ConstructorVisitor;
@@ -13,6 +10,7 @@ import jmplib.asm.visitor.NewVersionVisitor;
 import jmplib.asm.visitor.StaticFieldAccessMethodVisitor;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
 /**
@@ -34,22 +32,38 @@ public class OriginalClassLoadTimeTransformer extends AbstractTransformer {
 			byte[] classfileBuffer) {
 		ClassReader reader = new ClassReader(classfileBuffer);
 		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-		NewVersionVisitor newVersion = new NewVersionVisitor(ASM5, writer);
+		reader.accept(getVisitor(className, writer), 0);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Creates the visitors that add the new fields and methods to the class.
+	 * Additionally, adds the class to the instrumentables collection inside
+	 * the UpdaterAgent class.
+	 * 
+	 * @param className
+	 *            The internal class name
+	 * @param next
+	 *            The visitor that receives the instrumented class
+	 * @return The first visitor of the chain
+	 */
+	public ClassVisitor getVisitor(String className, ClassVisitor next) {
+		NewVersionVisitor newVersion = new NewVersionVisitor(ASM5, next);
 		ConstructorVisitor constructorAnnotation = new ConstructorVisitor(
 				ASM5, newVersion, false);
 		StaticFieldAccessMethodVisitor accessMethod = new StaticFieldAccessMethodVisitor(
 				ASM5, constructorAnnotation);
 		InstanceFieldAccessMethodVisitor instanceAccesMethod = new InstanceFieldAccessMethodVisitor(
 				ASM5, accessMethod);
-		reader.accept(instanceAccesMethod, 0);
 		UpdaterAgent.instrumentables.put(className.hashCode(), className);
-		return writer.toByteArray();
+		return instanceAccesMethod;
 	}
 
 	/**
 	 * It is aplicable when it is the first load of the class, the class is not
 	 * a version class and there is a source file of the class inside the src
-	 * specified folder.
+	 * specified folder, that is, the class is inside the application class
+	 * index.
 	 */
 	@Override
 	protected boolean instrumentableClass(String className,
@@ -58,7 +72,7 @@ public class OriginalClassLoadTimeTransformer extends AbstractTransformer {
 			return false;
 		if (className.contains("_NewVersion_"))
 			return false;
-		if (!(new File(ORIGINAL_SRC_PATH + className + ".java").exists()))
+		if (!UpdaterAgent.isApplicationClass(className))
 			return false;
 		return true;
 	}
@@ -1,5 +1,8 @@
 package jmplib.agent.impl;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.List;
@@ -9,11 +12,14 @@ import jmplib.agent.UpdaterAgent;
 import jmplib.annotations.NoRedirect;
 import jmplib.asm.util.ASMUtils;
 import jmplib.classversions.DeleteMemberTables;
+import jmplib.classversions.VersionCallSite;
 import jmplib.classversions.VersionTables;
 import jmplib.classversions.util.MemberKey;
+import jmplib.compiler.VersionClassLoader;
 import jmplib.util.TransferState;
 
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AnnotationNode;
@@ -21,13 +27,16 @@ import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 /**
- * This transformer redirects the methods of the class to the new versions.
+ * This transformer redirects the methods of the class to the new versions. The
+ * instances keep the versions of the class being transformed, each class is
+ * transformed by its own instance.
  * 
  * @author Ignacio Lagartos
  *
@@ -35,7 +44,22 @@ import org.objectweb.asm.tree.VarInsnNode;
 public class RedirectMethodTransformer extends AbstractTransformer implements
 		Opcodes {
 
+	private static final String BOOTSTRAP_DESCRIPTOR = MethodType.methodType(
+			CallSite.class, Lookup.class, String.class, MethodType.class)
+			.toMethodDescriptorString();
+	private static final Handle BOOTSTRAP = new Handle(H_INVOKESTATIC,
+			ASMUtils.getInternalName(VersionCallSite.class), "bootstrap",
+			BOOTSTRAP_DESCRIPTOR, false);
+	private static final Handle BOOTSTRAP_STATIC = new Handle(H_INVOKESTATIC,
+			ASMUtils.getInternalName(VersionCallSite.class),
+			"bootstrapStatic", BOOTSTRAP_DESCRIPTOR, false);
+	private static final Handle BOOTSTRAP_CONSTRUCTOR = new Handle(
+			H_INVOKESTATIC, ASMUtils.getInternalName(VersionCallSite.class),
+			"bootstrapConstructor", BOOTSTRAP_DESCRIPTOR, false);
+
 	private boolean isVersion = false;
+	private boolean dynamicDispatch = false;
+	private boolean dynamicLinkage = false;
 	private Class<?> originalClass;
 	private String lastVersionClassName, originalClassDescriptor,
 			originalClassName;
@@ -43,7 +67,7 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 	/**
 	 * It is aplicable when it is not the first load of the class, the class is
 	 * inside the instrumentables collection inside the UpdaterAgent class and
-	 * it has a new version.
+	 * it has a new version. The last version is never redirected.
 	 */
 	protected boolean instrumentableClass(String className,
 			Class<?> classBeingRedefined) {
@@ -57,16 +81,42 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 			isVersion = false;
 		if (!isVersion && !VersionTables.hasNewVersion(classBeingRedefined))
 			return false;
+		// The last version is only redefined to replace its implementation
+		if (isVersion && !VersionTables.hasNewVersion(classBeingRedefined))
+			return false;
 		return true;
 	}
 
 	/**
 	 * Redirects methods to the new version of the class.
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public byte[] transform(String className, Class<?> classBeingRedefined,
 			byte[] classfileBuffer) {
+		ClassNode classNode = ASMUtils.getClassNode(classfileBuffer);
+		transform(classBeingRedefined, classNode);
+		ClassWriter cw = null;
+		try {
+			cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			classNode.accept(cw);
+		} catch (Throwable e) {
+			System.err.println(e.getMessage());
+		}
+		byte[] bytes = cw.toByteArray();
+		return bytes;
+	}
+
+	/**
+	 * Redirects the methods of the class node to the new version of the
+	 * class.
+	 * 
+	 * @param classBeingRedefined
+	 *            The class redefined
+	 * @param classNode
+	 *            The class
+	 */
+	@SuppressWarnings("unchecked")
+	public void transform(Class<?> classBeingRedefined, ClassNode classNode) {
 		if (isVersion) {
 			originalClass = VersionTables.isVersionOf(classBeingRedefined);
 		} else {
@@ -77,7 +127,10 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 		originalClassName = ASMUtils.getInternalName(originalClass);
 		originalClassDescriptor = ASMUtils.getDescriptor(originalClass);
 
-		ClassNode classNode = ASMUtils.getClassNode(classfileBuffer);
+		// invokedynamic requires class files of Java 7 or later
+		dynamicDispatch = !isVersion && (classNode.version & 0xFFFF) >= V1_7;
+		// The versions loaded by other loaders cannot be referenced by name
+		dynamicLinkage = dynamicDispatch && VersionClassLoader.isEnabled();
 		List<MethodNode> methods = classNode.methods;
 		for (MethodNode methodNode : methods) {
 			if (isRedirectTarget(methodNode)) {
@@ -91,16 +144,6 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 				}
 			}
 		}
-
-		ClassWriter cw = null;
-		try {
-			cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-			classNode.accept(cw);
-		} catch (Throwable e) {
-			System.err.println(e.getMessage());
-		}
-		byte[] bytes = cw.toByteArray();
-		return bytes;
 	}
 
 	/**
@@ -149,7 +192,10 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 	 * <li>If the method is static, it is redirected to the corresponding static
 	 * method in the last version of the class</li>
 	 * <li>If it is an instance method, the method is redirected to its invoker
-	 * inside the most recent version</li>
+	 * inside the most recent version. When the class supports it, the call is
+	 * an {@code invokedynamic} linked by {@link VersionCallSite}, so the
+	 * target is relinked when the class evolves instead of being fixed to one
+	 * version</li>
 	 * </ul>
 	 * 
 	 * @param methodNode
@@ -173,8 +219,16 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 					.getDescriptor()), index));
 			index = ASMUtils.nextIndex(index, params[i].getDescriptor());
 		}
-		instructions.add(new MethodInsnNode(INVOKESTATIC, lastVersionClassName,
-				invokerName, invokerDesc, false));
+		if (dynamicDispatch && !Modifier.isStatic(methodNode.access)) {
+			instructions.add(new InvokeDynamicInsnNode(methodNode.name,
+					invokerDesc, BOOTSTRAP));
+		} else if (dynamicLinkage) {
+			instructions.add(new InvokeDynamicInsnNode(methodNode.name,
+					invokerDesc, BOOTSTRAP_STATIC));
+		} else {
+			instructions.add(new MethodInsnNode(INVOKESTATIC,
+					lastVersionClassName, invokerName, invokerDesc, false));
+		}
 		instructions.add(new InsnNode(ASMUtils.getReturnOpcode(invokerDesc)));
 		int maxStack = methodNode.maxStack;
 		int maxLocals = methodNode.maxLocals;
@@ -187,10 +241,15 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 
 	private void changeCreateInstance(MethodNode methodNode) {
 		InsnList instructions = new InsnList();
-		instructions.add(new TypeInsnNode(NEW, lastVersionClassName));
-		instructions.add(new InsnNode(DUP));
-		instructions.add(new MethodInsnNode(INVOKESPECIAL,
-				lastVersionClassName, "<init>", "()V", false));
+		if (dynamicLinkage) {
+			instructions.add(new InvokeDynamicInsnNode(methodNode.name,
+					methodNode.desc, BOOTSTRAP_CONSTRUCTOR));
+		} else {
+			instructions.add(new TypeInsnNode(NEW, lastVersionClassName));
+			instructions.add(new InsnNode(DUP));
+			instructions.add(new MethodInsnNode(INVOKESPECIAL,
+					lastVersionClassName, "<init>", "()V", false));
+		}
 		instructions.add(new InsnNode(ARETURN));
 		methodNode.instructions = instructions;
 		methodNode.maxLocals = 1;
@@ -219,8 +278,13 @@ public class RedirectMethodTransformer extends AbstractTransformer implements
 			}
 		}
 		descriptor = descriptor.concat(")V");
-		instructions.add(new MethodInsnNode(INVOKESTATIC, lastVersionClassName,
-				"_transferState", descriptor, false));
+		if (dynamicLinkage) {
+			instructions.add(new InvokeDynamicInsnNode("_transferState",
+					descriptor, BOOTSTRAP_STATIC));
+		} else {
+			instructions.add(new MethodInsnNode(INVOKESTATIC,
+					lastVersionClassName, "_transferState", descriptor, false));
+		}
 		Class<?> superClass = originalClass.getSuperclass();
 		String internalSuperClassName = ASMUtils.getInternalName(superClass);
 		if (isSuperCallNeeded(internalSuperClassName)) {
@@ -6,6 +6,7 @@ import jmplib.asm.visitor.ConstructorVisitor;
 import jmplib.asm.visitor.TransferStateVisitor;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 
@@ -26,13 +27,28 @@ public class VersionClassLoadTimeTransformer extends AbstractTransformer {
 			byte[] classfileBuffer) {
 		ClassReader reader = new ClassReader(classfileBuffer);
 		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		reader.accept(getVisitor(className, writer), 0);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Creates the visitors that annotate the constructors of the class.
+	 * Additionally, adds the class to the instrumentables collection inside
+	 * the UpdaterAgent class.
+	 * 
+	 * @param className
+	 *            The internal class name
+	 * @param next
+	 *            The visitor that receives the instrumented class
+	 * @return The first visitor of the chain
+	 */
+	public ClassVisitor getVisitor(String className, ClassVisitor next) {
 		ConstructorVisitor annotation = new ConstructorVisitor(
-				Opcodes.ASM5, writer, true);
+				Opcodes.ASM5, next, true);
 		TransferStateVisitor transfer = new TransferStateVisitor(Opcodes.ASM5,
 				annotation);
-		reader.accept(transfer, 0);
 		UpdaterAgent.instrumentables.put(className.hashCode(), className);
-		return writer.toByteArray();
+		return transfer;
 	}
 
 	/**
@@ -7,6 +7,8 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Modifier;
 
+import jmplib.compiler.ClassCompiler;
+
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -78,15 +80,11 @@ public class ASMUtils {
 	 * @return The {@link ClassNode} of the given class.
 	 */
 	public static ClassNode getClassNode(Class<?> clazz) {
-		ClassNode classNode = new ClassNode();
-		ClassReader reader = null;
 		try {
-			reader = new ClassReader(Type.getInternalName(clazz));
+			return getClassNode(Type.getInternalName(clazz));
 		} catch (IOException e) {
 			throw new RuntimeException(e.getMessage(), e);
 		}
-		reader.accept(classNode, 0);
-		return classNode;
 	}
 
 	/**
@@ -123,7 +121,8 @@ public class ASMUtils {
 
 	/**
 	 * This method obtain the {@link ClassNode} from the internal name of the
-	 * class .
+	 * class. The classes compiled at runtime are not in the classpath, so their
+	 * bytes are obtained from the {@link ClassCompiler}.
 	 * 
 	 * @param internalName
 	 *            The internal name of the class
@@ -135,7 +134,12 @@ public class ASMUtils {
 			throws IOException {
 		ClassNode classNode = new ClassNode();
 		ClassReader reader = null;
-		reader = new ClassReader(internalName);
+		byte[] bytes = ClassCompiler.getInstance().getBytecode(
+				internalName.replace('/', '.'));
+		if (bytes != null)
+			reader = new ClassReader(bytes);
+		else
+			reader = new ClassReader(internalName);
 		reader.accept(classNode, 0);
 		return classNode;
 	}
@@ -1,6 +1,7 @@
 package jmplib.asm.visitor;
 
 import jmplib.classversions.VersionClass;
+import jmplib.util.InstanceMigrator;
 
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -52,6 +53,8 @@ public class ConstructorBodyInstrumentor extends AdviceAdapter {
 			invokeInterface(Type.getType(VersionClass.class), new Method("set_OldVersion", "(Ljava/lang/Object;)V"));
 			loadThis();
 			invokeVirtual(ownerType, new Method("_transferState", "()V"));
+			loadThis();
+			invokeStatic(Type.getType(InstanceMigrator.class), new Method("register", "(Ljava/lang/Object;)V"));
 			mark(end);
 			mv.visitFrame(Opcodes.F_FULL, 1, new Object[] {ownerType.getInternalName()}, 0, new Object[] {});
 		}
@@ -14,7 +14,9 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 /**
- * This visitor adds _newVersion field to the class.
+ * This visitor adds _newVersion field to the class. The version fields are
+ * volatile because the objects are migrated concurrently by the threads that
+ * use them.
  * 
  * @author Ignacio Lagartos
  *
@@ -137,14 +139,15 @@ public class NewVersionVisitor extends ClassVisitor implements Opcodes {
 	}
 
 	private void createCurrentClassVersion() {
-		FieldVisitor fv = cv.visitField(ACC_PUBLIC | ACC_STATIC,
-				"_currentClassVersion", ASMUtils.getDescriptor(int.class),
+		FieldVisitor fv = cv.visitField(ACC_PUBLIC | ACC_STATIC
+				| ACC_VOLATILE, "_currentClassVersion", ASMUtils.getDescriptor(int.class),
 				null, null);
 		fv.visitEnd();
 	}
 
 	private void createCurrentInstanceVersion() {
-		FieldVisitor fv = cv.visitField(ACC_PUBLIC, "_currentInstanceVersion",
+		FieldVisitor fv = cv.visitField(ACC_PUBLIC | ACC_VOLATILE,
+				"_currentInstanceVersion",
 				ASMUtils.getDescriptor(int.class), null, null);
 		fv.visitEnd();
 		// Getter and Setter _newVersion
@@ -196,7 +199,8 @@ public class NewVersionVisitor extends ClassVisitor implements Opcodes {
 	}
 
 	private void createNewVersion() {
-		FieldVisitor fv = cv.visitField(ACC_PUBLIC, "_newVersion",
+		FieldVisitor fv = cv.visitField(ACC_PUBLIC | ACC_VOLATILE,
+				"_newVersion",
 				ASMUtils.getDescriptor(Object.class), null, null);
 		fv.visitEnd();
 		// Getter and Setter _newVersion
@@ -0,0 +1,614 @@
+package jmplib.classversions;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import jmplib.compiler.VersionClassLoader;
+
+/**
+ * <p>
+ * Call site of the methods redirected to the last version of their class. The
+ * redirected methods of the original classes use {@code invokedynamic}
+ * instructions bootstrapped by the methods of this class.
+ * </p>
+ * <p>
+ * The call site is linked to the last version of the class. When the new
+ * version of the object is an instance of the last version, the method of the
+ * new version is invoked directly. Otherwise, the invoker of the last version
+ * is called to create or update the new version of the object. The target is
+ * guarded by a {@link SwitchPoint} that is invalidated only when the class
+ * evolves, so the JIT can inline through the last version until the next
+ * commit.
+ * </p>
+ * <p>
+ * The call sites do not refer to the versions by name, so the versions can be
+ * loaded by other class loaders than the original classes. The invokers
+ * created by the {@link jmplib.Intercessor} use the same call sites, so they
+ * follow the evolution of the class without being generated again.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class VersionCallSite extends MutableCallSite {
+
+	private static final int INSTANCE = 0, STATIC = 1, CONSTRUCTOR = 2;
+	private static final int INVOKER = 3, STATIC_INVOKER = 4, GETTER = 5,
+			SETTER = 6, STATIC_GETTER = 7, STATIC_SETTER = 8;
+	private static final int ALL_MODES = Lookup.PUBLIC | Lookup.PRIVATE
+			| Lookup.PROTECTED | Lookup.PACKAGE;
+
+	private static final MethodHandle RELINK, IS_INSTANCE, TRACK;
+	/**
+	 * MethodHandles.privateLookupIn, it is {@code null} before Java 9
+	 */
+	private static final MethodHandle PRIVATE_LOOKUP_IN;
+	private static Constructor<Lookup> lookupConstructor = null;
+
+	private static ClassValue<SwitchPointHolder> switchPoints = new ClassValue<SwitchPointHolder>() {
+		@Override
+		protected SwitchPointHolder computeValue(Class<?> type) {
+			return new SwitchPointHolder();
+		}
+	};
+
+	private final Lookup lookup;
+	private final String name;
+	private final MethodType memberType;
+	private final int kind;
+
+	static {
+		Lookup lookup = MethodHandles.lookup();
+		try {
+			RELINK = lookup.findVirtual(VersionCallSite.class,
+					"relinkOnInvoke", MethodType.methodType(void.class));
+			IS_INSTANCE = lookup.findVirtual(Class.class, "isInstance",
+					MethodType.methodType(boolean.class, Object.class));
+			TRACK = lookup.findStatic(VersionCallSite.class, "track",
+					MethodType.methodType(Object.class, Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new RuntimeException("Errors linking the version call sites",
+					e);
+		}
+		MethodHandle privateLookupIn;
+		try {
+			privateLookupIn = MethodHandles.publicLookup().findStatic(
+					MethodHandles.class,
+					"privateLookupIn",
+					MethodType.methodType(Lookup.class, Class.class,
+							Lookup.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			// The lookups are created with the constructor of Lookup
+			privateLookupIn = null;
+		}
+		PRIVATE_LOOKUP_IN = privateLookupIn;
+	}
+
+	private VersionCallSite(Lookup lookup, String name, MethodType type,
+			MethodType memberType, int kind) {
+		super(type);
+		this.lookup = lookup;
+		this.name = name;
+		this.memberType = memberType;
+		this.kind = kind;
+	}
+
+	/**
+	 * Bootstrap method of the redirected instance methods
+	 * 
+	 * @param lookup
+	 *            The lookup of the original class
+	 * @param name
+	 *            The name of the redirected method
+	 * @param type
+	 *            The type of the invoker, the first parameter is the original
+	 *            class
+	 * @return The linked call site
+	 * @throws NoSuchMethodException
+	 *             If the invoker is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the invoker is not accessible
+	 */
+	public static CallSite bootstrap(Lookup lookup, String name,
+			MethodType type) throws NoSuchMethodException,
+			IllegalAccessException {
+		return bootstrap(lookup, name, type, INSTANCE);
+	}
+
+	/**
+	 * Bootstrap method of the redirected static methods
+	 * 
+	 * @param lookup
+	 *            The lookup of the original class
+	 * @param name
+	 *            The name of the static method
+	 * @param type
+	 *            The type of the static method
+	 * @return The linked call site
+	 * @throws NoSuchMethodException
+	 *             If the method is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the method is not accessible
+	 */
+	public static CallSite bootstrapStatic(Lookup lookup, String name,
+			MethodType type) throws NoSuchMethodException,
+			IllegalAccessException {
+		return bootstrap(lookup, name, type, STATIC);
+	}
+
+	/**
+	 * Bootstrap method of the creation of the instances of the last version
+	 * 
+	 * @param lookup
+	 *            The lookup of the original class
+	 * @param name
+	 *            The name of the method that creates the instances
+	 * @param type
+	 *            The type of the call, without parameters
+	 * @return The linked call site
+	 * @throws NoSuchMethodException
+	 *             If the last version has no default constructor
+	 * @throws IllegalAccessException
+	 *             If the constructor is not accessible
+	 */
+	public static CallSite bootstrapConstructor(Lookup lookup, String name,
+			MethodType type) throws NoSuchMethodException,
+			IllegalAccessException {
+		return bootstrap(lookup, name, type, CONSTRUCTOR);
+	}
+
+	/**
+	 * Creates the call site and links it to the last version
+	 * 
+	 * @param lookup
+	 *            The lookup of the original class
+	 * @param name
+	 *            The name of the member
+	 * @param type
+	 *            The type of the call site
+	 * @param kind
+	 *            The kind of member invoked
+	 * @return The linked call site
+	 * @throws NoSuchMethodException
+	 *             If the member is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the member is not accessible
+	 */
+	private static CallSite bootstrap(Lookup lookup, String name,
+			MethodType type, int kind) throws NoSuchMethodException,
+			IllegalAccessException {
+		VersionCallSite callSite = new VersionCallSite(lookup, name, type,
+				type, kind);
+		callSite.setTarget(callSite.link());
+		switchPoints.get(lookup.lookupClass()).add(callSite);
+		return callSite;
+	}
+
+	/**
+	 * Creates the target of an invoker of one method. The target is linked to
+	 * the method of the last version and is linked again when the class
+	 * evolves.
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @param name
+	 *            The name of the method
+	 * @param type
+	 *            The type of the invoker
+	 * @param method
+	 *            The method found in the last version
+	 * @param isStatic
+	 *            If the method is static
+	 * @return The target of the invoker
+	 * @throws NoSuchMethodException
+	 *             If the method is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the method is not accessible
+	 */
+	public static MethodHandle methodInvoker(Class<?> clazz, String name,
+			MethodType type, Method method, boolean isStatic)
+			throws NoSuchMethodException, IllegalAccessException {
+		MethodType memberType = MethodType.methodType(method.getReturnType(),
+				method.getParameterTypes());
+		if (isStatic)
+			return invoker(clazz, name, type, memberType, STATIC_INVOKER);
+		return invoker(clazz, name, type,
+				memberType.insertParameterTypes(0, clazz), INVOKER);
+	}
+
+	/**
+	 * Creates the target of a getter or a setter of one field. The target is
+	 * linked to the field of the last version and is linked again when the
+	 * class evolves.
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @param name
+	 *            The name of the field
+	 * @param type
+	 *            The type of the invoker
+	 * @param field
+	 *            The field found in the last version
+	 * @param isStatic
+	 *            If the field is static
+	 * @param isSetter
+	 *            If the target sets the value of the field
+	 * @return The target of the invoker
+	 * @throws NoSuchMethodException
+	 *             If the accessor of the field is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the field is not accessible
+	 */
+	public static MethodHandle fieldInvoker(Class<?> clazz, String name,
+			MethodType type, Field field, boolean isStatic, boolean isSetter)
+			throws NoSuchMethodException, IllegalAccessException {
+		MethodType memberType = isSetter ? MethodType.methodType(void.class,
+				field.getType()) : MethodType.methodType(field.getType());
+		if (!isStatic)
+			memberType = memberType.insertParameterTypes(0, clazz);
+		int kind = isStatic ? (isSetter ? STATIC_SETTER : STATIC_GETTER)
+				: (isSetter ? SETTER : GETTER);
+		return invoker(clazz, name, type, memberType, kind);
+	}
+
+	/**
+	 * Creates the call site of an invoker and returns its dynamic invoker
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @param name
+	 *            The name of the member
+	 * @param type
+	 *            The type of the invoker
+	 * @param memberType
+	 *            The type of the member in the last version
+	 * @param kind
+	 *            The kind of member invoked
+	 * @return The target of the invoker
+	 * @throws NoSuchMethodException
+	 *             If the member is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the member is not accessible
+	 */
+	private static MethodHandle invoker(Class<?> clazz, String name,
+			MethodType type, MethodType memberType, int kind)
+			throws NoSuchMethodException, IllegalAccessException {
+		// The invokers only access the public members
+		Lookup lookup = MethodHandles.publicLookup().in(clazz);
+		VersionCallSite callSite = new VersionCallSite(lookup, name, type,
+				memberType, kind);
+		callSite.setTarget(callSite.link());
+		switchPoints.get(clazz).add(callSite);
+		return callSite.dynamicInvoker();
+	}
+
+	/**
+	 * Invalidates the call sites of the class and links them again to the last
+	 * version, so they do not keep references to the previous one.
+	 * 
+	 * @param clazz
+	 *            The original class
+	 */
+	public static void invalidate(Class<?> clazz) {
+		for (VersionCallSite callSite : switchPoints.get(clazz).invalidate()) {
+			try {
+				callSite.relink();
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				// It is linked again the next time it is invoked
+			}
+		}
+	}
+
+	/**
+	 * Links the call site to the last version of the class
+	 * 
+	 * @return The target of the call site
+	 * @throws NoSuchMethodException
+	 *             If the member is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the member is not accessible
+	 */
+	private MethodHandle link() throws NoSuchMethodException,
+			IllegalAccessException {
+		MethodType type = type();
+		Class<?> originalClass = lookup.lookupClass();
+		SwitchPoint switchPoint = switchPoints.get(originalClass).get();
+		Class<?> lastVersion = VersionTables.getNewVersion(originalClass);
+		Lookup versionLookup = getLookup(lastVersion);
+		MethodHandle target;
+		switch (kind) {
+		case INVOKER:
+		case STATIC_INVOKER:
+		case GETTER:
+		case SETTER:
+		case STATIC_GETTER:
+		case STATIC_SETTER:
+			target = linkInvoker(originalClass, lastVersion, versionLookup)
+					.asType(type);
+			break;
+		case STATIC:
+			target = versionLookup.findStatic(lastVersion, name, type);
+			break;
+		case CONSTRUCTOR:
+			target = versionLookup.findConstructor(lastVersion,
+					MethodType.methodType(void.class)).asType(
+					MethodType.methodType(Object.class));
+			target = MethodHandles.filterReturnValue(target, TRACK).asType(
+					type);
+			break;
+		default:
+			target = linkInstanceMethod(originalClass, lastVersion,
+					versionLookup, type);
+		}
+		MethodHandle fallback = MethodHandles.foldArguments(dynamicInvoker(),
+				RELINK.bindTo(this));
+		return switchPoint.guardWithTest(target, fallback);
+	}
+
+	/**
+	 * Links the instance method to the last version of the class
+	 * 
+	 * @param originalClass
+	 *            The original class
+	 * @param lastVersion
+	 *            The last version of the class
+	 * @param versionLookup
+	 *            The lookup used to find the members of the version
+	 * @param type
+	 *            The type of the invoker, the first parameter is the original
+	 *            class
+	 * @return The target of the call site
+	 * @throws NoSuchMethodException
+	 *             If the invoker is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the invoker is not accessible
+	 */
+	private MethodHandle linkInstanceMethod(Class<?> originalClass,
+			Class<?> lastVersion, Lookup versionLookup, MethodType type)
+			throws NoSuchMethodException, IllegalAccessException {
+		MethodHandle invoker = versionLookup.findStatic(lastVersion, "_"
+				+ name + "_invoker", type);
+		try {
+			// (NewVersion, params)return
+			MethodHandle method = versionLookup.findVirtual(lastVersion, name,
+					type.dropParameterTypes(0, 1));
+			// (Original)Object
+			MethodHandle getNewVersion = lookup.findVirtual(originalClass,
+					"get_NewVersion", MethodType.methodType(Object.class))
+					.asType(MethodType.methodType(Object.class, type
+							.parameterType(0)));
+			// (Original, params)return
+			MethodHandle direct = MethodHandles.filterArguments(method
+					.asType(type.changeParameterType(0, Object.class)), 0,
+					getNewVersion);
+			// (Original, params)boolean
+			MethodHandle test = MethodHandles.filterArguments(
+					IS_INSTANCE.bindTo(lastVersion), 0, getNewVersion);
+			test = MethodHandles.dropArguments(test, 1, type.dropParameterTypes(
+					0, 1).parameterList());
+			return MethodHandles.guardWithTest(test, direct, invoker);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			// The method is not accessible, the invoker is always used
+			return invoker;
+		}
+	}
+
+	/**
+	 * Links the invoker to the member of the last version. If the class has no
+	 * version, the member of the original class is used directly. Otherwise,
+	 * the auxiliary methods of the version create or update the new version of
+	 * the object before accessing the member.
+	 * 
+	 * @param originalClass
+	 *            The original class
+	 * @param lastVersion
+	 *            The last version of the class
+	 * @param versionLookup
+	 *            The lookup used to find the members of the version
+	 * @return The target of the invoker with the type of the member
+	 * @throws NoSuchMethodException
+	 *             If the member is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the member is not accessible
+	 */
+	private MethodHandle linkInvoker(Class<?> originalClass,
+			Class<?> lastVersion, Lookup versionLookup)
+			throws NoSuchMethodException, IllegalAccessException {
+		boolean hasNewVersion = lastVersion != originalClass;
+		switch (kind) {
+		case INVOKER:
+			if (!hasNewVersion)
+				return lookup.findVirtual(originalClass, name,
+						memberType.dropParameterTypes(0, 1));
+			return linkInstanceMethod(originalClass, lastVersion,
+					versionLookup, memberType);
+		case STATIC_INVOKER:
+			return versionLookup.findStatic(lastVersion, name, memberType);
+		case GETTER:
+			if (!hasNewVersion)
+				return linkField(originalClass);
+			return versionLookup.findStatic(lastVersion, "_" + name
+					+ "_fieldGetter", memberType);
+		case SETTER:
+			if (!hasNewVersion)
+				return linkField(originalClass);
+			return versionLookup.findStatic(lastVersion, "_" + name
+					+ "_fieldSetter", memberType);
+		case STATIC_GETTER:
+			if (!hasNewVersion)
+				return linkField(originalClass);
+			return versionLookup.findStatic(lastVersion,
+					"_" + name + "_getter", memberType);
+		default:
+			if (!hasNewVersion)
+				return linkField(originalClass);
+			return versionLookup.findStatic(lastVersion,
+					"_" + name + "_setter", memberType);
+		}
+	}
+
+	/**
+	 * Links the invoker to the field of the original class
+	 * 
+	 * @param originalClass
+	 *            The original class
+	 * @return The getter or the setter of the field
+	 * @throws NoSuchMethodException
+	 *             If the field is not in the original class
+	 * @throws IllegalAccessException
+	 *             If the field is not accessible
+	 */
+	private MethodHandle linkField(Class<?> originalClass)
+			throws NoSuchMethodException, IllegalAccessException {
+		try {
+			switch (kind) {
+			case GETTER:
+				return lookup.findGetter(originalClass, name,
+						memberType.returnType());
+			case SETTER:
+				return lookup.findSetter(originalClass, name,
+						memberType.parameterType(1));
+			case STATIC_GETTER:
+				return lookup.findStaticGetter(originalClass, name,
+						memberType.returnType());
+			default:
+				return lookup.findStaticSetter(originalClass, name,
+						memberType.parameterType(0));
+			}
+		} catch (NoSuchFieldException e) {
+			throw new NoSuchMethodException("The field " + name
+					+ " does not exist in the class " + originalClass.getName());
+		}
+	}
+
+	/**
+	 * Obtains the lookup used to find the members of the version. If the
+	 * version is not loaded by the loader of the original class, it is not in
+	 * the same runtime package and the lookup has to be created inside the
+	 * version. The lookup is obtained with MethodHandles.privateLookupIn when
+	 * the virtual machine has it (Java 9 or newer). Otherwise the private
+	 * constructor of {@link Lookup} is used, which is accessible on those
+	 * older virtual machines.
+	 * 
+	 * @param lastVersion
+	 *            The last version of the class
+	 * @return The lookup
+	 */
+	private Lookup getLookup(Class<?> lastVersion) {
+		if (lastVersion.getClassLoader() == lookup.lookupClass()
+				.getClassLoader()) {
+			return lookup;
+		}
+		if (PRIVATE_LOOKUP_IN != null) {
+			try {
+				return (Lookup) PRIVATE_LOOKUP_IN.invokeExact(lastVersion,
+						MethodHandles.lookup());
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException("Cannot access to the version "
+						+ lastVersion.getName(), e);
+			}
+		}
+		try {
+			if (lookupConstructor == null) {
+				Constructor<Lookup> constructor = Lookup.class
+						.getDeclaredConstructor(Class.class, int.class);
+				constructor.setAccessible(true);
+				lookupConstructor = constructor;
+			}
+			return lookupConstructor.newInstance(lastVersion, ALL_MODES);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Cannot access to the version "
+					+ lastVersion.getName(), e);
+		}
+	}
+
+	/**
+	 * Tracks the instances of the versions created by the call sites, the
+	 * generation loaders release the versions without live instances
+	 * 
+	 * @param version
+	 *            The new instance of the version
+	 * @return The same instance
+	 */
+	@SuppressWarnings("unused")
+	private static Object track(Object version) {
+		VersionClassLoader.track(version);
+		return version;
+	}
+
+	/**
+	 * Links again the call site to the last version
+	 * 
+	 * @throws NoSuchMethodException
+	 *             If the invoker is not in the last version
+	 * @throws IllegalAccessException
+	 *             If the invoker is not accessible
+	 */
+	private void relink() throws NoSuchMethodException, IllegalAccessException {
+		setTarget(link());
+	}
+
+	/**
+	 * Links again the call site when it is invoked after the class evolves.
+	 * The errors are thrown as the linkage errors of the invokedynamic
+	 * instructions, the checked exceptions cannot escape from the method
+	 * handle.
+	 */
+	@SuppressWarnings("unused")
+	private void relinkOnInvoke() {
+		try {
+			relink();
+		} catch (NoSuchMethodException e) {
+			throw (NoSuchMethodError) new NoSuchMethodError(e.getMessage())
+					.initCause(e);
+		} catch (IllegalAccessException e) {
+			throw (IllegalAccessError) new IllegalAccessError(e.getMessage())
+					.initCause(e);
+		}
+	}
+
+	/**
+	 * Holds the current {@link SwitchPoint} of one class and its call sites
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class SwitchPointHolder {
+
+		private volatile SwitchPoint switchPoint = new SwitchPoint();
+		private final Set<VersionCallSite> callSites = Collections
+				.newSetFromMap(new WeakHashMap<VersionCallSite, Boolean>());
+
+		public SwitchPoint get() {
+			return switchPoint;
+		}
+
+		public synchronized void add(VersionCallSite callSite) {
+			callSites.add(callSite);
+		}
+
+		public synchronized List<VersionCallSite> invalidate() {
+			SwitchPoint old = switchPoint;
+			switchPoint = new SwitchPoint();
+			SwitchPoint.invalidateAll(new SwitchPoint[] { old });
+			return new ArrayList<VersionCallSite>(callSites);
+		}
+
+	}
+
+}
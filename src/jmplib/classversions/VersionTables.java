@@ -1,22 +1,32 @@
 package jmplib.classversions;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class stores a map composed by a class (using its full name) and the
+ * This class stores a map composed by a class and the
  * class that represent the most up-to-date version of this class that is in use
  * in a concrete moment.
  * 
+ * The entries of the classes are stored in a {@link ClassValue}, so the
+ * lookups by class do not hash the class names and cannot collide. The entries
+ * are also indexed by name for the lookups that only have the name of the
+ * class. The reads do not take locks, the writes are serialized.
+ * 
  * @author Computational Reflection Research Group. University of Oviedo
  * 
  */
 public class VersionTables {
-	private static final Map<Integer, Class<?>> versions = new HashMap<Integer, Class<?>>();
-	private static final Map<Integer, Class<?>> versionOf = new HashMap<Integer, Class<?>>();
-	private static final Map<Integer, List<Class<?>>> allVersions = new HashMap<Integer, List<Class<?>>>();
+	private static final ClassValue<VersionEntry> entries = new ClassValue<VersionEntry>() {
+		@Override
+		protected VersionEntry computeValue(Class<?> type) {
+			return new VersionEntry();
+		}
+	};
+	private static final Map<String, VersionEntry> entriesByName = new ConcurrentHashMap<String, VersionEntry>();
 	public static final boolean DEBUG = false;
 
 	/**
@@ -34,8 +44,7 @@ public class VersionTables {
 	 */
 	public static boolean instanceHasNewVersion(Object instance) {
 
-		Class<?> classVersion = versions.get(instance.getClass().getName()
-				.hashCode());
+		Class<?> classVersion = entries.get(instance.getClass()).newVersion;
 
 		if (DEBUG)
 			System.out.println("instanceHasNewVersion: Class version = "
@@ -72,7 +81,7 @@ public class VersionTables {
 	 * @return The new version or the same class
 	 */
 	public static Class<?> getNewVersion(Class<?> clazz) {
-		Class<?> ret = versions.get(clazz.getName().hashCode());
+		Class<?> ret = entries.get(clazz).newVersion;
 		if (ret != null)
 			return ret;
 		return clazz;
@@ -87,9 +96,9 @@ public class VersionTables {
 	 * @return The new version or null
 	 */
 	public static Class<?> getNewVersion(String className) {
-		Class<?> ret = versions.get(className.hashCode());
-		if (ret != null)
-			return ret;
+		VersionEntry entry = entriesByName.get(className);
+		if (entry != null)
+			return entry.newVersion;
 		return null;
 
 	}
@@ -102,7 +111,7 @@ public class VersionTables {
 	 * @return Returns if a class has a new version or not
 	 */
 	public static boolean hasNewVersion(Class<?> clazz) {
-		return versions.get(clazz.getName().hashCode()) != null;
+		return entries.get(clazz).newVersion != null;
 	}
 
 	/**
@@ -113,7 +122,7 @@ public class VersionTables {
 	 * @return Returns if a class has a new version or not
 	 */
 	public static boolean hasNewVersion(String className) {
-		return versions.get(className.hashCode()) != null;
+		return getNewVersion(className) != null;
 	}
 
 	/**
@@ -124,20 +133,63 @@ public class VersionTables {
 	 * @param version
 	 *            The new version
 	 */
-	public static void addNewVersion(Class<?> original, Class<?> version) {
-		int code = original.getName().hashCode();
-		versionOf.put(version.getName().hashCode(), original);
-		versions.put(code, version);
-		List<Class<?>> versionsList = allVersions.get(code);
-		if (versionsList == null)
-			versionsList = new ArrayList<Class<?>>();
+	public static synchronized void addNewVersion(Class<?> original,
+			Class<?> version) {
+		VersionEntry originalEntry = getEntry(original);
+		VersionEntry versionEntry = getEntry(version);
+		versionEntry.versionOf = original;
+		List<Class<?>> versionsList = new ArrayList<Class<?>>(
+				originalEntry.versions);
 		for (Class<?> clazz : versionsList)
-			versions.put(clazz.getName().hashCode(), version);
+			entries.get(clazz).newVersion = version;
 		versionsList.add(version);
-		allVersions.put(code, versionsList);
+		originalEntry.versions = Collections.unmodifiableList(versionsList);
+		originalEntry.newVersion = version;
 
 	}
 
+	/**
+	 * Makes one of the versions already added the new version of the class.
+	 * The rest of versions, including the newer ones, have the version
+	 * provided as new version. If the version is the original class, neither
+	 * the class nor its versions have a new version.
+	 * 
+	 * @param original
+	 *            The original class
+	 * @param version
+	 *            The version to roll back to
+	 */
+	public static synchronized void rollback(Class<?> original,
+			Class<?> version) {
+		VersionEntry originalEntry = entries.get(original);
+		Class<?> newVersion = version == original ? null : version;
+		for (Class<?> clazz : originalEntry.versions)
+			entries.get(clazz).newVersion = clazz == version ? null
+					: newVersion;
+		originalEntry.newVersion = newVersion;
+	}
+
+	/**
+	 * Removes a version that has been replaced by a newer one, so the tables
+	 * keep no references to it
+	 * 
+	 * @param version
+	 *            The version to remove
+	 */
+	public static synchronized void removeVersion(Class<?> version) {
+		VersionEntry versionEntry = entries.get(version);
+		if (versionEntry.versionOf != null) {
+			VersionEntry originalEntry = entries.get(versionEntry.versionOf);
+			List<Class<?>> versionsList = new ArrayList<Class<?>>(
+					originalEntry.versions);
+			versionsList.remove(version);
+			originalEntry.versions = Collections
+					.unmodifiableList(versionsList);
+		}
+		entriesByName.remove(version.getName(), versionEntry);
+		entries.remove(version);
+	}
+
 	/**
 	 * Obtains all version of one class
 	 * 
@@ -146,11 +198,7 @@ public class VersionTables {
 	 * @return All versions of the class
 	 */
 	public static List<Class<?>> getVersions(Class<?> clazz) {
-		int code = clazz.getName().hashCode();
-		List<Class<?>> versions = allVersions.get(code);
-		if (versions == null)
-			versions = new ArrayList<Class<?>>();
-		return versions;
+		return entries.get(clazz).versions;
 	}
 
 	/**
@@ -161,7 +209,7 @@ public class VersionTables {
 	 * @return The original class
 	 */
 	public static Class<?> isVersionOf(Class<?> clazz) {
-		return versionOf.get(clazz.getName().hashCode());
+		return entries.get(clazz).versionOf;
 	}
 
 	/**
@@ -172,6 +220,34 @@ public class VersionTables {
 	 * @return The original class
 	 */
 	public static Class<?> isVersionOf(String className) {
-		return versionOf.get(className.hashCode());
+		VersionEntry entry = entriesByName.get(className);
+		if (entry != null)
+			return entry.versionOf;
+		return null;
+	}
+
+	/**
+	 * Obtains the entry of the class and indexes it by name
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @return The entry of the class
+	 */
+	private static VersionEntry getEntry(Class<?> clazz) {
+		VersionEntry entry = entries.get(clazz);
+		entriesByName.put(clazz.getName(), entry);
+		return entry;
+	}
+
+	/**
+	 * Versioning information of one class
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class VersionEntry {
+		volatile Class<?> newVersion;
+		volatile Class<?> versionOf;
+		volatile List<Class<?>> versions = Collections.emptyList();
 	}
 }
@@ -0,0 +1,50 @@
+package jmplib.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Class file produced by the Java Compiler that is kept in memory instead of
+ * being written to the file system.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ByteCodeFileObject extends SimpleJavaFileObject {
+
+	/**
+	 * The bytecode of this "file".
+	 */
+	private final ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+
+	private final String className;
+
+	/**
+	 * Constructs a new ByteCodeFileObject.
+	 * 
+	 * @param className
+	 *            the binary name of the class represented by this file object
+	 */
+	public ByteCodeFileObject(String className) {
+		super(URI.create("bytes:///" + className.replace('.', '/')
+				+ Kind.CLASS.extension), Kind.CLASS);
+		this.className = className;
+	}
+
+	@Override
+	public OutputStream openOutputStream() {
+		return bytecode;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public byte[] getBytes() {
+		return bytecode.toByteArray();
+	}
+
+}
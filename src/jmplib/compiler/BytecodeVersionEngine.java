@@ -0,0 +1,407 @@
+package jmplib.compiler;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import jmplib.classversions.VersionTables;
+import jmplib.exceptions.CompilationFailedException;
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.javaparser.util.JavaParserUtils;
+import jmplib.primitives.Primitive;
+import jmplib.primitives.impl.AddMethodPrimitive;
+import jmplib.primitives.impl.ReplaceImplementationPrimitive;
+import jmplib.sourcecode.ClassContent;
+import jmplib.util.ClassPathUtil;
+import jmplib.util.FileUtils;
+import jmplib.util.JavaSourceFromString;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+
+/**
+ * <p>
+ * Alternative engine that generates the new versions of the classes from the
+ * bytecode of their current versions. The new version of each class is the
+ * current version renamed with ASM, as {@code updateVersion} does with the
+ * source code, so the method bodies of the hierarchy are not instrumented and
+ * compiled again.
+ * </p>
+ * <p>
+ * The engine does not avoid Polyglot and the Java compiler. The methods
+ * supplied by the user are source code, so they are still instrumented and
+ * compiled. The sources of the classes are reduced to stubs where the rest of
+ * the method bodies are empty, and the stubs of the whole transaction are
+ * instrumented with Polyglot and compiled together from temporary files. Then
+ * the compiled methods are grafted into the renamed bytecode. Only the bodies
+ * of the methods not modified are reused without being compiled again. The
+ * source files of the versions are not written.
+ * </p>
+ * <p>
+ * The engine is enabled with the {@code versioning.engine=bytecode} property
+ * of the config.properties file. It supports the transactions made only of
+ * added methods and replaced implementations over classes that already have a
+ * version compiled at runtime. Otherwise, the source engine is used.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class BytecodeVersionEngine {
+
+	private static final String ENGINE_PROPERTY = "versioning.engine";
+	private static final String PROPERTY_FILE_NAME = "config.properties";
+	private static final String BYTECODE_ENGINE = "bytecode";
+
+	private static Boolean enabled = null;
+
+	private BytecodeVersionEngine() {
+	}
+
+	/**
+	 * Checks if the engine is enabled in the configuration
+	 * 
+	 * @return {@code true} if the bytecode engine has to be used
+	 */
+	public static boolean isEnabled() {
+		if (enabled == null) {
+			try {
+				enabled = BYTECODE_ENGINE.equals(FileUtils.getProperty(
+						ENGINE_PROPERTY, PROPERTY_FILE_NAME));
+			} catch (StructuralIntercessionException e) {
+				enabled = false;
+			}
+		}
+		return enabled;
+	}
+
+	/**
+	 * Generates the bytecode of the new versions of the classes modified by the
+	 * primitives.
+	 * 
+	 * @param primitives
+	 *            The primitives executed over the source code
+	 * @param classContents
+	 *            The classes that evolve to a new version
+	 * @return Map with the name of each new version and its bytes or
+	 *         {@code null} if the changes are not supported by the engine
+	 * @throws CompilationFailedException
+	 *             If the methods of the user have compilation errors
+	 * @throws StructuralIntercessionException
+	 *             If the sources cannot be processed
+	 * @throws IOException
+	 *             If the stubs cannot be written
+	 */
+	public static Map<String, byte[]> generate(
+			Collection<Primitive> primitives,
+			Collection<ClassContent> classContents)
+			throws CompilationFailedException, StructuralIntercessionException,
+			IOException {
+		// Methods compiled for each modified class
+		Map<Class<?>, Set<String>> methods = getModifiedMethods(primitives);
+		if (methods == null) {
+			return null;
+		}
+		// Names of the current versions and the new ones
+		Map<String, String> names = new HashMap<String, String>();
+		Map<ClassContent, byte[]> currentVersions = new HashMap<ClassContent, byte[]>();
+		for (ClassContent classContent : classContents) {
+			Class<?> currentVersion = VersionTables.getNewVersion(classContent
+					.getClazz());
+			byte[] bytes = ClassCompiler.getInstance().getBytecode(
+					currentVersion.getName());
+			if (currentVersion == classContent.getClazz() || bytes == null) {
+				return null;
+			}
+			currentVersions.put(classContent, bytes);
+			names.put(currentVersion.getName().replace('.', '/'),
+					getVersionName(classContent).replace('.', '/'));
+		}
+		Map<ClassContent, ClassNode> stubs = compileStubs(classContents,
+				methods);
+		if (stubs == null) {
+			return null;
+		}
+		SimpleRemapper remapper = new SimpleRemapper(names);
+		Map<String, byte[]> bytecode = new LinkedHashMap<String, byte[]>();
+		for (ClassContent classContent : classContents) {
+			// Rename the current version
+			ClassReader reader = new ClassReader(
+					currentVersions.get(classContent));
+			ClassNode classNode = new ClassNode();
+			reader.accept(new ClassRemapper(classNode, remapper), 0);
+			if (hasInnerClasses(classNode, reader.getClassName())) {
+				return null;
+			}
+			// Graft the methods of the user
+			Set<String> modifiedMethods = methods.get(classContent.getClazz());
+			if (modifiedMethods != null) {
+				if (!graft(classNode, stubs.get(classContent),
+						modifiedMethods)) {
+					return null;
+				}
+			}
+			ClassWriter writer = new ClassWriter(0);
+			classNode.accept(writer);
+			bytecode.put(getVersionName(classContent), writer.toByteArray());
+		}
+		return bytecode;
+	}
+
+	/**
+	 * Obtains the methods that have to be compiled for each class
+	 * 
+	 * @param primitives
+	 *            The primitives executed
+	 * @return The names of the methods by class or {@code null} if any
+	 *         primitive is not supported
+	 */
+	private static Map<Class<?>, Set<String>> getModifiedMethods(
+			Collection<Primitive> primitives) {
+		Map<Class<?>, Set<String>> methods = new HashMap<Class<?>, Set<String>>();
+		for (Primitive primitive : primitives) {
+			if (primitive instanceof AddMethodPrimitive) {
+				AddMethodPrimitive addMethod = (AddMethodPrimitive) primitive;
+				Set<String> names = getNames(methods, addMethod
+						.getClassContent().getClazz());
+				names.add(addMethod.getName());
+				names.add("_" + addMethod.getName() + "_invoker");
+			} else if (primitive instanceof ReplaceImplementationPrimitive) {
+				ReplaceImplementationPrimitive replace = (ReplaceImplementationPrimitive) primitive;
+				getNames(methods, replace.getClassContent().getClazz()).add(
+						replace.getName());
+			} else {
+				return null;
+			}
+		}
+		return methods;
+	}
+
+	/**
+	 * Obtains the set of method names of the class
+	 * 
+	 * @param methods
+	 *            Map of method names by class
+	 * @param clazz
+	 *            The class
+	 * @return The set of names
+	 */
+	private static Set<String> getNames(Map<Class<?>, Set<String>> methods,
+			Class<?> clazz) {
+		Set<String> names = methods.get(clazz);
+		if (names == null) {
+			names = new HashSet<String>();
+			methods.put(clazz, names);
+		}
+		return names;
+	}
+
+	/**
+	 * Compiles the stubs of the classes in one pass. The stubs contain all the
+	 * members of the classes, but only the modified methods keep their bodies.
+	 * 
+	 * @param classContents
+	 *            The classes that evolve to a new version
+	 * @param methods
+	 *            The names of the methods to compile by class
+	 * @return The {@link ClassNode} of the compiled stub of each class or
+	 *         {@code null} if any stub is not compiled to its version
+	 * @throws CompilationFailedException
+	 *             If the methods have compilation errors
+	 * @throws StructuralIntercessionException
+	 *             If the sources cannot be parsed
+	 * @throws IOException
+	 *             If the temporary stubs cannot be written
+	 */
+	private static Map<ClassContent, ClassNode> compileStubs(
+			Collection<ClassContent> classContents,
+			Map<Class<?>, Set<String>> methods)
+			throws CompilationFailedException, StructuralIntercessionException,
+			IOException {
+		// The stubs are written in a temporary folder, the source files of the
+		// versions keep the complete classes
+		File folder = Files.createTempDirectory("jmplib-stub").toFile();
+		Map<String, byte[]> compiled;
+		try {
+			File[] files = new File[classContents.size()];
+			int i = 0;
+			for (ClassContent classContent : classContents) {
+				Set<String> modifiedMethods = methods.get(classContent
+						.getClazz());
+				files[i] = new File(folder,
+						new File(classContent.getPath()).getName());
+				FileWriter writer = new FileWriter(files[i], false);
+				writer.write(getStub(classContent,
+						modifiedMethods == null ? new HashSet<String>()
+								: modifiedMethods));
+				writer.close();
+				i++;
+			}
+			JavaSourceFromString[] instrumented = PolyglotAdapter
+					.instrument(files);
+			compiled = ClassCompiler.getInstance().compileToBytecode(
+					ClassPathUtil.getApplicationClassPath(), instrumented);
+		} finally {
+			FileUtils.deleteFile(folder);
+		}
+		Map<ClassContent, ClassNode> stubs = new HashMap<ClassContent, ClassNode>();
+		for (ClassContent classContent : classContents) {
+			byte[] bytes = compiled.get(getVersionName(classContent));
+			if (bytes == null) {
+				return null;
+			}
+			ClassNode stub = new ClassNode();
+			new ClassReader(bytes).accept(stub, 0);
+			stubs.put(classContent, stub);
+		}
+		return stubs;
+	}
+
+	/**
+	 * Builds the stub of the class
+	 * 
+	 * @param classContent
+	 *            The class
+	 * @param methods
+	 *            The names of the methods that keep their bodies
+	 * @return The source code of the stub
+	 * @throws StructuralIntercessionException
+	 *             If the source cannot be parsed
+	 */
+	private static String getStub(ClassContent classContent,
+			Set<String> methods) throws StructuralIntercessionException {
+		try {
+			CompilationUnit unit = JavaParserUtils.parse(classContent
+					.getContent());
+			TypeDeclaration td = JavaParserUtils.searchType(unit,
+					getVersionName(classContent));
+			for (BodyDeclaration member : td.getMembers()) {
+				if (member instanceof MethodDeclaration) {
+					MethodDeclaration method = (MethodDeclaration) member;
+					if (method.getBody() != null
+							&& !methods.contains(method.getName())) {
+						method.setBody(JavaParser.parseBlock("{throw null;}"));
+					}
+				}
+			}
+			return unit.toString();
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Replaces the modified methods of the renamed version with the methods
+	 * compiled in the stub.
+	 * 
+	 * @param classNode
+	 *            The renamed version
+	 * @param stub
+	 *            The compiled stub
+	 * @param methods
+	 *            The names of the modified methods
+	 * @return {@code false} if the stub has members that are not in the
+	 *         renamed version
+	 */
+	private static boolean graft(ClassNode classNode, ClassNode stub,
+			Set<String> methods) {
+		Set<String> fields = new HashSet<String>();
+		for (FieldNode field : classNode.fields) {
+			fields.add(field.name + field.desc);
+		}
+		for (FieldNode field : stub.fields) {
+			if (!fields.contains(field.name + field.desc)) {
+				return false;
+			}
+		}
+		Set<String> signatures = new HashSet<String>();
+		for (MethodNode method : classNode.methods) {
+			signatures.add(method.name + method.desc);
+		}
+		for (MethodNode method : stub.methods) {
+			if (!isModified(method.name, methods)
+					&& !signatures.contains(method.name + method.desc)) {
+				return false;
+			}
+		}
+		classNode.methods.removeIf(method -> isModified(method.name, methods));
+		for (MethodNode method : stub.methods) {
+			if (isModified(method.name, methods)) {
+				classNode.methods.add(method);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the method is one of the modified methods or a lambda
+	 * generated inside them
+	 * 
+	 * @param name
+	 *            The name of the method
+	 * @param methods
+	 *            The names of the modified methods
+	 * @return {@code true} if the method comes from the stub
+	 */
+	private static boolean isModified(String name, Set<String> methods) {
+		if (name.startsWith("lambda$") && name.lastIndexOf('$') > 6) {
+			return methods.contains(name.substring(7, name.lastIndexOf('$')));
+		}
+		return methods.contains(name);
+	}
+
+	/**
+	 * Checks if the class has inner classes that would have to be renamed too
+	 * 
+	 * @param classNode
+	 *            The class
+	 * @param currentName
+	 *            The internal name of the current version
+	 * @return {@code true} if the class declares inner classes
+	 */
+	private static boolean hasInnerClasses(ClassNode classNode,
+			String currentName) {
+		for (InnerClassNode innerClass : classNode.innerClasses) {
+			if (innerClass.name.startsWith(currentName + "$")
+					|| innerClass.name.startsWith(classNode.name + "$")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Obtains the name of the new version of the class
+	 * 
+	 * @param classContent
+	 *            The class
+	 * @return The name of the new version
+	 */
+	private static String getVersionName(ClassContent classContent) {
+		return classContent.getClazz().getName() + "_NewVersion_"
+				+ classContent.getVersion();
+	}
+
+}
@@ -4,8 +4,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
@@ -16,12 +31,41 @@ import javax.tools.ToolProvider;
 import jmplib.exceptions.CompilationFailedException;
 import jmplib.exceptions.StructuralIntercessionException;
 import jmplib.util.FileUtils;
-import jmplib.util.PathConstants;
+
+import org.objectweb.asm.ClassReader;
 
 /**
+ * <p>
  * This class is used for compile java files at runtime. The class implements a
  * singleton pattern so all the constructors are private. It is possible to
  * create an instance through the {@link ClassCompiler#getInstance()} method.
+ * The compiled classes are kept in memory and defined directly in the class
+ * loader of the application or, if they are enabled, in a new
+ * {@link VersionClassLoader} for each batch. The classes that invoke dynamic
+ * code are defined in their own {@link IsolatedClassLoader}.
+ * </p>
+ * <p>
+ * The classes are defined in the class loader of the application through a
+ * lookup inside a class of their package, obtained with
+ * MethodHandles.privateLookupIn. Java 8 has no such lookup, there the
+ * protected defineClass method of the class loader is used. The classes of
+ * packages without any class loaded, and every class if neither way is
+ * available, are defined in a new {@link VersionClassLoader}.
+ * </p>
+ * <p>
+ * The classes generated with ASM to invoke dynamic code are defined as hidden
+ * classes when Lookup.defineHiddenClass exists (Java 15 or newer). A hidden
+ * class is not registered in any class loader and it is unloaded as soon as
+ * it is no longer used. In older versions an {@link IsolatedClassLoader} is
+ * created for each of them instead.
+ * </p>
+ * <p>
+ * The compiler and its file managers are created once and reused by all the
+ * compilations, so the classpath index built by the file managers survives
+ * between commits. Each concurrent compilation takes its own file manager from
+ * a pool, because the file managers are not thread safe. The sessions are
+ * reopened after {@link ClassCompiler#invalidate()} is called.
+ * </p>
  * 
  * @author Ignacio Lagartos
  * 
@@ -32,44 +76,514 @@ public class ClassCompiler {
 	private static final String PROPERTY_FILE_NAME = "config.properties";
 	private static ClassCompiler _instance = new ClassCompiler();
 
+	private static final MethodHandle PRIVATE_LOOKUP_IN, LOOKUP_DEFINE_CLASS;
+	private static final MethodHandle DEFINE_HIDDEN_CLASS;
+	private static final Object NO_CLASS_OPTIONS;
+	private static Method defineClass = null;
+	private static boolean defineClassResolved = false;
+
+	private ClassLoader classLoader = ClassCompiler.class.getClassLoader();
+	private Map<String, byte[]> bytecode = new ConcurrentHashMap<String, byte[]>();
+
+	private JavaCompiler compiler = null;
+
+	/**
+	 * The idle sessions of the compiler
+	 */
+	private Queue<Session> sessions = new ConcurrentLinkedQueue<Session>();
+
+	/**
+	 * The sessions opened before the last invalidation are closed
+	 */
+	private AtomicInteger epoch = new AtomicInteger();
+
+	static {
+		MethodHandle privateLookupIn, lookupDefineClass;
+		try {
+			Lookup lookup = MethodHandles.publicLookup();
+			privateLookupIn = lookup.findStatic(MethodHandles.class,
+					"privateLookupIn", MethodType.methodType(Lookup.class,
+							Class.class, Lookup.class));
+			lookupDefineClass = lookup.findVirtual(Lookup.class,
+					"defineClass",
+					MethodType.methodType(Class.class, byte[].class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			// The classes are defined with the method of the class loader
+			privateLookupIn = null;
+			lookupDefineClass = null;
+		}
+		PRIVATE_LOOKUP_IN = privateLookupIn;
+		LOOKUP_DEFINE_CLASS = lookupDefineClass;
+		MethodHandle defineHiddenClass;
+		Object noClassOptions;
+		try {
+			Class<?> classOption = Class
+					.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			noClassOptions = Array.newInstance(classOption, 0);
+			defineHiddenClass = MethodHandles.publicLookup()
+					.findVirtual(Lookup.class, "defineHiddenClass",
+							MethodType.methodType(Lookup.class, byte[].class,
+									boolean.class, noClassOptions.getClass()))
+					.asFixedArity();
+		} catch (ClassNotFoundException | NoSuchMethodException
+				| IllegalAccessException e) {
+			// The generated classes are defined in isolated loaders
+			defineHiddenClass = null;
+			noClassOptions = null;
+		}
+		DEFINE_HIDDEN_CLASS = defineHiddenClass;
+		NO_CLASS_OPTIONS = noClassOptions;
+	}
+
 	private ClassCompiler() {
 	}
 
 	/**
 	 * This method compiles multiple java files at runtime. If anyone of those
-	 * has compilation errors, no one would be compiled.
+	 * has compilation errors, no one would be compiled. The output of the
+	 * compiler is kept in memory and the classes are defined directly in the
+	 * class loader of the application.
 	 * 
+	 * @param classPath
+	 *            The classpath used in the compilation
 	 * @param files
 	 *            The java files to be compiled
-	 * @param classes
-	 *            The names of the classes that will be compiled
+	 * @return Map with the name of each compiled class and its {@link Class}
 	 * @throws IOException
 	 * @throws CompilationFailedException
 	 *             It's thrown when the file have source code errors.
 	 * @throws StructuralIntercessionException
 	 */
-	public void compile(List<File> classPath, JavaFileObject... files)
-			throws CompilationFailedException, IOException,
-			StructuralIntercessionException {
-		System.setProperty(JAVA_HOME,
-				FileUtils.getProperty(JAVA_HOME, PROPERTY_FILE_NAME));
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		StandardJavaFileManager fileManager = compiler.getStandardFileManager(
-				null, null, null);
+	public Map<String, Class<?>> compile(List<File> classPath,
+			JavaFileObject... files) throws CompilationFailedException,
+			IOException, StructuralIntercessionException {
+		return define(compileToBytecode(classPath, files));
+	}
+
+	/**
+	 * Defines the classes in the class loader of the application
+	 * 
+	 * @param compiled
+	 *            Map with the name of each class and its bytes
+	 * @return Map with the name of each class and its {@link Class}
+	 * @throws StructuralIntercessionException
+	 *             If any class cannot be defined
+	 */
+	public Map<String, Class<?>> define(Map<String, byte[]> compiled)
+			throws StructuralIntercessionException {
+		Map<String, Class<?>> classes = new LinkedHashMap<String, Class<?>>();
+		VersionClassLoader[] generation = new VersionClassLoader[1];
+		if (VersionClassLoader.isEnabled())
+			generation[0] = new VersionClassLoader(classLoader);
+		for (String className : compiled.keySet()) {
+			define(className, compiled, classes, generation);
+		}
+		return classes;
+	}
+
+	/**
+	 * Compiles the generated classes used to invoke dynamic code. The classes
+	 * are defined in their own {@link IsolatedClassLoader} and their bytes
+	 * are not kept, so they can be unloaded when they are no longer used.
+	 * 
+	 * @param classPath
+	 *            The classpath used in the compilation
+	 * @param files
+	 *            The java files to be compiled
+	 * @return Map with the name of each compiled class and its {@link Class}
+	 * @throws IOException
+	 * @throws CompilationFailedException
+	 *             It's thrown when the file have source code errors.
+	 * @throws StructuralIntercessionException
+	 */
+	public Map<String, Class<?>> compileIsolated(List<File> classPath,
+			JavaFileObject... files) throws CompilationFailedException,
+			IOException, StructuralIntercessionException {
+		return defineIsolated(compileToBytecode(classPath, files));
+	}
+
+	/**
+	 * Defines the classes in a new {@link IsolatedClassLoader}
+	 * 
+	 * @param compiled
+	 *            Map with the name of each class and its bytes
+	 * @return Map with the name of each class and its {@link Class}
+	 * @throws StructuralIntercessionException
+	 *             If any class cannot be defined
+	 */
+	public Map<String, Class<?>> defineIsolated(Map<String, byte[]> compiled)
+			throws StructuralIntercessionException {
+		Map<String, Class<?>> classes = new LinkedHashMap<String, Class<?>>();
+		IsolatedClassLoader loader = new IsolatedClassLoader(classLoader,
+				compiled);
+		for (String className : compiled.keySet()) {
+			try {
+				classes.put(className, loader.loadClass(className));
+			} catch (ClassNotFoundException | LinkageError e) {
+				throw new StructuralIntercessionException("The class "
+						+ className + " cannot be defined", e);
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * Checks if the hidden classes are supported by the virtual machine
+	 * 
+	 * @return {@code true} if {@link #defineHidden(Lookup, byte[])} can be
+	 *         used
+	 */
+	public boolean supportsHiddenClasses() {
+		return DEFINE_HIDDEN_CLASS != null;
+	}
+
+	/**
+	 * Defines a hidden class. The class has to be in the package of the
+	 * lookup class and it can only be reached through the returned
+	 * {@link Class}. The class is not initialized.
+	 * 
+	 * @param lookup
+	 *            Lookup with full privilege access in the package of the class
+	 * @param bytes
+	 *            The bytes of the class
+	 * @return The hidden class
+	 * @throws StructuralIntercessionException
+	 *             If the hidden classes are not supported or the class cannot
+	 *             be defined
+	 */
+	public Class<?> defineHidden(Lookup lookup, byte[] bytes)
+			throws StructuralIntercessionException {
+		if (DEFINE_HIDDEN_CLASS == null)
+			throw new StructuralIntercessionException(
+					"The hidden classes are not supported by this virtual machine");
+		try {
+			return ((Lookup) DEFINE_HIDDEN_CLASS.invoke(lookup, bytes, false,
+					NO_CLASS_OPTIONS)).lookupClass();
+		} catch (Throwable e) {
+			throw new StructuralIntercessionException("The class "
+					+ new ClassReader(bytes).getClassName().replace('/', '.')
+					+ " cannot be defined", e);
+		}
+	}
+
+	/**
+	 * Obtains the bytecode generated by the compiler for the specified class
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @return The bytes of the class or {@code null} if the class was not
+	 *         compiled at runtime
+	 */
+	public byte[] getBytecode(String className) {
+		return bytecode.get(className);
+	}
+
+	/**
+	 * Removes the bytecode stored for the class. It is used when the class is
+	 * unloaded.
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 */
+	public void removeBytecode(String className) {
+		bytecode.remove(className);
+	}
+
+	/**
+	 * Replaces the bytecode stored for the class. It is used when the class
+	 * is redefined with a new implementation.
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @param bytes
+	 *            The new bytes of the class
+	 */
+	public void setBytecode(String className, byte[] bytes) {
+		bytecode.put(className, bytes);
+	}
+
+	/**
+	 * Compiles the files keeping the output in memory. The classes are not
+	 * defined. This method can be called by several threads at the same time.
+	 * 
+	 * @param classPath
+	 *            The classpath used in the compilation
+	 * @param files
+	 *            The java files to be compiled
+	 * @return Map with the name of each compiled class and its bytes
+	 * @throws IOException
+	 * @throws CompilationFailedException
+	 *             It's thrown when the file have source code errors.
+	 * @throws StructuralIntercessionException
+	 */
+	public Map<String, byte[]> compileToBytecode(List<File> classPath,
+			JavaFileObject... files) throws CompilationFailedException,
+			IOException, StructuralIntercessionException {
 		boolean compiled = false;
 		Writer errors = new StringWriter();
-		fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
-				Arrays.asList(new File(PathConstants.ORIGINAL_CLASS_PATH)));
-		fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
-		// Compile the file
-		compiled = compiler.getTask(errors, fileManager, null,
-				Arrays.asList("-g"), null, Arrays.asList(files)).call();
-		fileManager.close();
+		Session session = openSession(classPath);
+		InMemoryFileManager fileManager = new InMemoryFileManager(
+				session.fileManager);
+		try {
+			// Compile the file
+			compiled = getCompiler().getTask(errors, fileManager, null,
+					Arrays.asList("-g"), null, Arrays.asList(files)).call();
+		} finally {
+			// The standard file manager is not closed, it is reused later
+			releaseSession(session);
+		}
 		if (!compiled) {
 			throw new CompilationFailedException(
 					"The compilation of the classes failed.\n"
 							+ errors.toString(), errors.toString());
 		}
+		return fileManager.getCompiledClasses();
+	}
+
+	/**
+	 * Obtains the Java Compiler, it is created the first time
+	 * 
+	 * @return The {@link JavaCompiler}
+	 * @throws StructuralIntercessionException
+	 *             If the configuration cannot be read
+	 */
+	private synchronized JavaCompiler getCompiler()
+			throws StructuralIntercessionException {
+		if (compiler == null) {
+			System.setProperty(JAVA_HOME,
+					FileUtils.getProperty(JAVA_HOME, PROPERTY_FILE_NAME));
+			compiler = ToolProvider.getSystemJavaCompiler();
+		}
+		return compiler;
+	}
+
+	/**
+	 * Takes an idle session of the compiler. The sessions invalidated are
+	 * closed and a new one is created if there is no idle session. The
+	 * classpath is only updated when it changes.
+	 * 
+	 * @param classPath
+	 *            The classpath used in the compilation
+	 * @return The session
+	 * @throws IOException
+	 *             If the classpath cannot be set
+	 * @throws StructuralIntercessionException
+	 *             If the configuration cannot be read
+	 */
+	private Session openSession(List<File> classPath) throws IOException,
+			StructuralIntercessionException {
+		int current = epoch.get();
+		Session session;
+		while ((session = sessions.poll()) != null) {
+			if (session.epoch == current)
+				break;
+			session.fileManager.close();
+		}
+		if (session == null) {
+			session = new Session(getCompiler().getStandardFileManager(null,
+					null, null), current);
+		}
+		if (!classPath.equals(session.classPath)) {
+			session.fileManager.setLocation(StandardLocation.CLASS_PATH,
+					classPath);
+			session.classPath = new ArrayList<File>(classPath);
+		}
+		return session;
+	}
+
+	/**
+	 * Returns the session to the pool, unless it has been invalidated
+	 * 
+	 * @param session
+	 *            The session
+	 * @throws IOException
+	 *             If the invalidated session cannot be closed
+	 */
+	private void releaseSession(Session session) throws IOException {
+		if (session.epoch == epoch.get())
+			sessions.add(session);
+		else
+			session.fileManager.close();
+	}
+
+	/**
+	 * Invalidates the compiler sessions. The file managers are reopened in
+	 * the next compilations, so the classes that were modified in the
+	 * generated_bin folder are read again.
+	 */
+	public void invalidate() {
+		epoch.incrementAndGet();
+	}
+
+	/**
+	 * Defines the class in the class loader of the application. The
+	 * superclass and the interfaces compiled in the same batch are defined
+	 * first because the loader cannot find them by itself.
+	 * 
+	 * @param className
+	 *            The name of the class to define
+	 * @param compiled
+	 *            The bytes of the whole batch
+	 * @param classes
+	 *            The classes defined so far
+	 * @param generation
+	 *            Holder of the loader of the batch, it is empty while the
+	 *            classes are defined in the class loader of the application
+	 * @return The defined class
+	 * @throws StructuralIntercessionException
+	 *             If the class cannot be defined
+	 */
+	private Class<?> define(String className, Map<String, byte[]> compiled,
+			Map<String, Class<?>> classes, VersionClassLoader[] generation)
+			throws StructuralIntercessionException {
+		if (classes.containsKey(className)) {
+			return classes.get(className);
+		}
+		byte[] bytes = compiled.get(className);
+		ClassReader reader = new ClassReader(bytes);
+		String superName = reader.getSuperName();
+		if (superName != null
+				&& compiled.containsKey(superName.replace('/', '.'))) {
+			define(superName.replace('/', '.'), compiled, classes, generation);
+		}
+		for (String interfaceName : reader.getInterfaces()) {
+			if (compiled.containsKey(interfaceName.replace('/', '.'))) {
+				define(interfaceName.replace('/', '.'), compiled, classes,
+						generation);
+			}
+		}
+		// The bytes must be available before the transformers are executed
+		bytecode.put(className, bytes);
+		try {
+			Class<?> clazz = null;
+			if (generation[0] == null)
+				clazz = defineInApplication(className, bytes, classes);
+			if (clazz == null) {
+				if (generation[0] == null)
+					generation[0] = new VersionClassLoader(classLoader);
+				clazz = generation[0].define(className, bytes);
+			}
+			classes.put(className, clazz);
+			return clazz;
+		} catch (LinkageError e) {
+			bytecode.remove(className);
+			throw new StructuralIntercessionException("The class "
+					+ className + " cannot be defined", e);
+		} catch (StructuralIntercessionException e) {
+			bytecode.remove(className);
+			throw e;
+		}
+	}
+
+	/**
+	 * Defines the class in the class loader of the application. The lookup of
+	 * a class of the same package is used if it exists, otherwise the
+	 * defineClass method of the class loader is invoked.
+	 * 
+	 * @param className
+	 *            The name of the class to define
+	 * @param bytes
+	 *            The bytes of the class
+	 * @param classes
+	 *            The classes defined so far
+	 * @return The defined class or {@code null} if the class loader of the
+	 *         application cannot define it
+	 * @throws StructuralIntercessionException
+	 *             If the class cannot be defined
+	 */
+	private Class<?> defineInApplication(String className, byte[] bytes,
+			Map<String, Class<?>> classes)
+			throws StructuralIntercessionException {
+		try {
+			Class<?> host = getHost(className, classes);
+			if (host != null) {
+				Lookup lookup = (Lookup) PRIVATE_LOOKUP_IN.invokeExact(host,
+						MethodHandles.lookup());
+				return (Class<?>) LOOKUP_DEFINE_CLASS.invokeExact(lookup,
+						bytes);
+			}
+			Method method = getDefineClass();
+			if (method == null)
+				return null;
+			return (Class<?>) method.invoke(classLoader, className, bytes, 0,
+					bytes.length, null);
+		} catch (InvocationTargetException e) {
+			throw new StructuralIntercessionException("The class "
+					+ className + " cannot be defined", e.getCause());
+		} catch (LinkageError e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new StructuralIntercessionException("The class "
+					+ className + " cannot be defined", e);
+		}
+	}
+
+	/**
+	 * Obtains a class of the package of the new class loaded by the class
+	 * loader of the application. The lookups inside it define classes in the
+	 * same runtime package. The versions are hosted by their original class.
+	 * 
+	 * @param className
+	 *            The name of the class to define
+	 * @param classes
+	 *            The classes defined so far
+	 * @return The class or {@code null} if there is no lookup to define
+	 *         classes or no class of the package is loaded
+	 */
+	private Class<?> getHost(String className, Map<String, Class<?>> classes) {
+		if (PRIVATE_LOOKUP_IN == null)
+			return null;
+		String packageName = getPackageName(className);
+		for (Class<?> clazz : classes.values()) {
+			if (clazz.getClassLoader() == classLoader
+					&& getPackageName(clazz.getName()).equals(packageName))
+				return clazz;
+		}
+		int index = className.indexOf("_NewVersion_");
+		if (index < 0)
+			return null;
+		try {
+			return Class.forName(className.substring(0, index), false,
+					classLoader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Obtains the package of the class
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @return The name of the package
+	 */
+	private static String getPackageName(String className) {
+		int index = className.lastIndexOf('.');
+		return index < 0 ? "" : className.substring(0, index);
+	}
+
+	/**
+	 * Obtains the defineClass method of the class loaders, it is made
+	 * accessible the first time. Since Java 16 it cannot be accessed from
+	 * outside the java.base module.
+	 * 
+	 * @return The method or {@code null} if it is not accessible
+	 */
+	private static synchronized Method getDefineClass() {
+		if (!defineClassResolved) {
+			defineClassResolved = true;
+			try {
+				Method method = ClassLoader.class.getDeclaredMethod(
+						"defineClass", String.class, byte[].class, int.class,
+						int.class, ProtectionDomain.class);
+				method.setAccessible(true);
+				defineClass = method;
+			} catch (NoSuchMethodException | RuntimeException e) {
+				// The classes are defined by a generation loader
+				defineClass = null;
+			}
+		}
+		return defineClass;
 	}
 
 	/**
@@ -81,4 +595,23 @@ public class ClassCompiler {
 		return _instance;
 	}
 
+	/**
+	 * File manager of the compiler and the classpath set on it
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Session {
+
+		private final StandardJavaFileManager fileManager;
+		private final int epoch;
+		private List<File> classPath = null;
+
+		public Session(StandardJavaFileManager fileManager, int epoch) {
+			this.fileManager = fileManager;
+			this.epoch = epoch;
+		}
+
+	}
+
 }
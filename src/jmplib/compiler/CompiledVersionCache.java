@@ -0,0 +1,338 @@
+package jmplib.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.sourcecode.ClassContent;
+import jmplib.sourcecode.ClassContent.Published;
+import jmplib.sourcecode.SourceCodeCache;
+import jmplib.util.ClassPathUtil;
+import jmplib.util.FileUtils;
+import jmplib.util.JavaSourceFromString;
+import jmplib.util.PathConstants;
+
+import com.github.javaparser.ParseException;
+
+/**
+ * <p>
+ * Persistent cache of the compiled versions. The entries are indexed by a
+ * hash of the source code of the classes compiled together, the published
+ * versions of the classes they reference and a fingerprint of the classpath,
+ * so the same changes applied in other executions or in other nodes sharing
+ * the folder reuse the instrumented sources and the bytecode without running
+ * Polyglot and the Java Compiler.
+ * </p>
+ * <p>
+ * Each entry is a folder with the bytecode of the classes and the sources
+ * instrumented by Polyglot. The entries are written in a temporary folder and
+ * moved to their final name, so an entry is never read half written.
+ * </p>
+ * <p>
+ * The fingerprint of the classpath covers the version of Java and the name,
+ * size and modification date of every file of the classpath. The
+ * generated_bin folder is not part of it, its classes are derived from the
+ * classes of the application.
+ * </p>
+ * <p>
+ * The cache is enabled with the {@code compiler.cache} property set to the
+ * folder of the cache inside the config.properties file.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class CompiledVersionCache {
+
+	private static final String CACHE_PROPERTY = "compiler.cache";
+	private static final String PROPERTY_FILE_NAME = "config.properties";
+	private static final String CLASSES_FOLDER = "classes";
+	private static final String SOURCES_FOLDER = "sources";
+	private static final String CLASS_EXTENSION = ".class";
+
+	private static Path folder = null;
+	private static boolean initialized = false;
+	private static String classPathFingerprint = null;
+
+	private CompiledVersionCache() {
+	}
+
+	/**
+	 * Checks if the cache is enabled in the configuration
+	 * 
+	 * @return {@code true} if the compiled versions are cached
+	 */
+	public static boolean isEnabled() {
+		return getFolder() != null;
+	}
+
+	/**
+	 * Obtains the key of the classes compiled together. The key covers the
+	 * published version and the source code of every class of the
+	 * application referenced by the partition, so the entry is not reused
+	 * when any of them changes.
+	 * 
+	 * @param partition
+	 *            The classes instrumented together
+	 * @param compiled
+	 *            The classes compiled, the rest are only instrumented
+	 * @return The key of the entry
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
+	 */
+	public static String key(Collection<ClassContent> partition,
+			Set<ClassContent> compiled) throws StructuralIntercessionException {
+		List<ClassContent> sorted = new ArrayList<ClassContent>(partition);
+		sorted.sort(Comparator.comparing(classContent -> classContent
+				.getClazz().getName()));
+		MessageDigest digest = newDigest();
+		update(digest, getClassPathFingerprint());
+		for (ClassContent classContent : sorted) {
+			update(digest, classContent.getClazz().getName());
+			update(digest, String.valueOf(classContent.getVersion()));
+			update(digest, String.valueOf(compiled.contains(classContent)));
+			update(digest, classContent.getContent());
+		}
+		for (Published published : getReferenced(partition)) {
+			update(digest, published.getClazz().getName());
+			update(digest, String.valueOf(published.getVersion()));
+			update(digest, published.getContent());
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Obtains the published state of the classes referenced by the partition
+	 * that are not part of it. The published state is read, the classes can
+	 * be modified at the same time by other executions.
+	 * 
+	 * @param partition
+	 *            The classes compiled together
+	 * @return The classes referenced, sorted by name
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
+	 */
+	private static List<Published> getReferenced(
+			Collection<ClassContent> partition)
+			throws StructuralIntercessionException {
+		List<Published> referenced = new ArrayList<Published>();
+		try {
+			for (ClassContent other : SourceCodeCache.getInstance().getAll()) {
+				Published published = other.getPublished();
+				if (published == null || partition.contains(other))
+					continue;
+				for (ClassContent classContent : partition) {
+					if (classContent.references(published)) {
+						referenced.add(published);
+						break;
+					}
+				}
+			}
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+		referenced.sort(Comparator.comparing(published -> published
+				.getClazz().getName()));
+		return referenced;
+	}
+
+	/**
+	 * Loads the bytecode of one entry. The instrumented sources are written
+	 * over the source files of the classes, as Polyglot does.
+	 * 
+	 * @param key
+	 *            The key of the entry
+	 * @param classContents
+	 *            The classes compiled
+	 * @return Map with the name of each class and its bytes, or {@code null}
+	 *         if the entry is not cached
+	 */
+	public static Map<String, byte[]> load(String key,
+			Collection<ClassContent> classContents) {
+		Path entry = getFolder().resolve(key);
+		if (!Files.isDirectory(entry))
+			return null;
+		Map<String, byte[]> bytecode = new LinkedHashMap<String, byte[]>();
+		try (Stream<Path> classes = Files.list(entry.resolve(CLASSES_FOLDER))) {
+			for (Path path : (Iterable<Path>) classes::iterator) {
+				String fileName = path.getFileName().toString();
+				bytecode.put(fileName.substring(0, fileName.length()
+						- CLASS_EXTENSION.length()), Files.readAllBytes(path));
+			}
+			for (ClassContent classContent : classContents) {
+				File file = new File(classContent.getPath());
+				Path source = entry.resolve(SOURCES_FOLDER).resolve(
+						file.getName());
+				if (Files.exists(source))
+					Files.copy(source, file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// A damaged entry is compiled again
+			return null;
+		}
+		return bytecode.isEmpty() ? null : bytecode;
+	}
+
+	/**
+	 * Stores the result of a compilation. If the entry cannot be written the
+	 * cache is not updated, the compilation is not affected.
+	 * 
+	 * @param key
+	 *            The key of the entry
+	 * @param instrumented
+	 *            The sources instrumented by Polyglot
+	 * @param bytecode
+	 *            Map with the name of each class and its bytes
+	 */
+	public static void store(String key,
+			Collection<JavaSourceFromString> instrumented,
+			Map<String, byte[]> bytecode) {
+		Path entry = getFolder().resolve(key);
+		if (Files.isDirectory(entry))
+			return;
+		Path temporary = null;
+		try {
+			temporary = Files.createTempDirectory(getFolder(), key);
+			Path classes = Files.createDirectory(temporary
+					.resolve(CLASSES_FOLDER));
+			for (Map.Entry<String, byte[]> compiled : bytecode.entrySet()) {
+				Files.write(classes.resolve(compiled.getKey()
+						+ CLASS_EXTENSION), compiled.getValue());
+			}
+			Path sources = Files.createDirectory(temporary
+					.resolve(SOURCES_FOLDER));
+			for (JavaSourceFromString source : instrumented) {
+				Files.write(sources.resolve(source.getClassName() + ".java"),
+						source.getCode().getBytes(StandardCharsets.UTF_8));
+			}
+			try {
+				Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, entry);
+			}
+			temporary = null;
+		} catch (FileAlreadyExistsException e) {
+			// Other execution has stored the same entry
+		} catch (IOException e) {
+			// The entry is not cached
+		} finally {
+			if (temporary != null)
+				FileUtils.deleteFile(temporary.toFile());
+		}
+	}
+
+	/**
+	 * Obtains the folder of the cache, it is created the first time
+	 * 
+	 * @return The folder or {@code null} if the cache is disabled
+	 */
+	private static synchronized Path getFolder() {
+		if (!initialized) {
+			initialized = true;
+			try {
+				String value = FileUtils.getProperty(CACHE_PROPERTY,
+						PROPERTY_FILE_NAME);
+				if (value != null && !value.trim().isEmpty())
+					folder = Files.createDirectories(new File(value.trim())
+							.toPath());
+			} catch (StructuralIntercessionException | IOException e) {
+				folder = null;
+			}
+		}
+		return folder;
+	}
+
+	/**
+	 * Obtains the fingerprint of the classpath, it is calculated the first
+	 * time
+	 * 
+	 * @return The fingerprint
+	 */
+	private static synchronized String getClassPathFingerprint() {
+		if (classPathFingerprint == null) {
+			MessageDigest digest = newDigest();
+			update(digest, System.getProperty("java.version"));
+			for (File entry : ClassPathUtil.getApplicationClassPath()) {
+				if (entry.getName().equals(
+						new File(PathConstants.MODIFIED_CLASS_PATH).getName()))
+					continue;
+				update(digest, entry.getAbsolutePath());
+				try (Stream<Path> files = Files.walk(entry.toPath())) {
+					files.filter(Files::isRegularFile).sorted()
+							.forEach(file -> {
+								File f = file.toFile();
+								update(digest, file.toString());
+								update(digest, f.length() + ":"
+										+ f.lastModified());
+							});
+				} catch (IOException e) {
+					// The entry does not exist
+				}
+			}
+			classPathFingerprint = toHex(digest.digest());
+		}
+		return classPathFingerprint;
+	}
+
+	/**
+	 * Creates the digest used for the keys
+	 * 
+	 * @return The digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Adds one value to the digest, the values are delimited by their length
+	 * 
+	 * @param digest
+	 *            The digest
+	 * @param value
+	 *            The value
+	 */
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update((bytes.length + ":").getBytes(StandardCharsets.UTF_8));
+		digest.update(bytes);
+	}
+
+	/**
+	 * Converts the hash to hexadecimal
+	 * 
+	 * @param hash
+	 *            The bytes of the hash
+	 * @return The hexadecimal representation
+	 */
+	private static String toHex(byte[] hash) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : hash) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,501 @@
+package jmplib.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jmplib.agent.UpdaterAgent;
+import jmplib.classversions.VersionTables;
+import jmplib.exceptions.CompilationFailedException;
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.javaparser.util.JavaParserUtils;
+import jmplib.primitives.Primitive;
+import jmplib.primitives.impl.ReplaceImplementationPrimitive;
+import jmplib.sourcecode.ClassContent;
+import jmplib.sourcecode.SourceCodeCache;
+import jmplib.util.ClassPathUtil;
+import jmplib.util.JavaSourceFromString;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.MethodReferenceExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.TypeDeclarationStmt;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+/**
+ * <p>
+ * Applies the replacements of method bodies redefining the current
+ * implementation of the class with HotSwap, without creating a new version.
+ * The calls to the method are not redirected again, so the replacement does not
+ * add any indirection.
+ * </p>
+ * <p>
+ * If the current implementation of the class is a version compiled at
+ * runtime, the source code of the version is edited in place, instrumented
+ * with Polyglot and compiled again. If the class has no version, the original
+ * class is redefined. The source code of the original classes is instrumented
+ * by the agent when the class is loaded, so the original source file is
+ * compiled with the method bodies of the cached source and the new bytecode is
+ * instrumented again by the agent. Polyglot is not used for the original
+ * classes.
+ * </p>
+ * <p>
+ * The bodies that declare lambdas, method references or classes add members
+ * to the class, they are not applied through HotSwap. If the members of the
+ * new bytecode are not the same than the members of the loaded class, the
+ * redefinition is not possible and the changes have to be made through a new
+ * version.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class HotSwapEngine {
+
+	private HotSwapEngine() {
+	}
+
+	/**
+	 * Checks if the primitives can be applied through HotSwap. All of them
+	 * have to replace the implementation of methods with bodies that do not
+	 * add members to the class. The current implementation of the classes has
+	 * to be the original class or a version compiled at runtime.
+	 * 
+	 * @param primitives
+	 *            The primitives to execute
+	 * @return {@code true} if the primitives can be applied in place
+	 */
+	public static boolean isApplicable(Collection<Primitive> primitives) {
+		if (primitives.isEmpty()) {
+			return false;
+		}
+		for (Primitive primitive : primitives) {
+			if (!(primitive instanceof ReplaceImplementationPrimitive)) {
+				return false;
+			}
+			ReplaceImplementationPrimitive replace = (ReplaceImplementationPrimitive) primitive;
+			ClassContent classContent = replace.getClassContent();
+			if (classContent.isUpdated() || !keepsMembers(replace.getBody())) {
+				return false;
+			}
+			Class<?> currentVersion = VersionTables.getNewVersion(classContent
+					.getClazz());
+			// The original class is redefined
+			if (currentVersion == classContent.getClazz()) {
+				continue;
+			}
+			if (!currentVersion.getName().equals(getVersionName(classContent))
+					|| ClassCompiler.getInstance().getBytecode(
+							currentVersion.getName()) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compiles the edited classes and redefines the loaded ones
+	 * 
+	 * @param classContents
+	 *            The classes whose source has been edited in place
+	 * @return {@code false} if the members of the classes have changed or the
+	 *         virtual machine cannot redefine them
+	 * @throws CompilationFailedException
+	 *             If the methods of the user have compilation errors
+	 * @throws StructuralIntercessionException
+	 *             If the classes cannot be redefined
+	 * @throws IOException
+	 *             If the sources cannot be written
+	 */
+	public static boolean redefine(Collection<ClassContent> classContents)
+			throws CompilationFailedException, StructuralIntercessionException,
+			IOException {
+		List<ClassContent> versions = new ArrayList<ClassContent>();
+		List<ClassContent> originals = new ArrayList<ClassContent>();
+		for (ClassContent classContent : classContents) {
+			Class<?> clazz = classContent.getClazz();
+			if (VersionTables.getNewVersion(clazz) == clazz)
+				originals.add(classContent);
+			else
+				versions.add(classContent);
+		}
+		Map<String, byte[]> compiled = new HashMap<String, byte[]>();
+		if (!versions.isEmpty()) {
+			compiled.putAll(compileVersions(versions));
+		}
+		if (!originals.isEmpty()) {
+			Map<String, byte[]> originalBytes = compileOriginals(originals);
+			if (originalBytes == null) {
+				return false;
+			}
+			compiled.putAll(originalBytes);
+		}
+		// The classes are matched by name, the compilation can generate
+		// other classes
+		Map<Class<?>, byte[]> definitions = new LinkedHashMap<Class<?>, byte[]>();
+		for (ClassContent classContent : classContents) {
+			Class<?> currentVersion = VersionTables.getNewVersion(classContent
+					.getClazz());
+			byte[] bytes = compiled.get(currentVersion.getName());
+			byte[] loaded = getLoadedBytes(currentVersion);
+			if (bytes == null || loaded == null
+					|| !haveSameMembers(loaded, bytes)
+					|| hasLocalClasses(bytes)) {
+				return false;
+			}
+			definitions.put(currentVersion, bytes);
+		}
+		// Redefine all the classes at once
+		try {
+			UpdaterAgent.redefineClasses(definitions);
+		} catch (RuntimeException e) {
+			// The virtual machine rejects the redefinition
+			return false;
+		}
+		for (Class<?> clazz : definitions.keySet()) {
+			ClassCompiler.getInstance().setBytecode(clazz.getName(),
+					definitions.get(clazz));
+		}
+		return true;
+	}
+
+	/**
+	 * Instruments with Polyglot and compiles the versions edited in place
+	 * 
+	 * @param classContents
+	 *            The classes whose current implementation is a version
+	 * @return The bytes of the classes compiled by name
+	 * @throws CompilationFailedException
+	 *             If the methods of the user have compilation errors
+	 * @throws StructuralIntercessionException
+	 *             If the sources cannot be compiled
+	 * @throws IOException
+	 *             If the sources cannot be written
+	 */
+	private static Map<String, byte[]> compileVersions(
+			Collection<ClassContent> classContents)
+			throws CompilationFailedException, StructuralIntercessionException,
+			IOException {
+		File[] files = new File[classContents.size()];
+		int i = 0;
+		for (ClassContent classContent : classContents) {
+			File file = new File(classContent.getPath());
+			file.createNewFile();
+			FileWriter writer = new FileWriter(file, false);
+			writer.write(classContent.getContent());
+			writer.close();
+			files[i++] = file;
+		}
+		JavaSourceFromString[] instrumented = PolyglotAdapter.instrument(files);
+		return ClassCompiler.getInstance().compileToBytecode(
+				ClassPathUtil.getApplicationClassPath(), instrumented);
+	}
+
+	/**
+	 * Compiles the original source files of the classes with the method bodies
+	 * of their cached source code
+	 * 
+	 * @param classContents
+	 *            The classes whose current implementation is the original
+	 *            class
+	 * @return The bytes of the classes compiled by name or {@code null} if
+	 *         the bodies cannot be moved to the original source code
+	 * @throws CompilationFailedException
+	 *             If the methods of the user have compilation errors
+	 * @throws StructuralIntercessionException
+	 *             If the sources cannot be compiled
+	 * @throws IOException
+	 *             If the original sources cannot be read
+	 */
+	private static Map<String, byte[]> compileOriginals(
+			Collection<ClassContent> classContents)
+			throws CompilationFailedException, StructuralIntercessionException,
+			IOException {
+		JavaSourceFromString[] sources = new JavaSourceFromString[classContents
+				.size()];
+		int i = 0;
+		for (ClassContent classContent : classContents) {
+			String source = getOriginalSource(classContent);
+			if (source == null) {
+				return null;
+			}
+			sources[i++] = new JavaSourceFromString(classContent.getClazz()
+					.getName(), source);
+		}
+		return ClassCompiler.getInstance().compileToBytecode(
+				ClassPathUtil.getApplicationClassPath(), sources);
+	}
+
+	/**
+	 * Builds the source code of the original class with the method bodies of
+	 * the cached source code
+	 * 
+	 * @param classContent
+	 *            The class
+	 * @return The source code or {@code null} if any method of the original
+	 *         class cannot be found in the cached source code
+	 * @throws StructuralIntercessionException
+	 *             If the sources cannot be parsed
+	 * @throws IOException
+	 *             If the original source cannot be read
+	 */
+	private static String getOriginalSource(ClassContent classContent)
+			throws StructuralIntercessionException, IOException {
+		Class<?> clazz = classContent.getClazz();
+		try {
+			CompilationUnit original = JavaParser.parse(SourceCodeCache
+					.getInstance().getSourceFile(clazz));
+			TypeDeclaration originalType = JavaParserUtils.searchType(
+					original, clazz.getName());
+			TypeDeclaration cachedType = JavaParserUtils.searchType(
+					classContent.getCompilationUnit(),
+					getVersionName(classContent));
+			if (originalType == null || cachedType == null) {
+				return null;
+			}
+			Map<String, MethodDeclaration> cachedMethods = new HashMap<String, MethodDeclaration>();
+			for (BodyDeclaration member : cachedType.getMembers()) {
+				if (member instanceof MethodDeclaration) {
+					MethodDeclaration method = (MethodDeclaration) member;
+					cachedMethods.put(getSignature(method), method);
+				}
+			}
+			for (BodyDeclaration member : originalType.getMembers()) {
+				if (!(member instanceof MethodDeclaration)
+						|| ((MethodDeclaration) member).getBody() == null) {
+					continue;
+				}
+				MethodDeclaration method = (MethodDeclaration) member;
+				MethodDeclaration cached = cachedMethods
+						.get(getSignature(method));
+				if (cached == null || cached.getBody() == null) {
+					return null;
+				}
+				// The bodies that reference versions cannot be used by the
+				// original class
+				String body = cached.getBody().toString();
+				if (body.contains("_NewVersion_")) {
+					return null;
+				}
+				method.setBody(JavaParser.parseBlock(body));
+			}
+			return original.toString();
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Obtains the name and the parameter types of the method
+	 * 
+	 * @param method
+	 *            The method
+	 * @return The signature of the method in the source code
+	 */
+	private static String getSignature(MethodDeclaration method) {
+		String signature = method.getName() + "(";
+		for (Parameter parameter : method.getParameters()) {
+			signature += parameter.getType() + (parameter.isVarArgs() ? "..."
+					: "") + ",";
+		}
+		return signature + ")";
+	}
+
+	/**
+	 * Checks if the body can be compiled without adding members to the class.
+	 * The lambdas and method references are compiled to new methods and the
+	 * anonymous and local classes change the numbering of the inner classes.
+	 * 
+	 * @param body
+	 *            The source code of the body
+	 * @return {@code true} if the body does not declare lambdas, method
+	 *         references or classes
+	 */
+	private static boolean keepsMembers(String body) {
+		BlockStmt block;
+		try {
+			block = JavaParser.parseBlock("{" + body + "}");
+		} catch (ParseException e) {
+			// The error is reported when the primitive is executed
+			return false;
+		}
+		MemberDeclarations declarations = new MemberDeclarations();
+		block.accept(declarations, null);
+		return !declarations.found;
+	}
+
+	/**
+	 * Obtains the bytes of the loaded class before the agent instruments them
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @return The bytes or {@code null} if the class file cannot be read
+	 * @throws IOException
+	 *             If the class file cannot be read
+	 */
+	public static byte[] getLoadedBytes(Class<?> clazz) throws IOException {
+		byte[] bytes = ClassCompiler.getInstance().getBytecode(
+				clazz.getName());
+		if (bytes != null) {
+			return bytes;
+		}
+		return getClassFile(clazz);
+	}
+
+	/**
+	 * Reads the class file of the original class
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @return The bytes or {@code null} if the class file cannot be found
+	 * @throws IOException
+	 *             If the class file cannot be read
+	 */
+	public static byte[] getClassFile(Class<?> clazz) throws IOException {
+		if (clazz.getClassLoader() == null) {
+			return null;
+		}
+		try (InputStream in = clazz.getClassLoader().getResourceAsStream(
+				clazz.getName().replace('.', '/') + ".class")) {
+			if (in == null) {
+				return null;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Checks if the class declares anonymous or local classes. Their names
+	 * depend on the order of the declarations, the loaded classes could be
+	 * referenced with other names.
+	 * 
+	 * @param bytes
+	 *            The bytes of the class
+	 * @return {@code true} if the class declares anonymous or local classes
+	 */
+	private static boolean hasLocalClasses(byte[] bytes) {
+		ClassNode classNode = new ClassNode();
+		new ClassReader(bytes).accept(classNode, ClassReader.SKIP_CODE);
+		for (InnerClassNode innerClass : classNode.innerClasses) {
+			if (innerClass.name.startsWith(classNode.name + "$")
+					&& (innerClass.innerName == null || innerClass.outerName == null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if both classes declare the same fields and methods
+	 * 
+	 * @param loaded
+	 *            The bytes of the loaded class
+	 * @param compiled
+	 *            The bytes of the new class
+	 * @return {@code true} if the schema of the classes is the same
+	 */
+	private static boolean haveSameMembers(byte[] loaded, byte[] compiled) {
+		ClassNode loadedNode = new ClassNode();
+		new ClassReader(loaded).accept(loadedNode, ClassReader.SKIP_CODE);
+		ClassNode compiledNode = new ClassNode();
+		new ClassReader(compiled).accept(compiledNode, ClassReader.SKIP_CODE);
+		return loadedNode.access == compiledNode.access
+				&& getMembers(loadedNode).equals(getMembers(compiledNode));
+	}
+
+	/**
+	 * Obtains the signatures of the members of the class
+	 * 
+	 * @param classNode
+	 *            The class
+	 * @return The access, name and descriptor of each member
+	 */
+	private static Set<String> getMembers(ClassNode classNode) {
+		Set<String> members = new HashSet<String>();
+		for (FieldNode field : classNode.fields) {
+			members.add(field.access + " " + field.name + field.desc);
+		}
+		for (MethodNode method : classNode.methods) {
+			members.add(method.access + " " + method.name + method.desc);
+		}
+		return members;
+	}
+
+	/**
+	 * Obtains the name of the current version of the class
+	 * 
+	 * @param classContent
+	 *            The class
+	 * @return The name of the version
+	 */
+	private static String getVersionName(ClassContent classContent) {
+		return classContent.getClazz().getName() + "_NewVersion_"
+				+ classContent.getVersion();
+	}
+
+	/**
+	 * Visitor that looks for the declarations that add members to the class
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class MemberDeclarations extends VoidVisitorAdapter<Object> {
+
+		private boolean found = false;
+
+		@Override
+		public void visit(LambdaExpr n, Object arg) {
+			found = true;
+		}
+
+		@Override
+		public void visit(MethodReferenceExpr n, Object arg) {
+			found = true;
+		}
+
+		@Override
+		public void visit(ObjectCreationExpr n, Object arg) {
+			if (n.getAnonymousClassBody() != null)
+				found = true;
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(TypeDeclarationStmt n, Object arg) {
+			found = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+package jmplib.compiler;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * File manager that keeps the output of the Java Compiler in memory. The
+ * sources and the classpath are resolved by the underlying
+ * {@link StandardJavaFileManager}, but the generated classes are stored as byte
+ * arrays so they can be defined directly without touching the file system.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class InMemoryFileManager extends
+		ForwardingJavaFileManager<StandardJavaFileManager> {
+
+	private Map<String, ByteCodeFileObject> output = new LinkedHashMap<String, ByteCodeFileObject>();
+
+	public InMemoryFileManager(StandardJavaFileManager fileManager) {
+		super(fileManager);
+	}
+
+	/**
+	 * Redirects the class output to memory
+	 */
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location,
+			String className, Kind kind, FileObject sibling) throws IOException {
+		if (location == StandardLocation.CLASS_OUTPUT && kind == Kind.CLASS) {
+			ByteCodeFileObject file = new ByteCodeFileObject(className);
+			output.put(className, file);
+			return file;
+		}
+		return super.getJavaFileForOutput(location, className, kind, sibling);
+	}
+
+	/**
+	 * Obtains the bytecode of the classes generated by the compiler
+	 * 
+	 * @return Map with the binary name of each class and its bytes
+	 */
+	public Map<String, byte[]> getCompiledClasses() {
+		Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		for (ByteCodeFileObject file : output.values()) {
+			classes.put(file.getClassName(), file.getBytes());
+		}
+		return classes;
+	}
+
+}
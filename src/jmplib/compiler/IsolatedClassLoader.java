@@ -0,0 +1,57 @@
+package jmplib.compiler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Class loader of the classes generated to invoke the dynamic code, such as
+ * the invokers and the eval classes. Each batch of generated classes is
+ * loaded by its own loader, so the classes are unloaded as soon as the
+ * application stops using their instances.
+ * </p>
+ * <p>
+ * The classes of the batch are defined the first time they are requested. The
+ * rest of classes are found in the generations of versions and, after that, in
+ * the parent loader. The bytes of the batch are not kept by the
+ * {@link ClassCompiler}, because nobody else instruments or redefines the
+ * generated classes.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class IsolatedClassLoader extends ClassLoader {
+
+	private final Map<String, byte[]> classes;
+
+	public IsolatedClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+		super(parent);
+		this.classes = new ConcurrentHashMap<String, byte[]>(classes);
+	}
+
+	/**
+	 * The classes of the batch and the versions are found before delegating
+	 * to the parent
+	 */
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				byte[] bytes = classes.remove(name);
+				if (bytes != null)
+					clazz = defineClass(name, bytes, 0, bytes.length);
+			}
+			if (clazz == null)
+				clazz = VersionClassLoader.getDefinedClass(name);
+			if (clazz == null)
+				return super.loadClass(name, resolve);
+			if (resolve)
+				resolveClass(clazz);
+			return clazz;
+		}
+	}
+
+}
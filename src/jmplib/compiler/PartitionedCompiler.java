@@ -0,0 +1,304 @@
+package jmplib.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jmplib.exceptions.CompilationFailedException;
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.sourcecode.ClassContent;
+import jmplib.sourcecode.ClassContentSerializer;
+import jmplib.util.ClassPathUtil;
+import jmplib.util.FileUtils;
+import jmplib.util.JavaSourceFromString;
+
+import com.github.javaparser.ParseException;
+
+/**
+ * <p>
+ * Compiles the new versions of the classes partitioned by class hierarchy.
+ * The versions of one hierarchy are compiled together, because each version
+ * extends the new version of its superclass. The classes whose source code
+ * references other classes of the compilation, or their members, are placed
+ * in the same partition too, so Polyglot checks the references against the
+ * modified sources. The partitions are serialized, instrumented with Polyglot
+ * and compiled in parallel by a bounded pool of threads. Each thread runs its
+ * own copy of Polyglot, see {@link PolyglotAdapter}.
+ * </p>
+ * <p>
+ * The classes are defined when all the partitions have been compiled, so the
+ * new versions are published at once. If any partition fails, no class is
+ * defined.
+ * </p>
+ * <p>
+ * The number of threads is set with the {@code compiler.threads} property
+ * inside the config.properties file, by default it is the number of
+ * processors.
+ * </p>
+ * <p>
+ * If the {@link CompiledVersionCache} is enabled, the partitions compiled in
+ * previous executions are loaded from the cache without instrumenting and
+ * compiling them again.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PartitionedCompiler {
+
+	private static final String PROPERTY_FILE_NAME = "config.properties";
+	private static final String THREADS_PROPERTY = "compiler.threads";
+
+	private static ExecutorService pool = null;
+
+	private PartitionedCompiler() {
+	}
+
+	/**
+	 * Instruments and compiles the classes. The classes that are only
+	 * instrumented are used to check the references to the changed members.
+	 * 
+	 * @param instrumented
+	 *            The classes instrumented with Polyglot
+	 * @param compiled
+	 *            The classes compiled and defined, all of them have to be
+	 *            instrumented
+	 * @return Map with the name of each compiled class and its {@link Class}
+	 * @throws IOException
+	 *             If the sources cannot be serialized
+	 * @throws CompilationFailedException
+	 *             If any partition has errors
+	 * @throws StructuralIntercessionException
+	 *             If the classes cannot be defined
+	 */
+	public static Map<String, Class<?>> compile(
+			Collection<ClassContent> instrumented, Set<ClassContent> compiled)
+			throws IOException, CompilationFailedException,
+			StructuralIntercessionException {
+		List<Set<ClassContent>> partitions = partition(instrumented);
+		Map<String, byte[]> bytecode = new LinkedHashMap<String, byte[]>();
+		if (partitions.size() == 1) {
+			bytecode.putAll(compilePartition(partitions.get(0), compiled));
+		} else {
+			List<Future<Map<String, byte[]>>> results = new ArrayList<Future<Map<String, byte[]>>>();
+			for (Set<ClassContent> partition : partitions) {
+				results.add(getPool().submit(
+						() -> compilePartition(partition, compiled)));
+			}
+			Throwable error = null;
+			// All the partitions finish before the errors are reported
+			for (Future<Map<String, byte[]>> result : results) {
+				try {
+					bytecode.putAll(result.get());
+				} catch (ExecutionException e) {
+					if (error == null)
+						error = e.getCause();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					if (error == null)
+						error = e;
+				}
+			}
+			if (error != null)
+				rethrow(error);
+		}
+		// The versions of all the partitions are published together
+		return ClassCompiler.getInstance().define(bytecode);
+	}
+
+	/**
+	 * Splits the classes in partitions, the classes of the same hierarchy
+	 * and the classes that reference each other are inside the same
+	 * partition
+	 * 
+	 * @param classContents
+	 *            The classes
+	 * @return The partitions
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
+	 */
+	static List<Set<ClassContent>> partition(
+			Collection<ClassContent> classContents)
+			throws StructuralIntercessionException {
+		Map<Class<?>, ClassContent> byClass = new HashMap<Class<?>, ClassContent>();
+		Map<ClassContent, Set<ClassContent>> partitions = new HashMap<ClassContent, Set<ClassContent>>();
+		for (ClassContent classContent : classContents) {
+			byClass.put(classContent.getClazz(), classContent);
+			Set<ClassContent> partition = new HashSet<ClassContent>();
+			partition.add(classContent);
+			partitions.put(classContent, partition);
+		}
+		try {
+			for (ClassContent classContent : classContents) {
+				// The versions extend the versions of their superclasses
+				Class<?> superclass = classContent.getClazz();
+				while ((superclass = superclass.getSuperclass()) != null) {
+					ClassContent superContent = byClass.get(superclass);
+					if (superContent != null)
+						merge(partitions, classContent, superContent);
+				}
+				// The references are checked against the modified sources
+				for (ClassContent other : classContents) {
+					if (other != classContent
+							&& classContent.references(other))
+						merge(partitions, classContent, other);
+				}
+			}
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+		List<Set<ClassContent>> result = new ArrayList<Set<ClassContent>>();
+		Set<Set<ClassContent>> seen = Collections
+				.newSetFromMap(new IdentityHashMap<Set<ClassContent>, Boolean>());
+		for (Set<ClassContent> partition : partitions.values()) {
+			if (seen.add(partition))
+				result.add(partition);
+		}
+		return result;
+	}
+
+	/**
+	 * Merges the partitions of two classes
+	 * 
+	 * @param partitions
+	 *            The partition of each class
+	 * @param classContent
+	 *            One class
+	 * @param other
+	 *            The other class
+	 */
+	private static void merge(Map<ClassContent, Set<ClassContent>> partitions,
+			ClassContent classContent, ClassContent other) {
+		Set<ClassContent> partition = partitions.get(classContent);
+		Set<ClassContent> otherPartition = partitions.get(other);
+		if (partition == otherPartition)
+			return;
+		partition.addAll(otherPartition);
+		for (ClassContent merged : otherPartition) {
+			partitions.put(merged, partition);
+		}
+	}
+
+	/**
+	 * Serializes, instruments and compiles one partition
+	 * 
+	 * @param partition
+	 *            The classes of the partition
+	 * @param compiled
+	 *            The classes that have to be compiled
+	 * @return Map with the name of each compiled class and its bytes
+	 * @throws IOException
+	 *             If the sources cannot be serialized
+	 * @throws CompilationFailedException
+	 *             If the partition has errors
+	 * @throws StructuralIntercessionException
+	 *             If the configuration cannot be read
+	 */
+	private static Map<String, byte[]> compilePartition(
+			Set<ClassContent> partition, Set<ClassContent> compiled)
+			throws IOException, CompilationFailedException,
+			StructuralIntercessionException {
+		// The same sources have been compiled before
+		String key = null;
+		if (CompiledVersionCache.isEnabled()) {
+			key = CompiledVersionCache.key(partition, compiled);
+			Map<String, byte[]> cached = CompiledVersionCache.load(key,
+					partition);
+			if (cached != null)
+				return cached;
+		}
+		File[] files = ClassContentSerializer.serialize(partition);
+		JavaSourceFromString[] instrumented = PolyglotAdapter
+				.instrument(files);
+		// Filter the instrumented files to compile only the new versions
+		Set<Integer> paths = new HashSet<Integer>();
+		for (ClassContent classContent : partition) {
+			if (compiled.contains(classContent))
+				paths.add(classContent.getPath().hashCode());
+		}
+		List<JavaSourceFromString> filtered = new ArrayList<JavaSourceFromString>();
+		for (JavaSourceFromString file : instrumented) {
+			if (paths.contains(file.getIdentifier()))
+				filtered.add(file);
+		}
+		if (filtered.isEmpty())
+			return Collections.emptyMap();
+		Map<String, byte[]> bytecode = ClassCompiler.getInstance()
+				.compileToBytecode(ClassPathUtil.getApplicationClassPath(),
+						filtered.toArray(new JavaSourceFromString[0]));
+		if (key != null)
+			CompiledVersionCache.store(key, Arrays.asList(instrumented),
+					bytecode);
+		return bytecode;
+	}
+
+	/**
+	 * Throws the error of a partition
+	 * 
+	 * @param error
+	 *            The error
+	 * @throws IOException
+	 * @throws CompilationFailedException
+	 * @throws StructuralIntercessionException
+	 */
+	private static void rethrow(Throwable error) throws IOException,
+			CompilationFailedException, StructuralIntercessionException {
+		if (error instanceof IOException)
+			throw (IOException) error;
+		if (error instanceof CompilationFailedException)
+			throw (CompilationFailedException) error;
+		if (error instanceof StructuralIntercessionException)
+			throw (StructuralIntercessionException) error;
+		if (error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		if (error instanceof Error)
+			throw (Error) error;
+		throw new StructuralIntercessionException(
+				"The compilation was interrupted", error);
+	}
+
+	/**
+	 * Obtains the pool of threads, it is created the first time
+	 * 
+	 * @return The pool
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			try {
+				String value = FileUtils.getProperty(THREADS_PROPERTY,
+						PROPERTY_FILE_NAME);
+				if (value != null)
+					threads = Math.max(1, Integer.parseInt(value.trim()));
+			} catch (StructuralIntercessionException | NumberFormatException e) {
+				// Default number of threads
+			}
+			AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "jmplib-compiler-"
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+
+}
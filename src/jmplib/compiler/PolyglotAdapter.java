@@ -4,18 +4,27 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import jmplib.exceptions.CompilationFailedException;
 import jmplib.util.ClassPathUtil;
 import jmplib.util.FileUtils;
 import jmplib.util.JavaSourceFromString;
 import jmplib.util.PathConstants;
-import polyglot.main.Main.TerminationException;
-import polyglot.util.ErrorInfo;
-import polyglot.util.SilentErrorQueue;
 
 /**
+ * <p>
  * This class fits the functionality of Polyglot inside the library.
+ * </p>
+ * <p>
+ * Polyglot keeps its options and reports in static state. Each instrumentation
+ * is run by a {@link PolyglotWorker} loaded, with its own copy of Polyglot, by
+ * a {@link PolyglotClassLoader}, so the instrumentations run at the same time.
+ * The idle workers are pooled and reused. If the classes of Polyglot cannot be
+ * located, only one worker is created and the instrumentations are
+ * serialized.
+ * </p>
  * 
  * @author Ignacio Lagartos
  *
@@ -26,6 +35,16 @@ public class PolyglotAdapter {
 	private static List<File> classPath = ClassPathUtil
 			.getApplicationClassPath();
 
+	/**
+	 * The workers not used by any thread
+	 */
+	private static Queue<Instrumenter> workers = new ConcurrentLinkedQueue<Instrumenter>();
+
+	/**
+	 * The worker used when Polyglot cannot be isolated
+	 */
+	private static Instrumenter sharedWorker = null;
+
 	/**
 	 * Instrument with Polyglot the files provided
 	 * 
@@ -53,17 +72,7 @@ public class PolyglotAdapter {
 		for (int i = 0; i < files.length; i++) {
 			args[i + 6] = files[i].getAbsolutePath();
 		}
-		SilentErrorQueue errorQueue = new SilentErrorQueue(100, "errors");
-		JavaSourceFromString[] sources = null;
-		try {
-			sources = new polyglot.main.Main().start(args, errorQueue).toArray(
-					new JavaSourceFromString[0]);
-
-		} catch (TerminationException e) {
-			String error = getError(errorQueue);
-			throw new CompilationFailedException(
-					"The compilation of the classes failed.\n" + error, error);
-		}
+		JavaSourceFromString[] sources = run(args);
 		for (int i = 0; i < sources.length; i++) {
 			String name = files[i].getName().replaceAll("\\.java", "");
 			sources[i] = new JavaSourceFromString(name, sources[i].getCode(),
@@ -81,38 +90,74 @@ public class PolyglotAdapter {
 	}
 
 	/**
-	 * Build the compilation errors
+	 * Runs Polyglot in an idle worker
 	 * 
-	 * @param errorQueue
-	 *            Errors from Polyglot
-	 * @return Compilation error message
+	 * @param args
+	 *            The arguments of Polyglot
+	 * @return The files instrumented
+	 * @throws CompilationFailedException
+	 *             If any errors in the files
 	 */
-	private static String getError(SilentErrorQueue errorQueue) {
-		String error = "";
-		for (ErrorInfo errorInfo : errorQueue) {
-			error += parseErrorInfo(errorInfo);
+	private static JavaSourceFromString[] run(String[] args)
+			throws CompilationFailedException {
+		ClassLoader loader = PolyglotAdapter.class.getClassLoader();
+		if (PolyglotClassLoader.getLocation(loader) == null) {
+			synchronized (PolyglotAdapter.class) {
+				if (sharedWorker == null)
+					sharedWorker = new PolyglotWorker();
+				return sharedWorker.instrument(args);
+			}
+		}
+		Instrumenter worker = workers.poll();
+		if (worker == null)
+			worker = createWorker(loader);
+		try {
+			return worker.instrument(args);
+		} finally {
+			workers.offer(worker);
+		}
+	}
+
+	/**
+	 * Loads a new worker with its own copy of Polyglot
+	 * 
+	 * @param loader
+	 *            The loader of the library
+	 * @return The worker
+	 */
+	private static Instrumenter createWorker(ClassLoader loader) {
+		try {
+			return (Instrumenter) Class
+					.forName(PolyglotWorker.class.getName(), true,
+							new PolyglotClassLoader(loader))
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("The Polyglot worker cannot be created",
+					e);
 		}
-		return error;
 	}
 
 	/**
-	 * Extracts data from Polyglot error
+	 * Instruments the sources with Polyglot. The implementation is loaded by
+	 * the {@link PolyglotClassLoader} of each worker.
 	 * 
-	 * @param errorInfo
-	 *            Polyglot error
-	 * @return line with the error data
+	 * @author Ignacio Lagartos
+	 *
 	 */
-	private static String parseErrorInfo(ErrorInfo errorInfo) {
-		String message = errorInfo.getMessage();
-		int line = errorInfo.getPosition().line();
-		int startColumn = errorInfo.getPosition().column();
-		int endColumn = errorInfo.getPosition().endColumn();
-		String file = errorInfo.getPosition().file();
-		String errorFormat = "\n- %s (%s: line %s, columns %s-%s)\n\t\t%s";
-		String error = String.format(errorFormat, message,
-				file.substring(file.lastIndexOf("\\") + 1), line, startColumn,
-				endColumn, file);
-		return error;
+	public interface Instrumenter {
+
+		/**
+		 * Runs Polyglot with the arguments
+		 * 
+		 * @param args
+		 *            The arguments of Polyglot
+		 * @return The files instrumented, in the order of the arguments
+		 * @throws CompilationFailedException
+		 *             If any errors in the files
+		 */
+		JavaSourceFromString[] instrument(String[] args)
+				throws CompilationFailedException;
+
 	}
 
 	static {
@@ -0,0 +1,101 @@
+package jmplib.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * <p>
+ * Class loader of one {@link PolyglotWorker}. The worker and the classes
+ * loaded from the location of Polyglot are defined again by this loader, the
+ * rest of classes, such as the classes of JMPlib, are found in the parent
+ * loader. Polyglot keeps its options and reports in static fields, each loader
+ * has its own copy of them.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PolyglotClassLoader extends ClassLoader {
+
+	private static final String POLYGLOT_MAIN = "polyglot/main/Main.class";
+
+	/**
+	 * The location of the classes of Polyglot
+	 */
+	private final String location;
+
+	public PolyglotClassLoader(ClassLoader parent) {
+		super(parent);
+		this.location = getLocation(parent);
+	}
+
+	/**
+	 * Obtains the location of the classes of Polyglot
+	 * 
+	 * @param loader
+	 *            The loader of the application
+	 * @return The location or {@code null} if Polyglot cannot be read
+	 */
+	public static String getLocation(ClassLoader loader) {
+		URL main = loader.getResource(POLYGLOT_MAIN);
+		if (main == null)
+			return null;
+		String url = main.toString();
+		return url.substring(0, url.length() - POLYGLOT_MAIN.length());
+	}
+
+	/**
+	 * The worker and the classes of Polyglot are defined before delegating to
+	 * the parent
+	 */
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null)
+				clazz = defineIsolated(name);
+			if (clazz == null)
+				return super.loadClass(name, resolve);
+			if (resolve)
+				resolveClass(clazz);
+			return clazz;
+		}
+	}
+
+	/**
+	 * Defines the class in this loader if it is the worker or a class of
+	 * Polyglot
+	 * 
+	 * @param name
+	 *            The binary name of the class
+	 * @return The class or {@code null} if the parent has to load it
+	 * @throws ClassNotFoundException
+	 *             If the class cannot be read
+	 */
+	private Class<?> defineIsolated(String name) throws ClassNotFoundException {
+		boolean worker = name.equals(PolyglotWorker.class.getName());
+		if (!worker && (location == null || name.startsWith("java.")
+				|| name.startsWith("jmplib.")))
+			return null;
+		URL resource = getParent().getResource(
+				name.replace('.', '/') + ".class");
+		if (resource == null
+				|| !(worker || resource.toString().startsWith(location)))
+			return null;
+		try (InputStream in = resource.openStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			byte[] bytes = out.toByteArray();
+			return defineClass(name, bytes, 0, bytes.length);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package jmplib.compiler;
+
+import jmplib.exceptions.CompilationFailedException;
+import jmplib.util.JavaSourceFromString;
+import polyglot.main.Main.TerminationException;
+import polyglot.util.ErrorInfo;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * Runs Polyglot for the {@link PolyglotAdapter}. Each worker is loaded by its
+ * own {@link PolyglotClassLoader}, together with the classes of Polyglot, so
+ * the static state of Polyglot is not shared with the rest of workers.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PolyglotWorker implements PolyglotAdapter.Instrumenter {
+
+	/**
+	 * Runs Polyglot with the arguments
+	 * 
+	 * @param args
+	 *            The arguments of Polyglot
+	 * @return The files instrumented, in the order of the arguments
+	 * @throws CompilationFailedException
+	 *             If any errors in the files
+	 */
+	@Override
+	public JavaSourceFromString[] instrument(String[] args)
+			throws CompilationFailedException {
+		SilentErrorQueue errorQueue = new SilentErrorQueue(100, "errors");
+		try {
+			return new polyglot.main.Main().start(args, errorQueue).toArray(
+					new JavaSourceFromString[0]);
+		} catch (TerminationException e) {
+			String error = getError(errorQueue);
+			throw new CompilationFailedException(
+					"The compilation of the classes failed.\n" + error, error);
+		}
+	}
+
+	/**
+	 * Build the compilation errors
+	 * 
+	 * @param errorQueue
+	 *            Errors from Polyglot
+	 * @return Compilation error message
+	 */
+	private static String getError(SilentErrorQueue errorQueue) {
+		String error = "";
+		for (ErrorInfo errorInfo : errorQueue) {
+			error += parseErrorInfo(errorInfo);
+		}
+		return error;
+	}
+
+	/**
+	 * Extracts data from Polyglot error
+	 * 
+	 * @param errorInfo
+	 *            Polyglot error
+	 * @return line with the error data
+	 */
+	private static String parseErrorInfo(ErrorInfo errorInfo) {
+		String message = errorInfo.getMessage();
+		int line = errorInfo.getPosition().line();
+		int startColumn = errorInfo.getPosition().column();
+		int endColumn = errorInfo.getPosition().endColumn();
+		String file = errorInfo.getPosition().file();
+		String errorFormat = "\n- %s (%s: line %s, columns %s-%s)\n\t\t%s";
+		String error = String.format(errorFormat, message,
+				file.substring(file.lastIndexOf("\\") + 1), line, startColumn,
+				endColumn, file);
+		return error;
+	}
+
+}
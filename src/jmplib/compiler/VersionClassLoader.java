@@ -0,0 +1,272 @@
+package jmplib.compiler;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmplib.classversions.VersionTables;
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.util.FileUtils;
+import jmplib.util.TransferState;
+
+/**
+ * <p>
+ * Class loader of one generation of classes compiled at runtime. Each batch of
+ * classes defined by the {@link ClassCompiler} is loaded by its own loader, so
+ * the versions of one commit can be unloaded when they are no longer used.
+ * The classes defined by the generation loaders are found by name from the
+ * rest of generations.
+ * </p>
+ * <p>
+ * The instances of the versions are tracked with weak references, both the
+ * instances created through the constructors of the versions and the
+ * instances created when the objects of the original classes are migrated to
+ * a new version. A generation is released when all its versions have a newer version, no
+ * instance points at them and it is older than the number of generations
+ * retained. Once released, the library keeps no references to its classes
+ * and the garbage collector can reclaim them.
+ * </p>
+ * <p>
+ * The generation loaders are enabled with the {@code versioning.loaders}
+ * property set to {@code generation} inside the config.properties file. The
+ * {@code versioning.retention} property sets the number of replaced
+ * generations that are kept even when they have no instances. The versioned
+ * classes have to be public and use only public members of other runtime
+ * packages, because the versions are not in the runtime package of the
+ * original classes.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class VersionClassLoader extends ClassLoader {
+
+	private static final String LOADERS_PROPERTY = "versioning.loaders";
+	private static final String RETENTION_PROPERTY = "versioning.retention";
+	private static final String PROPERTY_FILE_NAME = "config.properties";
+	private static final String GENERATION_LOADERS = "generation";
+
+	private static Boolean enabled = null;
+	private static int retention = 0;
+
+	/**
+	 * The classes defined by all the generation loaders
+	 */
+	private static Map<String, WeakReference<Class<?>>> definedClasses = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+	/**
+	 * The generations that contain versions, from the oldest to the newest
+	 */
+	private static List<VersionClassLoader> generations = new ArrayList<VersionClassLoader>();
+
+	private final List<Class<?>> versions = new ArrayList<Class<?>>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	private final Set<Reference<Object>> instances = Collections
+			.newSetFromMap(new ConcurrentHashMap<Reference<Object>, Boolean>());
+
+	public VersionClassLoader(ClassLoader parent) {
+		super(parent);
+	}
+
+	/**
+	 * Checks if the generation loaders are enabled in the configuration
+	 * 
+	 * @return {@code true} if each generation has its own loader
+	 */
+	public static boolean isEnabled() {
+		if (enabled == null) {
+			try {
+				enabled = GENERATION_LOADERS.equals(FileUtils.getProperty(
+						LOADERS_PROPERTY, PROPERTY_FILE_NAME));
+				String value = FileUtils.getProperty(RETENTION_PROPERTY,
+						PROPERTY_FILE_NAME);
+				if (value != null)
+					retention = Integer.parseInt(value.trim());
+			} catch (StructuralIntercessionException | NumberFormatException e) {
+				enabled = false;
+			}
+		}
+		return enabled;
+	}
+
+	/**
+	 * Defines the class inside this generation
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @param bytes
+	 *            The bytes of the class
+	 * @return The defined class
+	 */
+	public Class<?> define(String className, byte[] bytes) {
+		Class<?> clazz = defineClass(className, bytes, 0, bytes.length);
+		definedClasses.put(className, new WeakReference<Class<?>>(clazz));
+		if (className.contains("_NewVersion_")) {
+			synchronized (VersionClassLoader.class) {
+				if (versions.isEmpty())
+					generations.add(this);
+				versions.add(clazz);
+			}
+		}
+		return clazz;
+	}
+
+	/**
+	 * The classes of the generations are found before delegating to the
+	 * parent, the parent could find stale class files of the versions.
+	 */
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null)
+				clazz = getDefinedClass(name);
+			if (clazz == null)
+				return super.loadClass(name, resolve);
+			if (resolve)
+				resolveClass(clazz);
+			return clazz;
+		}
+	}
+
+	/**
+	 * Obtains the class defined by any generation
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @return The class or {@code null} if no generation defines it
+	 */
+	static Class<?> getDefinedClass(String className) {
+		WeakReference<Class<?>> reference = definedClasses.get(className);
+		if (reference == null)
+			return null;
+		return reference.get();
+	}
+
+	/**
+	 * Registers a new instance of a version. The instances of the classes that
+	 * are not loaded by a generation loader are ignored.
+	 * 
+	 * @param version
+	 *            The instance of the version
+	 */
+	public static void track(Object version) {
+		ClassLoader loader = version.getClass().getClassLoader();
+		if (loader instanceof VersionClassLoader) {
+			((VersionClassLoader) loader).addInstance(version);
+		}
+	}
+
+	/**
+	 * Adds the instance to the live instances of the generation
+	 * 
+	 * @param version
+	 *            The instance of the version
+	 */
+	private void addInstance(Object version) {
+		expunge();
+		instances.add(new WeakReference<Object>(version, queue));
+	}
+
+	/**
+	 * Removes the instances collected by the garbage collector
+	 */
+	private void expunge() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null)
+			instances.remove(reference);
+	}
+
+	/**
+	 * Obtains the number of instances of the versions of the generation that
+	 * are still alive
+	 * 
+	 * @return The number of live instances
+	 */
+	public int getLiveInstances() {
+		expunge();
+		return instances.size();
+	}
+
+	/**
+	 * Checks if all the versions of the generation have a newer version
+	 * 
+	 * @return {@code true} if the generation is not used by new objects
+	 */
+	private boolean isReplaced() {
+		for (Class<?> version : versions) {
+			if (!VersionTables.hasNewVersion(version))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the versions of other generations extend the versions of this
+	 * generation. The instances of the subclasses are tracked by their own
+	 * generation, so the superclasses have to be kept while those versions
+	 * exist.
+	 * 
+	 * @return {@code true} if any version of other generation extends a
+	 *         version of this generation
+	 */
+	private boolean isExtended() {
+		for (VersionClassLoader generation : generations) {
+			if (generation == this)
+				continue;
+			for (Class<?> version : generation.versions) {
+				Class<?> superclass = version;
+				while ((superclass = superclass.getSuperclass()) != null) {
+					if (superclass.getClassLoader() == this)
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the references of the library to the classes of the generation
+	 */
+	private void release() {
+		for (Class<?> version : versions) {
+			VersionTables.removeVersion(version);
+			TransferState.forget(version);
+			ClassCompiler.getInstance().removeBytecode(version.getName());
+			definedClasses.remove(version.getName());
+		}
+		versions.clear();
+	}
+
+	/**
+	 * Releases the generations that have been replaced and have no live
+	 * instances, keeping the newest replaced generations specified by the
+	 * retention limit. The generations extended by the versions of other
+	 * generations are kept too. The newest generations are released first, so
+	 * the superclasses are released with their last subclass.
+	 */
+	public static synchronized void releaseGenerations() {
+		if (!isEnabled())
+			return;
+		int replaced = 0;
+		for (int i = generations.size() - 1; i >= 0; i--) {
+			VersionClassLoader generation = generations.get(i);
+			if (!generation.isReplaced())
+				continue;
+			replaced++;
+			if (replaced <= retention || generation.getLiveInstances() > 0
+					|| generation.isExtended())
+				continue;
+			generation.release();
+			generations.remove(i);
+		}
+	}
+
+}
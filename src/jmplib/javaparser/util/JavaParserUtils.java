@@ -258,17 +258,157 @@ public class JavaParserUtils {
 				}
 			}
 		}
+		throw noSuchMethod(clazz, name, parameterClasses, returnClass);
+	}
+
+	/**
+	 * Search a method node in the version class using the member index of the
+	 * class content
+	 * 
+	 * @param classContent
+	 *            The class content of the owner
+	 * @param name
+	 *            The name of the method
+	 * @param parameterClasses
+	 *            The parameter classes
+	 * @param returnClass
+	 *            The type of the method
+	 * @return The method node
+	 * @throws NoSuchMethodException
+	 *             If the method is not in the class
+	 */
+	public static MethodDeclaration searchMethod(ClassContent classContent,
+			String name, Class<?>[] parameterClasses, Class<?> returnClass)
+			throws NoSuchMethodException {
+		CompilationUnit unit = getCompilationUnit(classContent);
+		for (BodyDeclaration member : getMembers(classContent, name)) {
+			if (member instanceof MethodDeclaration) {
+				MethodDeclaration method = (MethodDeclaration) member;
+				if (checkMethod(method, unit.getImports(), unit.getPackage(),
+						name, parameterClasses, returnClass)) {
+					return method;
+				}
+			}
+		}
+		throw noSuchMethod(classContent.getClazz(), name, parameterClasses,
+				returnClass);
+	}
+
+	/**
+	 * Search a method node in the version class using the member index of the
+	 * class content
+	 * 
+	 * @param classContent
+	 *            The class content of the owner
+	 * @param name
+	 *            The name of the method
+	 * @return The method node
+	 * @throws NoSuchMethodException
+	 *             If the method is not in the class
+	 */
+	public static MethodDeclaration searchMethod(ClassContent classContent,
+			String name) throws NoSuchMethodException {
+		for (BodyDeclaration member : getMembers(classContent, name)) {
+			if (member instanceof MethodDeclaration)
+				return (MethodDeclaration) member;
+		}
+		throw new NoSuchMethodException("The method " + name
+				+ " does not exist in the class "
+				+ classContent.getClazz().getName());
+	}
+
+	/**
+	 * Search a field node in the version class using the member index of the
+	 * class content
+	 * 
+	 * @param classContent
+	 *            The class content of the owner
+	 * @param name
+	 *            The name of the field
+	 * @return The field node
+	 * @throws NoSuchFieldException
+	 *             If the field is not in the class
+	 */
+	public static VariableDeclarator searchField(ClassContent classContent,
+			String name) throws NoSuchFieldException {
+		for (BodyDeclaration member : getMembers(classContent, name)) {
+			if (member instanceof FieldDeclaration) {
+				FieldDeclaration field = (FieldDeclaration) member;
+				for (VariableDeclarator declaration : field.getVariables()) {
+					if (declaration.getId().getName().equals(name))
+						return declaration;
+				}
+			}
+		}
+		throw new NoSuchFieldException("The field \"" + name
+				+ "\" does not exist in the class "
+				+ classContent.getClazz().getName());
+	}
+
+	/**
+	 * Creates the exception thrown when a method is not found
+	 * 
+	 * @param clazz
+	 *            The class owner
+	 * @param name
+	 *            The name of the method
+	 * @param parameterClasses
+	 *            The parameter classes
+	 * @param returnClass
+	 *            The type of the method
+	 * @return The exception
+	 */
+	private static NoSuchMethodException noSuchMethod(Class<?> clazz,
+			String name, Class<?>[] parameterClasses, Class<?> returnClass) {
 		String params = "";
 		for (Class<?> parameterClass : parameterClasses) {
 			params += parameterClass.getName() + ",";
 		}
 		if (!"".equals(params))
 			params = params.substring(0, params.length() - 1);
-		throw new NoSuchMethodException("The method " + name + "(" + params
+		return new NoSuchMethodException("The method " + name + "(" + params
 				+ "): " + returnClass.getName()
 				+ " does not exist in the class " + clazz.getName());
 	}
 
+	/**
+	 * Obtains the compilation unit of the class content, it has been parsed
+	 * by the caller before searching its members
+	 * 
+	 * @param classContent
+	 *            The class content
+	 * @return The {@link CompilationUnit}
+	 */
+	private static CompilationUnit getCompilationUnit(ClassContent classContent) {
+		try {
+			return classContent.getCompilationUnit();
+		} catch (ParseException e) {
+			throw new RuntimeException("The class "
+					+ classContent.getClazz().getName()
+					+ " cannot be parsed", e);
+		}
+	}
+
+	/**
+	 * Obtains the indexed members of the class content with the name
+	 * 
+	 * @param classContent
+	 *            The class content
+	 * @param name
+	 *            The name of the members
+	 * @return The members
+	 */
+	private static List<BodyDeclaration> getMembers(ClassContent classContent,
+			String name) {
+		try {
+			return classContent.getMembers(name);
+		} catch (ParseException e) {
+			throw new RuntimeException("The class "
+					+ classContent.getClazz().getName()
+					+ " cannot be parsed", e);
+		}
+	}
+
 	/**
 	 * Search a method node in the compilation unit
 	 * 
@@ -0,0 +1,82 @@
+package jmplib.javaparser.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.MethodReferenceExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+/**
+ * Collects the names of the members referenced by the source code of one
+ * class: the methods called, the fields accessed, the simple names used as
+ * expressions and the simple names of the types used. The types are not
+ * resolved, so the names are a superset of the members really referenced.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ReferencedNames {
+
+	private ReferencedNames() {
+	}
+
+	/**
+	 * Collects the names of the members referenced by the unit
+	 * 
+	 * @param unit
+	 *            The {@link CompilationUnit}
+	 * @return The names referenced
+	 */
+	public static Set<String> collect(CompilationUnit unit) {
+		Set<String> names = new HashSet<String>();
+		unit.accept(new Collector(), names);
+		return Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Visitor that collects the names
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Collector extends VoidVisitorAdapter<Set<String>> {
+
+		@Override
+		public void visit(MethodCallExpr n, Set<String> arg) {
+			arg.add(n.getName());
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(FieldAccessExpr n, Set<String> arg) {
+			arg.add(n.getField());
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(NameExpr n, Set<String> arg) {
+			arg.add(n.getName());
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(MethodReferenceExpr n, Set<String> arg) {
+			arg.add(n.getIdentifier());
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(ClassOrInterfaceType n, Set<String> arg) {
+			arg.add(n.getName());
+			super.visit(n, arg);
+		}
+
+	}
+
+}
@@ -0,0 +1,207 @@
+package jmplib.javaparser.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.QualifiedNameExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+/**
+ * <p>
+ * Index of the nodes of one {@link CompilationUnit} that reference a version
+ * class by its name, such as the declaration of the class, its constructors,
+ * the types and the names of the expressions. The versions are renamed
+ * changing the names of these nodes, so the cost of renaming depends on the
+ * number of references instead of the size of the source code.
+ * </p>
+ * <p>
+ * The index is valid while the unit is not modified by other means. The
+ * nodes renamed by other means are ignored when their name does not match.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class VersionReferences {
+
+	private static final String VERSION_MARK = "_NewVersion_";
+
+	private final Map<String, List<Node>> references = new HashMap<String, List<Node>>();
+
+	private VersionReferences() {
+	}
+
+	/**
+	 * Collects the references to the versions inside the unit
+	 * 
+	 * @param unit
+	 *            The {@link CompilationUnit}
+	 * @return The index of the references
+	 */
+	public static VersionReferences collect(CompilationUnit unit) {
+		VersionReferences versionReferences = new VersionReferences();
+		unit.accept(new Collector(), versionReferences);
+		return versionReferences;
+	}
+
+	/**
+	 * Renames the references to one version
+	 * 
+	 * @param from
+	 *            The current name of the version
+	 * @param to
+	 *            The new name of the version
+	 */
+	public void rename(String from, String to) {
+		List<Node> nodes = references.remove(from);
+		if (nodes == null)
+			return;
+		for (Node node : nodes) {
+			// Skip the nodes renamed by other means
+			if (from.equals(getName(node))) {
+				setName(node, to);
+				add(to, node);
+			}
+		}
+	}
+
+	/**
+	 * Renames the superclass of the type declaration
+	 * 
+	 * @param type
+	 *            The type declaration
+	 * @param superclassName
+	 *            The simple name of the new superclass
+	 */
+	public void renameSuperclass(TypeDeclaration type, String superclassName) {
+		if (!(type instanceof ClassOrInterfaceDeclaration))
+			return;
+		List<ClassOrInterfaceType> extendsList = ((ClassOrInterfaceDeclaration) type)
+				.getExtends();
+		if (extendsList == null || extendsList.isEmpty())
+			return;
+		ClassOrInterfaceType superclass = extendsList.get(0);
+		superclass.setScope(null);
+		superclass.setName(superclassName);
+		add(superclassName, superclass);
+	}
+
+	/**
+	 * Adds the node to the index if its name is the name of a version
+	 * 
+	 * @param name
+	 *            The name referenced by the node
+	 * @param node
+	 *            The node
+	 */
+	private void add(String name, Node node) {
+		if (name == null || !name.contains(VERSION_MARK))
+			return;
+		List<Node> nodes = references.get(name);
+		if (nodes == null) {
+			nodes = new ArrayList<Node>();
+			references.put(name, nodes);
+		}
+		nodes.add(node);
+	}
+
+	/**
+	 * Obtains the name referenced by the node
+	 * 
+	 * @param node
+	 *            The node
+	 * @return The name
+	 */
+	private static String getName(Node node) {
+		if (node instanceof TypeDeclaration)
+			return ((TypeDeclaration) node).getName();
+		if (node instanceof ConstructorDeclaration)
+			return ((ConstructorDeclaration) node).getName();
+		if (node instanceof ClassOrInterfaceType)
+			return ((ClassOrInterfaceType) node).getName();
+		if (node instanceof NameExpr)
+			return ((NameExpr) node).getName();
+		if (node instanceof FieldAccessExpr)
+			return ((FieldAccessExpr) node).getField();
+		return null;
+	}
+
+	/**
+	 * Changes the name referenced by the node
+	 * 
+	 * @param node
+	 *            The node
+	 * @param name
+	 *            The new name
+	 */
+	private static void setName(Node node, String name) {
+		if (node instanceof TypeDeclaration)
+			((TypeDeclaration) node).setName(name);
+		else if (node instanceof ConstructorDeclaration)
+			((ConstructorDeclaration) node).setName(name);
+		else if (node instanceof ClassOrInterfaceType)
+			((ClassOrInterfaceType) node).setName(name);
+		else if (node instanceof NameExpr)
+			((NameExpr) node).setName(name);
+		else if (node instanceof FieldAccessExpr)
+			((FieldAccessExpr) node).setField(name);
+	}
+
+	/**
+	 * Visitor that collects the nodes that can reference a version
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Collector extends
+			VoidVisitorAdapter<VersionReferences> {
+
+		@Override
+		public void visit(ClassOrInterfaceDeclaration n, VersionReferences arg) {
+			arg.add(n.getName(), n);
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(ConstructorDeclaration n, VersionReferences arg) {
+			arg.add(n.getName(), n);
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(ClassOrInterfaceType n, VersionReferences arg) {
+			arg.add(n.getName(), n);
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(NameExpr n, VersionReferences arg) {
+			arg.add(n.getName(), n);
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(QualifiedNameExpr n, VersionReferences arg) {
+			arg.add(n.getName(), n);
+			super.visit(n, arg);
+		}
+
+		@Override
+		public void visit(FieldAccessExpr n, VersionReferences arg) {
+			arg.add(n.getField(), n);
+			super.visit(n, arg);
+		}
+
+	}
+
+}
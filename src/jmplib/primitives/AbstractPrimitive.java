@@ -1,5 +1,6 @@
 package jmplib.primitives;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -8,12 +9,14 @@ import jmplib.sourcecode.ClassContent;
 import jmplib.sourcecode.SourceCodeCache;
 import jmplib.util.InheritanceTables;
 
+import com.github.javaparser.ParseException;
+
 /**
  * The superclass of all primitives. This class defines the behaviour of all
  * primitives and made the common operations to all of them.
  * 
  * @author Ignacio Lagartos
- *
+ * 
  */
 public abstract class AbstractPrimitive implements Primitive {
 
@@ -31,18 +34,20 @@ public abstract class AbstractPrimitive implements Primitive {
 	 * Increases the version number and updates the cached code to a new
 	 * version. These changes are done for all of the classes in the inheritance
 	 * tree of the modified class, so, all of the tree evolves to a new version.
+	 * The versions are renamed over the compilation units of the classes.
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
 	 */
-	protected void updateVersion() {
+	protected void updateVersion() throws StructuralIntercessionException {
 		modifiedClasses.add(classContent);
 		if (classContent.isUpdated()) {
 			int newVersionNumber = classContent.getVersion();
-			int oldVersionNumber = newVersionNumber - 1;
+			int oldVersionNumber = classContent.getPreviousVersion();
 
 			// Update the className
-			String content = classContent.getContent();
-			content = changeVersion(content, clazz, oldVersionNumber,
+			changeVersion(classContent, clazz, oldVersionNumber,
 					newVersionNumber);
-			classContent.setContent(content);
 
 			return;
 		}
@@ -51,14 +56,10 @@ public abstract class AbstractPrimitive implements Primitive {
 
 		// Update the version number
 		int oldVersionNumber = top.getVersion();
-		int newVersionNumber = oldVersionNumber + 1;
-		top.setVersion(newVersionNumber);
+		int newVersionNumber = top.increaseVersion();
 
 		// Update the className
-		String content = top.getContent();
-		content = changeVersion(content, top.getClazz(), oldVersionNumber,
-				newVersionNumber);
-		top.setContent(content);
+		changeVersion(top, top.getClazz(), oldVersionNumber, newVersionNumber);
 
 		// Update subclasses
 		for (Class<?> subClass : InheritanceTables
@@ -95,26 +96,17 @@ public abstract class AbstractPrimitive implements Primitive {
 		ClassContent classContent = classEditor.getClassContent(clazz);
 		if (classContent.isUpdated()) {
 			// Update the superclass when the classContent is already updated
-			String content = classContent.getContent();
-			content = classContent.getContent().replaceFirst(
-					"extends(\\s+)((\\w|\\.)*)(\\s*)",
-					"extends " + superclassName + " ");
-			classContent.setContent(content);
+			changeSuperclass(classContent, superclassName);
 			return;
 		}
 		modifiedClasses.add(classContent);
 		// Update the version number
 		int oldVersionNumber = classContent.getVersion();
-		int newVersionNumber = oldVersionNumber + 1;
-		classContent.setVersion(newVersionNumber);
-		String content = classContent.getContent();
+		int newVersionNumber = classContent.increaseVersion();
 		// Update the className
-		content = changeVersion(content, clazz, oldVersionNumber,
-				newVersionNumber);
+		changeVersion(classContent, clazz, oldVersionNumber, newVersionNumber);
 		// Update the superclass
-		content = content.replaceFirst("extends(\\s+)((\\w|\\.)*)(\\s*)",
-				"extends " + superclassName + " ");
-		classContent.setContent(content);
+		changeSuperclass(classContent, superclassName);
 		// Update the path
 		String path = classContent.getPath();
 		path = path.replaceAll("(_)(\\d+)(.java)", "_" + newVersionNumber
@@ -131,8 +123,11 @@ public abstract class AbstractPrimitive implements Primitive {
 
 	/**
 	 * Reverts all changes done by {@code updateVersion}
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
 	 */
-	protected void undoUpdateVersion() {
+	protected void undoUpdateVersion() throws StructuralIntercessionException {
 		modifiedClasses.add(classContent);
 		if (!classContent.isUpdated()) {
 			return;
@@ -140,12 +135,9 @@ public abstract class AbstractPrimitive implements Primitive {
 		ClassContent top = getTopSuperClass(classContent);
 		// Update the version number
 		int newVersionNumber = top.getVersion();
-		int oldVersionNumber = newVersionNumber - 1;
-		top.setVersion(oldVersionNumber);
-		String content = top.getContent();
+		int oldVersionNumber = top.restoreVersion();
 		// Update the className
-		content = changeVersion(content, top.getClazz(), newVersionNumber,
-				oldVersionNumber);
+		changeVersion(top, top.getClazz(), newVersionNumber, oldVersionNumber);
 		// if (VersionTables.hasNewVersion(clazz.getSuperclass())) {
 		// Class<?> newSuperclass = VersionTables.getNewVersion(clazz
 		// .getSuperclass());
@@ -153,7 +145,6 @@ public abstract class AbstractPrimitive implements Primitive {
 		// + newSuperclass.getName() + " ");
 		// }
 		// Update the path
-		top.setContent(content);
 		String path = top.getPath();
 		path = path.replaceAll("(_)(\\d+)(.java)", "_" + oldVersionNumber
 				+ ".java");
@@ -187,26 +178,17 @@ public abstract class AbstractPrimitive implements Primitive {
 		ClassContent classContent = classEditor.getClassContent(clazz);
 		if (!classContent.isUpdated()) {
 			// Update the superclass when the classContent is already updated
-			String content = classContent.getContent();
-			content = classContent.getContent().replaceFirst(
-					"extends(\\s+)((\\w|\\.)*)(\\s*)",
-					"extends " + superclassName + " ");
-			classContent.setContent(content);
+			changeSuperclass(classContent, superclassName);
 			return;
 		}
 		modifiedClasses.add(classContent);
 		// Update the version number
 		int newVersionNumber = classContent.getVersion();
-		int oldVersionNumber = newVersionNumber - 1;
-		classContent.setVersion(oldVersionNumber);
-		String content = classContent.getContent();
+		int oldVersionNumber = classContent.restoreVersion();
 		// Update the className
-		content = changeVersion(content, clazz, newVersionNumber,
-				oldVersionNumber);
+		changeVersion(classContent, clazz, newVersionNumber, oldVersionNumber);
 		// Update the superclass
-		content = content.replaceFirst("extends(\\s+)((\\w|\\.)*)(\\s*)",
-				"extends " + superclassName + " ");
-		classContent.setContent(content);
+		changeSuperclass(classContent, superclassName);
 		// Update the path
 		String path = classContent.getPath();
 		path = path.replaceAll("(_)(\\d+)(.java)", "_" + oldVersionNumber
@@ -222,24 +204,51 @@ public abstract class AbstractPrimitive implements Primitive {
 	}
 
 	/**
-	 * Changes the version of the class in the source code.
+	 * Changes the version of the class in the source code. Only the nodes
+	 * that reference the version are renamed.
 	 * 
-	 * @param content
-	 *            The source code
+	 * @param classContent
+	 *            The {@link ClassContent} to update
 	 * @param clazz
 	 *            The original class
 	 * @param from
 	 *            Actual version number of the source code
 	 * @param to
 	 *            New version number
-	 * @return Source code updated
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
 	 */
-	private String changeVersion(String content, Class<?> clazz, int from,
-			int to) {
-		// Update the className
-		content = content.replaceAll(clazz.getSimpleName() + "_NewVersion_"
-				+ from, clazz.getSimpleName() + "_NewVersion_" + to);
-		return content;
+	private void changeVersion(ClassContent classContent, Class<?> clazz,
+			int from, int to) throws StructuralIntercessionException {
+		try {
+			classContent.renameVersion(clazz.getSimpleName() + "_NewVersion_"
+					+ from, clazz.getSimpleName() + "_NewVersion_" + to);
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Changes the superclass of the class in the source code
+	 * 
+	 * @param classContent
+	 *            The {@link ClassContent} to update
+	 * @param superclassName
+	 *            The simple name of the superclass version
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
+	 */
+	private void changeSuperclass(ClassContent classContent,
+			String superclassName) throws StructuralIntercessionException {
+		try {
+			classContent.renameSuperclass(superclassName);
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
 	}
 
 	/**
@@ -249,7 +258,7 @@ public abstract class AbstractPrimitive implements Primitive {
 	 *            The {@link ClassContent} of the class
 	 * @return The {@link ClassContent} of the top superclass
 	 */
-	private ClassContent getTopSuperClass(ClassContent classContent) {
+	static ClassContent getTopSuperClass(ClassContent classContent) {
 		if (classContent.getClazz().getSuperclass() == null)
 			return classContent;
 		ClassContent superclassContent = null;
@@ -311,4 +320,30 @@ public abstract class AbstractPrimitive implements Primitive {
 		return true;
 	}
 
+	/**
+	 * The safe primitives do not change members in an unsafe way
+	 */
+	@Override
+	public Set<String> getUnsafeMembers() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * The hierarchy of the primitive starts in the top superclass with source
+	 * code
+	 */
+	@Override
+	public Class<?> getHierarchy() {
+		return getTopSuperClass(classContent).getClazz();
+	}
+
+	/**
+	 * Obtains the {@link ClassContent} modified by the primitive
+	 * 
+	 * @return The {@link ClassContent} of the target class
+	 */
+	public ClassContent getClassContent() {
+		return classContent;
+	}
+
 }
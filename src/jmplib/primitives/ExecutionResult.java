@@ -0,0 +1,141 @@
+package jmplib.primitives;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Result of the execution of the primitives of one commit. It contains the
+ * classes modified and the last version of each one. If the changes have
+ * been applied replacing the bodies of the current versions, the last
+ * versions are the versions redefined.
+ * </p>
+ * <p>
+ * The result also reports the primitives eliminated by the
+ * {@link PrimitiveOptimizer} before the execution.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ExecutionResult {
+
+	private final Map<Class<?>, Class<?>> newVersions;
+	private final List<Primitive> eliminated;
+	private final boolean hotSwapped;
+	private final long elapsedNanos;
+
+	/**
+	 * Creates the result
+	 * 
+	 * @param newVersions
+	 *            The last version of each modified class
+	 * @param eliminated
+	 *            The primitives eliminated by the optimizer
+	 * @param hotSwapped
+	 *            {@code true} if the current implementations have been
+	 *            redefined
+	 * @param elapsedNanos
+	 *            The duration of the execution in nanoseconds
+	 */
+	ExecutionResult(Map<Class<?>, Class<?>> newVersions,
+			List<Primitive> eliminated, boolean hotSwapped, long elapsedNanos) {
+		this.newVersions = Collections
+				.unmodifiableMap(new LinkedHashMap<Class<?>, Class<?>>(
+						newVersions));
+		this.eliminated = Collections.unmodifiableList(eliminated);
+		this.hotSwapped = hotSwapped;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Obtains the classes modified by the primitives
+	 * 
+	 * @return The original classes
+	 */
+	public Set<Class<?>> getModifiedClasses() {
+		return newVersions.keySet();
+	}
+
+	/**
+	 * Obtains the last version of the class after this execution
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @return The last version or {@code null} if the class has not been
+	 *         modified
+	 */
+	public Class<?> getNewVersion(Class<?> clazz) {
+		return newVersions.get(clazz);
+	}
+
+	/**
+	 * Obtains the primitives that have not been executed because they were
+	 * redundant, in the order they were eliminated
+	 * 
+	 * @return The eliminated primitives
+	 */
+	public List<Primitive> getEliminatedPrimitives() {
+		return eliminated;
+	}
+
+	/**
+	 * Checks if the changes have been applied redefining the current
+	 * implementations, the original classes or their versions, instead of
+	 * creating new versions
+	 * 
+	 * @return {@code true} if the current implementations have been redefined
+	 */
+	public boolean isHotSwapped() {
+		return hotSwapped;
+	}
+
+	/**
+	 * Obtains the duration of the execution, from the first primitive to the
+	 * publication of the new versions
+	 * 
+	 * @return The duration in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Obtains the part of the result that belongs to the hierarchies
+	 * 
+	 * @param hierarchies
+	 *            The top superclasses of the hierarchies
+	 * @return The result with the classes of the hierarchies
+	 */
+	ExecutionResult select(Collection<Class<?>> hierarchies) {
+		Map<Class<?>, Class<?>> selected = new LinkedHashMap<Class<?>, Class<?>>();
+		for (Map.Entry<Class<?>, Class<?>> entry : newVersions.entrySet()) {
+			for (Class<?> hierarchy : hierarchies) {
+				if (hierarchy.isAssignableFrom(entry.getKey())) {
+					selected.put(entry.getKey(), entry.getValue());
+					break;
+				}
+			}
+		}
+		List<Primitive> selectedEliminated = new ArrayList<Primitive>();
+		for (Primitive primitive : eliminated) {
+			if (hierarchies.contains(primitive.getHierarchy()))
+				selectedEliminated.add(primitive);
+		}
+		return new ExecutionResult(selected, selectedEliminated, hotSwapped,
+				elapsedNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "ExecutionResult [modified=" + newVersions.size()
+				+ ", eliminated=" + eliminated.size() + ", hotSwapped="
+				+ hotSwapped + ", elapsed=" + (elapsedNanos / 1000000) + "ms]";
+	}
+
+}
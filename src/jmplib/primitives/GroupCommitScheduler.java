@@ -0,0 +1,290 @@
+package jmplib.primitives;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.util.FileUtils;
+
+/**
+ * <p>
+ * Coalesces the transactions submitted concurrently into one execution. The
+ * transactions that arrive within a window of time are executed together, so
+ * their new versions are compiled at once and the classes are retransformed
+ * once. Each transaction receives the part of the result of its classes.
+ * </p>
+ * <p>
+ * The transactions that modify the same class hierarchy are in conflict and
+ * they are executed in different rounds, in the order of arrival. Only the
+ * transactions over a hierarchy claimed by an earlier transaction of the
+ * group are deferred, the rest join the current round. If the combined
+ * execution fails, the round is split in halves that are executed again until
+ * the transaction that provokes the error is found, so the error is only
+ * reported to it and the rest are executed in as few executions as possible.
+ * </p>
+ * <p>
+ * The window is set in milliseconds with the {@code groupcommit.window}
+ * property and the maximum number of transactions of a group with the
+ * {@code groupcommit.size} property inside the config.properties file. If the
+ * {@code groupcommit.enabled} property is {@code true}, the primitives of the
+ * {@link jmplib.Intercessor} are also grouped.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class GroupCommitScheduler {
+
+	private static final String PROPERTY_FILE_NAME = "config.properties";
+	private static final String ENABLED_PROPERTY = "groupcommit.enabled";
+	private static final String WINDOW_PROPERTY = "groupcommit.window";
+	private static final String SIZE_PROPERTY = "groupcommit.size";
+	private static final long DEFAULT_WINDOW = 20;
+	private static final long DEFAULT_SIZE = 64;
+
+	private static GroupCommitScheduler _instance = null;
+
+	private final boolean enabled;
+	private final long window;
+	private final int size;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * The transactions waiting for the next group
+	 */
+	private List<Transaction> pending = new ArrayList<Transaction>();
+	private boolean flushScheduled = false;
+
+	private GroupCommitScheduler() {
+		enabled = Boolean.parseBoolean(readProperty(ENABLED_PROPERTY));
+		window = Math.max(0, readLong(WINDOW_PROPERTY, DEFAULT_WINDOW));
+		size = (int) Math.max(1, readLong(SIZE_PROPERTY, DEFAULT_SIZE));
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jmplib-group-commit");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Singleton access
+	 * 
+	 * @return The unique instance of the scheduler
+	 */
+	public static synchronized GroupCommitScheduler getInstance() {
+		if (_instance == null)
+			_instance = new GroupCommitScheduler();
+		return _instance;
+	}
+
+	/**
+	 * Checks if the primitives of the {@link jmplib.Intercessor} have to be
+	 * grouped
+	 * 
+	 * @return {@code true} if the group commit is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Submits the primitives of one transaction to the next group
+	 * 
+	 * @param primitives
+	 *            The primitives of the transaction, in order
+	 * @return The future result of the transaction
+	 */
+	public CompletableFuture<ExecutionResult> submit(
+			Queue<Primitive> primitives) {
+		if (primitives.isEmpty()) {
+			throw new RuntimeException("The primitive list cannot be empty");
+		}
+		Transaction transaction = new Transaction(primitives);
+		synchronized (this) {
+			pending.add(transaction);
+			if (pending.size() >= size) {
+				scheduler.execute(this::flush);
+			} else if (!flushScheduled) {
+				scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+				flushScheduled = true;
+			}
+		}
+		return transaction.future;
+	}
+
+	/**
+	 * Withdraws one transaction that is waiting for the next group. The
+	 * transactions already handed to a group cannot be withdrawn.
+	 * 
+	 * @param future
+	 *            The future returned by {@link #submit(Queue)}
+	 * @return {@code true} if the transaction has been withdrawn, its
+	 *         primitives are not executed
+	 */
+	public synchronized boolean withdraw(
+			CompletableFuture<ExecutionResult> future) {
+		for (Iterator<Transaction> it = pending.iterator(); it.hasNext();) {
+			if (it.next().future == future) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Executes the pending transactions in rounds without conflicts
+	 */
+	private void flush() {
+		List<Transaction> group;
+		synchronized (this) {
+			group = pending;
+			pending = new ArrayList<Transaction>();
+			flushScheduled = false;
+		}
+		for (Iterator<Transaction> it = group.iterator(); it.hasNext();) {
+			Transaction transaction = it.next();
+			try {
+				for (Primitive primitive : transaction.primitives) {
+					transaction.hierarchies.add(primitive.getHierarchy());
+				}
+			} catch (RuntimeException e) {
+				transaction.future.completeExceptionally(e);
+				it.remove();
+			}
+		}
+		while (!group.isEmpty()) {
+			List<Transaction> round = new ArrayList<Transaction>();
+			List<Transaction> deferred = new ArrayList<Transaction>();
+			// The hierarchies of the transactions of the round and the
+			// deferred ones, the later transactions over them are deferred to
+			// keep the order of the transactions over each hierarchy
+			Set<Class<?>> claimed = new HashSet<Class<?>>();
+			for (Transaction transaction : group) {
+				if (Collections.disjoint(claimed, transaction.hierarchies))
+					round.add(transaction);
+				else
+					deferred.add(transaction);
+				claimed.addAll(transaction.hierarchies);
+			}
+			execute(round);
+			group = deferred;
+		}
+	}
+
+	/**
+	 * Executes the transactions of one round together. If the execution fails,
+	 * each half of the round is executed again in the same way.
+	 * 
+	 * @param round
+	 *            The transactions without conflicts
+	 */
+	private void execute(List<Transaction> round) {
+		if (round.size() == 1) {
+			execute(round.get(0));
+			return;
+		}
+		Queue<Primitive> combined = new LinkedList<Primitive>();
+		for (Transaction transaction : round) {
+			combined.addAll(transaction.primitives);
+		}
+		try {
+			ExecutionResult result = new PrimitiveExecutor(combined)
+					.executePrimitives();
+			for (Transaction transaction : round) {
+				transaction.future.complete(result
+						.select(transaction.hierarchies));
+			}
+		} catch (StructuralIntercessionException e) {
+			// The changes have been undone, the erroneous transaction is found
+			// splitting the round
+			int half = round.size() / 2;
+			execute(round.subList(0, half));
+			execute(round.subList(half, round.size()));
+		} catch (RuntimeException e) {
+			for (Transaction transaction : round) {
+				transaction.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Executes one transaction alone
+	 * 
+	 * @param transaction
+	 *            The transaction
+	 */
+	private void execute(Transaction transaction) {
+		try {
+			transaction.future.complete(new PrimitiveExecutor(
+					new LinkedList<Primitive>(transaction.primitives))
+					.executePrimitives());
+		} catch (StructuralIntercessionException | RuntimeException e) {
+			transaction.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Reads a property of the configuration
+	 * 
+	 * @param property
+	 *            The name of the property
+	 * @return The value or {@code null} if it is not set
+	 */
+	private static String readProperty(String property) {
+		try {
+			return FileUtils.getProperty(property, PROPERTY_FILE_NAME);
+		} catch (StructuralIntercessionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a numeric property of the configuration
+	 * 
+	 * @param property
+	 *            The name of the property
+	 * @param defaultValue
+	 *            The value used if the property is not set or it is wrong
+	 * @return The value of the property
+	 */
+	private static long readLong(String property, long defaultValue) {
+		String value = readProperty(property);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * The primitives of one transaction and its future result
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Transaction {
+
+		private final List<Primitive> primitives;
+		private final Set<Class<?>> hierarchies = new HashSet<Class<?>>();
+		private final CompletableFuture<ExecutionResult> future = new CompletableFuture<ExecutionResult>();
+
+		public Transaction(Queue<Primitive> primitives) {
+			this.primitives = new ArrayList<Primitive>(primitives);
+		}
+
+	}
+
+}
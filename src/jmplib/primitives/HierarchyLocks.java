@@ -0,0 +1,143 @@
+package jmplib.primitives;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * Striped locks of the class hierarchies. Each hierarchy, identified by its
+ * top superclass, is mapped to one stripe, so the executions over disjoint
+ * hierarchies run concurrently and the executions over the same hierarchy
+ * are serialized. Two hierarchies can share a stripe, in that case their
+ * executions are serialized too.
+ * </p>
+ * <p>
+ * The executions only lock the hierarchies they modify. They read the rest
+ * of the classes through their published state (see
+ * {@link jmplib.sourcecode.ClassContent#getPublished()}) and their bytecode,
+ * which are replaced atomically, so they compile against a snapshot of the
+ * other hierarchies.
+ * </p>
+ * <p>
+ * The stripes are acquired in ascending order to avoid deadlocks. They are
+ * {@link Semaphore} instances instead of locks because the stripes of a
+ * prepared execution are released by the thread that applies or discards it.
+ * No monitor is held while a stripe is awaited or while the primitives run,
+ * so the executor given to
+ * {@link jmplib.IntercessorTransaction#commitAsync(java.util.concurrent.Executor)}
+ * can be an executor of virtual threads on the Java versions that have them.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class HierarchyLocks {
+
+	private static final int STRIPES = 64;
+
+	private static final Semaphore[] stripes = new Semaphore[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Semaphore(1);
+		}
+	}
+
+	/**
+	 * The indexes of the stripes held, in ascending order
+	 */
+	private final int[] held;
+
+	private HierarchyLocks(int[] held) {
+		this.held = held;
+	}
+
+	/**
+	 * Acquires the stripes of the hierarchies
+	 * 
+	 * @param hierarchies
+	 *            The top superclasses of the hierarchies
+	 * @return The locks held, they have to be released
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting, no stripe is
+	 *             held then
+	 */
+	public static HierarchyLocks acquire(Collection<Class<?>> hierarchies)
+			throws InterruptedException {
+		Set<Integer> indexes = new TreeSet<Integer>();
+		for (Class<?> hierarchy : hierarchies) {
+			indexes.add(getStripe(hierarchy));
+		}
+		int[] held = new int[indexes.size()];
+		int i = 0;
+		for (Integer index : indexes) {
+			held[i++] = index;
+		}
+		return acquire(held);
+	}
+
+	/**
+	 * Acquires all the stripes. It is used by the executions that read or
+	 * compile classes outside their hierarchies.
+	 * 
+	 * @return The locks held, they have to be released
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting, no stripe is
+	 *             held then
+	 */
+	public static HierarchyLocks acquireAll() throws InterruptedException {
+		int[] held = new int[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			held[i] = i;
+		}
+		return acquire(held);
+	}
+
+	/**
+	 * Acquires the stripes in order, releasing the acquired ones if the thread
+	 * is interrupted
+	 * 
+	 * @param held
+	 *            The sorted indexes of the stripes
+	 * @return The locks held
+	 * @throws InterruptedException
+	 */
+	private static HierarchyLocks acquire(int[] held)
+			throws InterruptedException {
+		for (int i = 0; i < held.length; i++) {
+			try {
+				stripes[held[i]].acquire();
+			} catch (InterruptedException e) {
+				new HierarchyLocks(Arrays.copyOf(held, i)).release();
+				throw e;
+			}
+		}
+		return new HierarchyLocks(held);
+	}
+
+	/**
+	 * Releases the stripes held
+	 */
+	public void release() {
+		for (int i = held.length - 1; i >= 0; i--) {
+			stripes[held[i]].release();
+		}
+	}
+
+	/**
+	 * Obtains the stripe of one hierarchy
+	 * 
+	 * @param hierarchy
+	 *            The top superclass of the hierarchy
+	 * @return The index of the stripe
+	 */
+	static int getStripe(Class<?> hierarchy) {
+		int hash = hierarchy.getName().hashCode();
+		hash ^= hash >>> 16;
+		return hash & (STRIPES - 1);
+	}
+
+}
@@ -36,4 +36,21 @@ public interface Primitive {
 	 */
 	public boolean isSafe();
 
+	/**
+	 * Obtains the names of the members changed in a way that could provoke
+	 * errors in the classes that reference them
+	 * 
+	 * @return The names of the members, empty if the primitive is safe
+	 */
+	public Set<String> getUnsafeMembers();
+
+	/**
+	 * Obtains the top superclass of the hierarchy modified by the primitive.
+	 * The whole hierarchy evolves to a new version, so the primitives over the
+	 * same hierarchy share the versions.
+	 * 
+	 * @return The top superclass with source code
+	 */
+	public Class<?> getHierarchy();
+
 }
@@ -1,27 +1,34 @@
 package jmplib.primitives;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import jmplib.agent.UpdaterAgent;
+import jmplib.classversions.VersionCallSite;
 import jmplib.classversions.VersionTables;
+import jmplib.compiler.BytecodeVersionEngine;
 import jmplib.compiler.ClassCompiler;
-import jmplib.compiler.PolyglotAdapter;
+import jmplib.compiler.HotSwapEngine;
+import jmplib.compiler.PartitionedCompiler;
+import jmplib.compiler.VersionClassLoader;
 import jmplib.exceptions.CompilationFailedException;
 import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.primitives.impl.ReplaceImplementationPrimitive;
 import jmplib.sourcecode.ClassContent;
-import jmplib.sourcecode.ClassContentSerializer;
-import jmplib.sourcecode.SourceCodeCache;
-import jmplib.util.ClassPathUtil;
-import jmplib.util.JavaSourceFromString;
+import jmplib.sourcecode.DependencyGraph;
 
 public class PrimitiveExecutor {
 
@@ -30,6 +37,19 @@ public class PrimitiveExecutor {
 	private Set<ClassContent> classContents = new HashSet<ClassContent>();
 	private boolean safeChange = true;
 
+	/**
+	 * The locks of the hierarchies modified by the execution
+	 */
+	private HierarchyLocks locks = null;
+
+	/**
+	 * The classes compiled by {@link #prepare()} and not published yet
+	 */
+	private Map<String, Class<?>> stagedClasses = null;
+	private List<Primitive> eliminated = Collections.emptyList();
+	private boolean executed = false;
+	private long start;
+
 	public PrimitiveExecutor(Primitive primitive) {
 		if (primitive == null) {
 			throw new RuntimeException("The primitive cannot be null");
@@ -48,12 +68,176 @@ public class PrimitiveExecutor {
 	/**
 	 * Executes all primitves in order. If an error happens all primitives are
 	 * undone in inverse order. The new verions are compiled and the last
-	 * versions are redireted to the new version.
+	 * versions are redireted to the new version. The redundant primitives are
+	 * folded by the {@link PrimitiveOptimizer} before the execution.
 	 * 
+	 * @return The result of the execution
 	 * @throws StructuralIntercessionException
 	 */
-	public synchronized void executePrimitives()
+	public ExecutionResult executePrimitives()
 			throws StructuralIntercessionException {
+		acquire();
+		try {
+			eliminated = PrimitiveOptimizer.optimize(primitives);
+			// Replace the bodies in place if it is possible
+			if (HotSwapEngine.isApplicable(primitives) && hotSwap())
+				return createResult(true);
+			stage();
+			publishStaged();
+			return createResult(false);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Executes the primitives and compiles the new versions without
+	 * publishing them. The application keeps running the current versions
+	 * until {@link #apply()} is called. If an error happens all primitives are
+	 * undone in inverse order.
+	 * </p>
+	 * <p>
+	 * The prepared changes block the executions over the same hierarchies
+	 * until they are applied or discarded.
+	 * </p>
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the primitives cannot be executed or compiled
+	 */
+	public void prepare() throws StructuralIntercessionException {
+		acquire();
+		try {
+			eliminated = PrimitiveOptimizer.optimize(primitives);
+			stage();
+		} catch (StructuralIntercessionException | RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Publishes the new versions compiled by {@link #prepare()}. Only the
+	 * version tables and the references of the classes are updated. If an
+	 * error happens all primitives are undone in inverse order.
+	 * 
+	 * @return The result of the execution
+	 * @throws StructuralIntercessionException
+	 *             If the changes are not prepared or cannot be published
+	 */
+	public ExecutionResult apply() throws StructuralIntercessionException {
+		if (stagedClasses == null) {
+			throw new StructuralIntercessionException(
+					"The primitives have not been prepared");
+		}
+		try {
+			publishStaged();
+			return createResult(false);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Undoes the changes compiled by {@link #prepare()} without publishing
+	 * them
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the changes are not prepared or cannot be undone
+	 */
+	public void discard() throws StructuralIntercessionException {
+		if (stagedClasses == null) {
+			throw new StructuralIntercessionException(
+					"The primitives have not been prepared");
+		}
+		try {
+			undoChanges();
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Executes the primitives in the executor. The primitives are executed and
+	 * the new versions compiled by the threads of the executor, the calling
+	 * thread only waits if it joins the future. The future completes
+	 * exceptionally with the {@link StructuralIntercessionException} if the
+	 * changes cannot be applied, and all of them are undone.
+	 * 
+	 * @param executor
+	 *            The executor that runs the execution
+	 * @return The future result of the execution
+	 */
+	public CompletableFuture<ExecutionResult> executePrimitivesAsync(
+			Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException(
+					"The executor parameter cannot be null");
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return executePrimitives();
+			} catch (StructuralIntercessionException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Acquires the locks of the hierarchies modified by the primitives, so the
+	 * executions over disjoint hierarchies run concurrently. The classes
+	 * referenced from other hierarchies are read through their published
+	 * state. The unsafe changes check and instrument the source code of
+	 * other hierarchies, they acquire all the locks. Each executor runs
+	 * once.
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If the executor has already run or the thread is
+	 *             interrupted
+	 */
+	private void acquire() throws StructuralIntercessionException {
+		synchronized (this) {
+			if (executed) {
+				throw new StructuralIntercessionException(
+						"The primitives have already been executed");
+			}
+			executed = true;
+		}
+		boolean safe = true;
+		Set<Class<?>> hierarchies = new HashSet<Class<?>>();
+		for (Primitive primitive : primitives) {
+			safe &= primitive.isSafe();
+			hierarchies.add(primitive.getHierarchy());
+		}
+		try {
+			if (safe)
+				locks = HierarchyLocks.acquire(hierarchies);
+			else
+				locks = HierarchyLocks.acquireAll();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StructuralIntercessionException(
+					"Interrupted waiting for other executions", e);
+		}
+		start = System.nanoTime();
+	}
+
+	/**
+	 * Releases the locks of the execution and the staged classes
+	 */
+	private void release() {
+		stagedClasses = null;
+		locks.release();
+		locks = null;
+	}
+
+	/**
+	 * Executes the primitives and compiles the new versions, keeping them
+	 * staged until they are published
+	 * 
+	 * @throws StructuralIntercessionException
+	 */
+	private void stage() throws StructuralIntercessionException {
 		try {
 			// Execute each primitive
 			while (!primitives.isEmpty()) {
@@ -65,7 +249,11 @@ public class PrimitiveExecutor {
 				safeChange &= primitive.isSafe(); 
 				// setClassContentsUpdated();
 			}
-			makeChangesEffective();
+			// All the primitives can be eliminated by the optimizer
+			if (classContents.isEmpty())
+				stagedClasses = Collections.emptyMap();
+			else
+				stagedClasses = makeChangesEffective();
 		} catch (StructuralIntercessionException e) {
 			// If the primitive fails, undo the changes of all primitive
 			// executed previously
@@ -75,61 +263,168 @@ public class PrimitiveExecutor {
 	}
 
 	/**
-	 * Serializes the classes in the file system for Polyglot instrumentation.
-	 * When Polyglot finishes, the Java Compiler compile all the files and all
-	 * classes are loaded, instrumented and old version classes are redirected
-	 * to the new ones.
+	 * Publishes the staged classes, undoing the changes if they cannot be
+	 * published
 	 * 
 	 * @throws StructuralIntercessionException
 	 */
-	private void makeChangesEffective() throws StructuralIntercessionException {
+	private void publishStaged() throws StructuralIntercessionException {
+		if (classContents.isEmpty())
+			return;
 		try {
-			// Serialize the ClassContents to files
-			File[] files = null;
-			if (safeChange)
-				files = ClassContentSerializer.serialize(classContents);
-			else
-				files = ClassContentSerializer.serialize(SourceCodeCache
-						.getInstance().getAll());
-			// Instrument with Polyglot
-			// files = PolyglotAdapter.instrument(files);
-			JavaSourceFromString[] instrumented = PolyglotAdapter
-					.instrument(files);
-			if (!safeChange)
-				instrumented = filterInstrumented(instrumented);
-			// Compile the new java files
-			ClassCompiler.getInstance().compile(
-					ClassPathUtil.getApplicationClassPath(), instrumented);
-			// Update the VersionTable with the new Classes
-			updateVersionTable();
-			// Update original class references
-			updateReferences();
+			publish(stagedClasses);
+		} catch (StructuralIntercessionException e) {
+			undoChanges();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the result of the execution
+	 * 
+	 * @param hotSwapped
+	 *            {@code true} if the current versions have been redefined
+	 * @return The result
+	 */
+	private ExecutionResult createResult(boolean hotSwapped) {
+		Map<Class<?>, Class<?>> newVersions = new LinkedHashMap<Class<?>, Class<?>>();
+		for (ClassContent classContent : classContents) {
+			Class<?> clazz = classContent.getClazz();
+			newVersions.put(clazz, VersionTables.getNewVersion(clazz));
+		}
+		return new ExecutionResult(newVersions, eliminated, hotSwapped,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Replaces the implementations of the methods redefining the current
+	 * implementations of the classes, the original classes or their current
+	 * versions. If the classes cannot be redefined, the changes are undone so
+	 * they can be applied through new versions.
+	 * 
+	 * @return {@code true} if the classes have been redefined
+	 * @throws StructuralIntercessionException
+	 *             If the new bodies have errors
+	 */
+	private boolean hotSwap() throws StructuralIntercessionException {
+		try {
+			for (Primitive primitive : primitives) {
+				classContents.add(((ReplaceImplementationPrimitive) primitive)
+						.executeInPlace());
+				executedPrimitives.push(primitive);
+			}
+			if (HotSwapEngine.redefine(classContents)) {
+				primitives.clear();
+				VersionHistory.recordOriginals(classContents);
+				VersionHistory.record(classContents);
+				for (ClassContent classContent : classContents) {
+					classContent.publish();
+				}
+				return true;
+			}
+			undoChanges();
+			classContents.clear();
+			return false;
+		} catch (StructuralIntercessionException e) {
+			undoChanges();
+			throw e;
 		} catch (IOException e) {
+			undoChanges();
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		} catch (CompilationFailedException e) {
+			undoChanges();
 			throw new StructuralIntercessionException(e.getCompilationError(),
 					e);
 		}
 	}
 
 	/**
-	 * Filter the instrumented java files to compile only the new versions
+	 * Serializes the classes in the file system for Polyglot instrumentation.
+	 * When Polyglot finishes, the Java Compiler compile all the files and the
+	 * new versions are loaded. The new versions are not used until they are
+	 * published.
 	 * 
-	 * @param instrumented
-	 *            The instrumented files
-	 * @return Filtered files
+	 * @return The classes defined
+	 * @throws StructuralIntercessionException
 	 */
-	private JavaSourceFromString[] filterInstrumented(
-			JavaSourceFromString[] instrumented) {
-		List<JavaSourceFromString> filtered = new ArrayList<JavaSourceFromString>();
-		for (JavaSourceFromString file : instrumented) {
+	private Map<String, Class<?>> makeChangesEffective()
+			throws StructuralIntercessionException {
+		try {
+			// Instrument the classes modified for the first time
+			List<Class<?>> modified = new ArrayList<Class<?>>();
 			for (ClassContent classContent : classContents) {
-				if (classContent.getPath().hashCode() == file.getIdentifier()) {
-					filtered.add(file);
-				}
+				modified.add(classContent.getClazz());
 			}
+			UpdaterAgent.activate(modified);
+			Map<String, Class<?>> classes = null;
+			// Generate the new versions from the bytecode if it is possible
+			if (safeChange && BytecodeVersionEngine.isEnabled()) {
+				Map<String, byte[]> bytecode = BytecodeVersionEngine.generate(
+						executedPrimitives, classContents);
+				if (bytecode != null)
+					classes = ClassCompiler.getInstance().define(bytecode);
+			}
+			if (classes == null)
+				classes = compileSources();
+			return classes;
+		} catch (IOException e) {
+			throw new StructuralIntercessionException(e.getMessage(), e);
+		} catch (CompilationFailedException e) {
+			throw new StructuralIntercessionException(e.getCompilationError(),
+					e);
 		}
-		return filtered.toArray(new JavaSourceFromString[0]);
+	}
+
+	/**
+	 * Publishes the new versions. The version tables and the references of the
+	 * classes are updated at the end, once all the versions have been
+	 * compiled, so the application runs the previous versions until this
+	 * point.
+	 * 
+	 * @param classes
+	 *            The classes defined by the compiler
+	 * @throws StructuralIntercessionException
+	 */
+	private void publish(Map<String, Class<?>> classes)
+			throws StructuralIntercessionException {
+		// Keep the original state of the classes published for the first time
+		VersionHistory.recordOriginals(classContents);
+		// Update the VersionTable with the new Classes
+		updateVersionTable(classes);
+		// Update original class references
+		updateReferences();
+		// Keep the published state to roll back to it
+		VersionHistory.record(classContents);
+		// Release the versions that are no longer used
+		VersionClassLoader.releaseGenerations();
+	}
+
+	/**
+	 * Serializes the source code, instruments it with Polyglot and compiles
+	 * the new versions. The independent hierarchies are compiled in parallel.
+	 * 
+	 * @return The compiled classes
+	 * @throws IOException
+	 * @throws CompilationFailedException
+	 * @throws StructuralIntercessionException
+	 */
+	private Map<String, Class<?>> compileSources() throws IOException,
+			CompilationFailedException, StructuralIntercessionException {
+		Set<ClassContent> instrumented = classContents;
+		if (!safeChange) {
+			// The classes that reference the changed members are instrumented
+			// to check the references
+			UpdaterAgent.loadSources();
+			Set<String> members = new HashSet<String>();
+			for (Primitive primitive : executedPrimitives) {
+				members.addAll(primitive.getUnsafeMembers());
+			}
+			instrumented = new HashSet<ClassContent>(classContents);
+			instrumented.addAll(DependencyGraph.getInstance().getDependents(
+					members));
+		}
+		// Only the new versions are compiled
+		return PartitionedCompiler.compile(instrumented, classContents);
 	}
 
 	/**
@@ -152,33 +447,48 @@ public class PrimitiveExecutor {
 			}
 		}
 		UpdaterAgent.updateClass(classes.toArray(new Class<?>[0]));
+		// Relink the dynamic call sites to the new versions
+		for (ClassContent classContent : classContents) {
+			VersionCallSite.invalidate(classContent.getClazz());
+		}
 	}
 
 	/**
 	 * Updates version tables to add the new versions of each modified class
 	 * 
+	 * @param classes
+	 *            The classes defined by the compiler
 	 * @throws StructuralIntercessionException
 	 */
-	private void updateVersionTable() throws StructuralIntercessionException {
+	private void updateVersionTable(Map<String, Class<?>> classes)
+			throws StructuralIntercessionException {
 		for (ClassContent classContent : classContents) {
 			// Obtain the new class
-			Class<?> newClazz;
-			try {
-				newClazz = Class.forName(classContent.getClazz().getPackage()
-						.getName()
-						+ "."
-						+ classContent.getClazz().getSimpleName()
-						+ "_NewVersion_" + classContent.getVersion());
-			} catch (ClassNotFoundException e) {
+			Class<?> newClazz = classes.get(getVersionName(classContent));
+			if (newClazz == null) {
 				throw new StructuralIntercessionException(
-						"The new version cannot be found", e);
+						"The new version cannot be found");
 			}
 			// Set the new class version
 			VersionTables.addNewVersion(classContent.getClazz(), newClazz);
 			classContent.setUpdated(false);
+			classContent.publish();
 		}
 	}
 
+	/**
+	 * Obtains the binary name of the new version of the class
+	 * 
+	 * @param classContent
+	 *            The class content
+	 * @return The name of the new version
+	 */
+	private static String getVersionName(ClassContent classContent) {
+		return classContent.getClazz().getPackage().getName() + "."
+				+ classContent.getClazz().getSimpleName() + "_NewVersion_"
+				+ classContent.getVersion();
+	}
+
 	/**
 	 * All executed primitives are undone by inverse order
 	 * 
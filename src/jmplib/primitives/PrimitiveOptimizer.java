@@ -0,0 +1,224 @@
+package jmplib.primitives;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import jmplib.classversions.util.MemberKey;
+import jmplib.primitives.impl.AddFieldPrimitive;
+import jmplib.primitives.impl.AddMethodPrimitive;
+import jmplib.primitives.impl.DeleteFieldPrimitive;
+import jmplib.primitives.impl.DeleteMethodPrimitive;
+import jmplib.primitives.impl.ReplaceFieldPrimitive;
+import jmplib.primitives.impl.ReplaceImplementationPrimitive;
+
+/**
+ * <p>
+ * Folds the redundant primitives of one execution before they modify the
+ * source code. The primitives over the same member are combined into an
+ * equivalent one:
+ * </p>
+ * <ul>
+ * <li>Adding a member and deleting it later cancels both primitives.</li>
+ * <li>Replacing the implementation of a method several times keeps the last
+ * implementation.</li>
+ * <li>Replacing the implementation of a method added in the same execution
+ * adds the method with the new implementation.</li>
+ * <li>Replacing the type of a field added or replaced in the same execution
+ * adds or replaces the field with the last type.</li>
+ * </ul>
+ * <p>
+ * The primitives folded are replaced in the queue by new primitives, the
+ * primitives received are never modified. The transaction can still execute
+ * its own primitives again if the execution fails.
+ * </p>
+ * <p>
+ * The primitives are only folded if no other primitive over the same class
+ * is kept between them, the primitives in between could depend on the
+ * member. The rest of primitives, like the replacement of the signature of a
+ * method, are not folded and they separate the primitives of their class too.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PrimitiveOptimizer {
+
+	private PrimitiveOptimizer() {
+	}
+
+	/**
+	 * Folds the primitives of the queue, keeping their order
+	 * 
+	 * @param primitives
+	 *            The primitives to execute, the queue is modified
+	 * @return The primitives eliminated from the queue
+	 */
+	public static List<Primitive> optimize(Queue<Primitive> primitives) {
+		if (primitives.size() < 2)
+			return Collections.emptyList();
+		List<Primitive> kept = new ArrayList<Primitive>();
+		List<Primitive> eliminated = new ArrayList<Primitive>();
+		Set<Primitive> removed = Collections
+				.newSetFromMap(new IdentityHashMap<Primitive, Boolean>());
+		// The last primitive kept over each member
+		Map<MemberKey, Primitive> last = new HashMap<MemberKey, Primitive>();
+		for (Primitive primitive : primitives) {
+			MemberKey key = getKey(primitive);
+			if (key == null) {
+				forget(last, primitive);
+				kept.add(primitive);
+				continue;
+			}
+			Primitive previous = last.get(key);
+			if (previous != null && cancels(previous, primitive)) {
+				eliminated.add(previous);
+				eliminated.add(primitive);
+				removed.add(previous);
+				last.remove(key);
+				continue;
+			}
+			Primitive folded = previous == null ? null : fold(previous,
+					primitive);
+			if (folded != null) {
+				for (int i = kept.size() - 1; i >= 0; i--) {
+					if (kept.get(i) == previous) {
+						kept.set(i, folded);
+						break;
+					}
+				}
+				last.put(key, folded);
+				eliminated.add(primitive);
+				continue;
+			}
+			if (previous instanceof ReplaceImplementationPrimitive
+					&& primitive instanceof ReplaceImplementationPrimitive) {
+				// The last implementation overrides the previous one
+				eliminated.add(previous);
+				removed.add(previous);
+			}
+			// The primitive separates the primitives over other members
+			forget(last, primitive);
+			last.put(key, primitive);
+			kept.add(primitive);
+		}
+		if (eliminated.isEmpty())
+			return Collections.emptyList();
+		primitives.clear();
+		for (Primitive primitive : kept) {
+			if (!removed.contains(primitive))
+				primitives.add(primitive);
+		}
+		return eliminated;
+	}
+
+	/**
+	 * Folds the primitive and the previous primitive over the same member
+	 * into a new primitive. None of them is modified.
+	 * 
+	 * @param previous
+	 *            The previous primitive
+	 * @param primitive
+	 *            The primitive
+	 * @return The primitive that replaces both or {@code null} if they cannot
+	 *         be folded
+	 */
+	private static Primitive fold(Primitive previous, Primitive primitive) {
+		if (previous instanceof AddMethodPrimitive
+				&& primitive instanceof ReplaceImplementationPrimitive) {
+			return ((AddMethodPrimitive) previous)
+					.withBody(((ReplaceImplementationPrimitive) primitive)
+							.getBody());
+		}
+		if (primitive instanceof ReplaceFieldPrimitive) {
+			ReplaceFieldPrimitive replace = (ReplaceFieldPrimitive) primitive;
+			if (previous instanceof AddFieldPrimitive) {
+				return ((AddFieldPrimitive) previous).withType(
+						replace.getNewFieldClass(), replace.getNewInit());
+			}
+			if (previous instanceof ReplaceFieldPrimitive) {
+				return ((ReplaceFieldPrimitive) previous).withType(
+						replace.getNewFieldClass(), replace.getNewInit());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the primitive deletes the member added by the previous one
+	 * 
+	 * @param previous
+	 *            The previous primitive
+	 * @param primitive
+	 *            The primitive
+	 * @return {@code true} if both primitives cancel out
+	 */
+	private static boolean cancels(Primitive previous, Primitive primitive) {
+		if (previous instanceof AddMethodPrimitive)
+			return primitive instanceof DeleteMethodPrimitive;
+		if (previous instanceof AddFieldPrimitive)
+			return primitive instanceof DeleteFieldPrimitive;
+		return false;
+	}
+
+	/**
+	 * The primitives kept separate the primitives over the members of their
+	 * class
+	 * 
+	 * @param last
+	 *            The last primitive over each member
+	 * @param primitive
+	 *            The primitive kept
+	 */
+	private static void forget(Map<MemberKey, Primitive> last,
+			Primitive primitive) {
+		if (!(primitive instanceof AbstractPrimitive)) {
+			last.clear();
+			return;
+		}
+		Class<?> clazz = ((AbstractPrimitive) primitive).getClassContent()
+				.getClazz();
+		last.values().removeIf(
+				previous -> ((AbstractPrimitive) previous).getClassContent()
+						.getClazz() == clazz);
+	}
+
+	/**
+	 * Obtains the member modified by the primitive
+	 * 
+	 * @param primitive
+	 *            The primitive
+	 * @return The key of the member or {@code null} if the primitive is not
+	 *         folded
+	 */
+	private static MemberKey getKey(Primitive primitive) {
+		if (primitive instanceof AddMethodPrimitive
+				|| primitive instanceof DeleteMethodPrimitive
+				|| primitive instanceof ReplaceImplementationPrimitive) {
+			MethodPrimitive method = (MethodPrimitive) primitive;
+			String name;
+			if (primitive instanceof AddMethodPrimitive)
+				name = ((AddMethodPrimitive) primitive).getName();
+			else if (primitive instanceof DeleteMethodPrimitive)
+				name = ((DeleteMethodPrimitive) primitive).getName();
+			else
+				name = ((ReplaceImplementationPrimitive) primitive).getName();
+			return new MemberKey(method.getClassContent().getClazz().getName(),
+					name, method.getDescriptor());
+		}
+		if (primitive instanceof AddFieldPrimitive
+				|| primitive instanceof DeleteFieldPrimitive
+				|| primitive instanceof ReplaceFieldPrimitive) {
+			FieldPrimitive field = (FieldPrimitive) primitive;
+			return new MemberKey(field.getClassContent().getClazz().getName(),
+					field.name);
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,508 @@
+package jmplib.primitives;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmplib.agent.UpdaterAgent;
+import jmplib.classversions.VersionCallSite;
+import jmplib.classversions.VersionTables;
+import jmplib.compiler.ClassCompiler;
+import jmplib.compiler.HotSwapEngine;
+import jmplib.compiler.VersionClassLoader;
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.sourcecode.ClassContent;
+import jmplib.sourcecode.ClassContent.Published;
+import jmplib.sourcecode.SourceCodeCache;
+import jmplib.util.InstanceMigrator;
+
+import com.github.javaparser.ParseException;
+
+/**
+ * <p>
+ * History of the versions published for each class hierarchy. Every time the
+ * versions of a hierarchy are published, the version number, the version
+ * class, the source code and the bytes of each class of the hierarchy are
+ * recorded. The classes redefined in place by HotSwap are recorded too, with
+ * their new bytes.
+ * </p>
+ * <p>
+ * The history allows to roll back a hierarchy to a version already loaded
+ * without compiling anything. The version tables, the
+ * {@code _currentClassVersion} fields and the redirections of the classes
+ * point again to the old versions, and the instances migrate to them lazily
+ * the next time they are used. The source code of the classes is restored, so
+ * the next primitives modify the version rolled back to. The version numbers
+ * keep growing, the versions compiled after a rollback never reuse a name.
+ * </p>
+ * <p>
+ * A rollback is recorded as a new state, so rolling back a commit returns to
+ * the state that was running before it. The versions released by the
+ * {@link VersionClassLoader} cannot be rolled back to, their records are
+ * discarded.
+ * </p>
+ * <p>
+ * The first time a class is published, its original state is recorded before:
+ * the original class, without redirections, and the bytes of its class file.
+ * When a class returns to its original state, the state of its objects is
+ * copied back from their versions by the {@link InstanceMigrator}. The classes
+ * whose bytes differ from the recorded ones are redefined with them.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class VersionHistory {
+
+	/**
+	 * The published states of each hierarchy, from the oldest to the newest,
+	 * indexed by the top superclass
+	 */
+	private static Map<Class<?>, List<Map<Class<?>, Record>>> histories = new ConcurrentHashMap<Class<?>, List<Map<Class<?>, Record>>>();
+
+	private VersionHistory() {
+	}
+
+	/**
+	 * Records the versions just published. The classes are grouped by their
+	 * hierarchy, each hierarchy gets a new state in its history.
+	 * 
+	 * @param classContents
+	 *            The classes published
+	 * @throws StructuralIntercessionException
+	 */
+	static void record(Collection<ClassContent> classContents)
+			throws StructuralIntercessionException {
+		Map<Class<?>, Map<Class<?>, Record>> states = new LinkedHashMap<Class<?>, Map<Class<?>, Record>>();
+		for (ClassContent classContent : classContents) {
+			Class<?> top = AbstractPrimitive.getTopSuperClass(classContent)
+					.getClazz();
+			Map<Class<?>, Record> state = states.get(top);
+			if (state == null) {
+				state = new HashMap<Class<?>, Record>();
+				states.put(top, state);
+			}
+			Class<?> clazz = classContent.getClazz();
+			Class<?> versionClass = VersionTables.getNewVersion(clazz);
+			state.put(clazz, new Record(classContent.getVersion(),
+					versionClass, classContent.getContent(),
+					getLoadedBytes(versionClass)));
+		}
+		for (Map.Entry<Class<?>, Map<Class<?>, Record>> entry : states
+				.entrySet()) {
+			List<Map<Class<?>, Record>> history = histories.computeIfAbsent(
+					entry.getKey(), top -> new ArrayList<Map<Class<?>, Record>>());
+			synchronized (history) {
+				expunge(history);
+				history.add(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Records the original state of the classes published for the first time.
+	 * It is called before their first version is published or their original
+	 * class is redefined, the state contains the last records of the rest of
+	 * classes.
+	 * 
+	 * @param classContents
+	 *            The classes to publish
+	 * @throws StructuralIntercessionException
+	 */
+	static void recordOriginals(Collection<ClassContent> classContents)
+			throws StructuralIntercessionException {
+		Map<Class<?>, List<ClassContent>> hierarchies = new LinkedHashMap<Class<?>, List<ClassContent>>();
+		for (ClassContent classContent : classContents) {
+			Class<?> top = AbstractPrimitive.getTopSuperClass(classContent)
+					.getClazz();
+			List<ClassContent> hierarchy = hierarchies.get(top);
+			if (hierarchy == null) {
+				hierarchy = new ArrayList<ClassContent>();
+				hierarchies.put(top, hierarchy);
+			}
+			hierarchy.add(classContent);
+		}
+		for (Map.Entry<Class<?>, List<ClassContent>> entry : hierarchies
+				.entrySet()) {
+			List<Map<Class<?>, Record>> history = histories.computeIfAbsent(
+					entry.getKey(), top -> new ArrayList<Map<Class<?>, Record>>());
+			synchronized (history) {
+				expunge(history);
+				Map<Class<?>, Record> state = new HashMap<Class<?>, Record>();
+				boolean original = false;
+				for (ClassContent classContent : entry.getValue()) {
+					Class<?> clazz = classContent.getClazz();
+					Record last = getLastRecord(history, clazz);
+					if (last != null) {
+						state.put(clazz, last);
+					} else if (VersionTables.getNewVersion(clazz) == clazz) {
+						Published published = classContent.getPublished();
+						try {
+							state.put(clazz, new Record(published.getVersion(),
+									clazz, published.getContent(),
+									HotSwapEngine.getClassFile(clazz)));
+						} catch (IOException e) {
+							throw new StructuralIntercessionException(
+									e.getMessage(), e);
+						}
+						original = true;
+					}
+				}
+				if (original)
+					history.add(state);
+			}
+		}
+	}
+
+	/**
+	 * Obtains the last record of the class
+	 * 
+	 * @param history
+	 *            The history of the hierarchy
+	 * @param clazz
+	 *            The class
+	 * @return The record or {@code null} if the class has not been recorded
+	 */
+	private static Record getLastRecord(List<Map<Class<?>, Record>> history,
+			Class<?> clazz) {
+		for (int i = history.size() - 1; i >= 0; i--) {
+			Record record = history.get(i).get(clazz);
+			if (record != null)
+				return record;
+		}
+		return null;
+	}
+
+	/**
+	 * Obtains the bytes of the loaded class
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @return The bytes before the agent instruments them
+	 * @throws StructuralIntercessionException
+	 *             If the class file cannot be read
+	 */
+	private static byte[] getLoadedBytes(Class<?> clazz)
+			throws StructuralIntercessionException {
+		try {
+			return HotSwapEngine.getLoadedBytes(clazz);
+		} catch (IOException e) {
+			throw new StructuralIntercessionException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Rolls back the hierarchy of the class to the state where the class had
+	 * the version specified
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @param version
+	 *            The version number of the class
+	 * @throws StructuralIntercessionException
+	 *             If the version has not been published or it has been
+	 *             released
+	 */
+	public static void rollback(Class<?> clazz, int version)
+			throws StructuralIntercessionException {
+		Class<?> top = getTop(clazz);
+		List<Map<Class<?>, Record>> history = getHistory(top, clazz);
+		Map<Class<?>, Record> target = null;
+		synchronized (history) {
+			expunge(history);
+			for (Map<Class<?>, Record> state : history) {
+				Record record = state.get(clazz);
+				if (record != null && record.version == version)
+					target = state;
+			}
+		}
+		if (target == null) {
+			throw new StructuralIntercessionException("The version "
+					+ version + " of the class " + clazz.getName()
+					+ " is not available");
+		}
+		restore(top, target);
+	}
+
+	/**
+	 * Rolls back the hierarchies of the classes to the state previous to the
+	 * versions provided
+	 * 
+	 * @param newVersions
+	 *            The versions published by a commit, indexed by the original
+	 *            classes
+	 * @throws StructuralIntercessionException
+	 *             If there is no previous version available
+	 */
+	public static void rollbackBefore(Map<Class<?>, Class<?>> newVersions)
+			throws StructuralIntercessionException {
+		Map<Class<?>, Map<Class<?>, Record>> targets = new LinkedHashMap<Class<?>, Map<Class<?>, Record>>();
+		for (Map.Entry<Class<?>, Class<?>> entry : newVersions.entrySet()) {
+			Class<?> clazz = entry.getKey();
+			Class<?> top = getTop(clazz);
+			if (targets.containsKey(top))
+				continue;
+			List<Map<Class<?>, Record>> history = getHistory(top, clazz);
+			Map<Class<?>, Record> target = null;
+			synchronized (history) {
+				expunge(history);
+				for (int i = 1; i < history.size(); i++) {
+					Record record = history.get(i).get(clazz);
+					if (record != null
+							&& record.versionClass == entry.getValue())
+						target = history.get(i - 1);
+				}
+			}
+			if (target == null) {
+				throw new StructuralIntercessionException(
+						"There is no previous version of the class "
+								+ clazz.getName() + " available");
+			}
+			targets.put(top, target);
+		}
+		for (Map.Entry<Class<?>, Map<Class<?>, Record>> entry : targets
+				.entrySet()) {
+			restore(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Restores the state of one hierarchy. The source code is restored
+	 * renaming the old versions to the current version numbers, then the
+	 * old versions are published again.
+	 * 
+	 * @param top
+	 *            The top superclass of the hierarchy
+	 * @param state
+	 *            The state to restore
+	 * @throws StructuralIntercessionException
+	 */
+	private static void restore(Class<?> top, Map<Class<?>, Record> state)
+			throws StructuralIntercessionException {
+		HierarchyLocks locks;
+		try {
+			locks = HierarchyLocks.acquire(Collections
+					.<Class<?>> singleton(top));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StructuralIntercessionException(
+					"Interrupted waiting for other executions", e);
+		}
+		try {
+			SourceCodeCache cache = SourceCodeCache.getInstance();
+			Map<Class<?>, ClassContent> classContents = new LinkedHashMap<Class<?>, ClassContent>();
+			for (Map.Entry<Class<?>, Record> entry : state.entrySet()) {
+				Record record = entry.getValue();
+				if (!isAvailable(entry.getKey(), record)) {
+					throw new StructuralIntercessionException("The version "
+							+ record.version + " of the class "
+							+ entry.getKey().getName() + " has been released");
+				}
+				classContents.put(entry.getKey(),
+						cache.getClassContent(entry.getKey()));
+			}
+			restoreSources(state, classContents);
+			for (ClassContent classContent : classContents.values()) {
+				classContent.publish();
+			}
+			// Point the tables and the classes to the old versions
+			List<Class<?>> classes = new ArrayList<Class<?>>();
+			Map<Class<?>, byte[]> definitions = new LinkedHashMap<Class<?>, byte[]>();
+			for (Map.Entry<Class<?>, Record> entry : state.entrySet()) {
+				Class<?> clazz = entry.getKey();
+				Record record = entry.getValue();
+				VersionTables.rollback(clazz, record.versionClass);
+				classes.add(clazz);
+				classes.addAll(VersionTables.getVersions(clazz));
+				if (record.bytes != null
+						&& !Arrays.equals(record.bytes,
+								getLoadedBytes(record.versionClass)))
+					definitions.put(record.versionClass, record.bytes);
+				try {
+					clazz.getField("_currentClassVersion").setInt(null,
+							record.version);
+				} catch (IllegalArgumentException | IllegalAccessException
+						| NoSuchFieldException | SecurityException e) {
+					throw new RuntimeException(
+							"Errors setting class version attribute", e);
+				}
+			}
+			// The classes redefined in place get their recorded bytes back
+			if (!definitions.isEmpty()) {
+				UpdaterAgent.redefineClasses(definitions);
+				for (Map.Entry<Class<?>, byte[]> definition : definitions
+						.entrySet()) {
+					ClassCompiler.getInstance().setBytecode(
+							definition.getKey().getName(),
+							definition.getValue());
+				}
+			}
+			// The old versions are retransformed too, so they are not
+			// redirected anymore
+			UpdaterAgent.updateClass(classes.toArray(new Class<?>[0]));
+			for (Class<?> clazz : state.keySet()) {
+				VersionCallSite.invalidate(clazz);
+			}
+			// The objects of the original classes get their state back
+			for (Map.Entry<Class<?>, Record> entry : state.entrySet()) {
+				if (entry.getValue().versionClass == entry.getKey())
+					InstanceMigrator.restoreOriginals(entry.getKey(),
+							entry.getValue().version);
+			}
+			// The state restored is the current one, the next rollback of a
+			// commit returns to it
+			List<Map<Class<?>, Record>> history = histories.get(top);
+			synchronized (history) {
+				history.add(new HashMap<Class<?>, Record>(state));
+			}
+			VersionClassLoader.releaseGenerations();
+		} finally {
+			locks.release();
+		}
+	}
+
+	/**
+	 * Restores the source code of the classes. The names of the versions of
+	 * the hierarchy are renamed to the current version numbers, the next
+	 * versions compiled continue the numbering.
+	 * 
+	 * @param state
+	 *            The state to restore
+	 * @param classContents
+	 *            The current contents of the classes
+	 * @throws StructuralIntercessionException
+	 *             If the source code cannot be parsed
+	 */
+	private static void restoreSources(Map<Class<?>, Record> state,
+			Map<Class<?>, ClassContent> classContents)
+			throws StructuralIntercessionException {
+		for (Map.Entry<Class<?>, Record> entry : state.entrySet()) {
+			classContents.get(entry.getKey()).setContent(
+					entry.getValue().content);
+		}
+		try {
+			for (ClassContent classContent : classContents.values()) {
+				for (Map.Entry<Class<?>, Record> entry : state.entrySet()) {
+					int from = entry.getValue().version;
+					int to = classContents.get(entry.getKey()).getVersion();
+					if (from == to)
+						continue;
+					String name = entry.getKey().getSimpleName()
+							+ "_NewVersion_";
+					classContent.renameVersion(name + from, name + to);
+				}
+			}
+		} catch (ParseException e) {
+			throw new StructuralIntercessionException(
+					"An exception was thrown parsing the class. "
+							+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Obtains the top superclass of the hierarchy of the class
+	 * 
+	 * @param clazz
+	 *            The class
+	 * @return The top superclass with source code
+	 * @throws StructuralIntercessionException
+	 *             If the class has no source code
+	 */
+	private static Class<?> getTop(Class<?> clazz)
+			throws StructuralIntercessionException {
+		return AbstractPrimitive.getTopSuperClass(
+				SourceCodeCache.getInstance().getClassContent(clazz))
+				.getClazz();
+	}
+
+	/**
+	 * Obtains the history of one hierarchy
+	 * 
+	 * @param top
+	 *            The top superclass of the hierarchy
+	 * @param clazz
+	 *            The class requested
+	 * @return The history of the hierarchy
+	 * @throws StructuralIntercessionException
+	 *             If the hierarchy has no versions
+	 */
+	private static List<Map<Class<?>, Record>> getHistory(Class<?> top,
+			Class<?> clazz) throws StructuralIntercessionException {
+		List<Map<Class<?>, Record>> history = histories.get(top);
+		if (history == null) {
+			throw new StructuralIntercessionException("The class "
+					+ clazz.getName() + " has no versions");
+		}
+		return history;
+	}
+
+	/**
+	 * Removes the states that contain versions released by the generation
+	 * loaders
+	 * 
+	 * @param history
+	 *            The history of one hierarchy
+	 */
+	private static void expunge(List<Map<Class<?>, Record>> history) {
+		for (Iterator<Map<Class<?>, Record>> it = history.iterator(); it
+				.hasNext();) {
+			for (Map.Entry<Class<?>, Record> entry : it.next().entrySet()) {
+				if (!isAvailable(entry.getKey(), entry.getValue())) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the class recorded has not been released
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @param record
+	 *            The record of the class
+	 * @return {@code true} if the record is the original class or one of its
+	 *         versions
+	 */
+	private static boolean isAvailable(Class<?> clazz, Record record) {
+		return record.versionClass == clazz
+				|| VersionTables.getVersions(clazz).contains(
+						record.versionClass);
+	}
+
+	/**
+	 * The version of one class inside a published state
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Record {
+
+		private final int version;
+		private final Class<?> versionClass;
+		private final String content;
+		/**
+		 * The bytes of the class before the agent instruments them
+		 */
+		private final byte[] bytes;
+
+		public Record(int version, Class<?> versionClass, String content,
+				byte[] bytes) {
+			this.version = version;
+			this.versionClass = versionClass;
+			this.content = content;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
@@ -51,6 +51,21 @@ public class AddFieldPrimitive extends FieldPrimitive {
 		this.init = init;
 	}
 
+	/**
+	 * Creates a primitive that adds the same field with other type. This
+	 * primitive is not modified.
+	 * 
+	 * @param type
+	 *            The new type of the field
+	 * @param init
+	 *            The new initialization, {@code null} keeps the current one
+	 * @return The new primitive
+	 */
+	public AddFieldPrimitive withType(Class<?> type, String init) {
+		return new AddFieldPrimitive(classContent, modifiers, type, name,
+				init == null ? this.init : init);
+	}
+
 	/**
 	 * Adds the field to the source code and the auxiliar methods needed
 	 */
@@ -63,7 +78,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 		}
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -78,7 +93,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 			if (unary != null)
 				td.getMembers().add(unary);
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -88,7 +103,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class", e);
@@ -115,7 +130,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 					"An error occurred performing the undo action. "
 							+ "The field didn't remove correctly.");
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -208,7 +223,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 				name,
 				clazz.getSimpleName()
 						+ "_NewVersion_"
-						+ (classContent.isUpdated() ? classContent.getVersion() - 1
+						+ (classContent.isUpdated() ? classContent.getPreviousVersion()
 								: classContent.getVersion()),
 				clazz.getSimpleName() };
 
@@ -292,7 +307,7 @@ public class AddFieldPrimitive extends FieldPrimitive {
 				name,
 				clazz.getSimpleName()
 						+ "_NewVersion_"
-						+ (classContent.isUpdated() ? classContent.getVersion() - 1
+						+ (classContent.isUpdated() ? classContent.getPreviousVersion()
 								: classContent.getVersion()),
 				clazz.getSimpleName() };
 
@@ -57,6 +57,38 @@ public class AddMethodPrimitive extends MethodPrimitive {
 		this.paramNames = paramNames;
 	}
 
+	/**
+	 * Obtains the name of the method
+	 * 
+	 * @return The name of the method
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Obtains the body of the method
+	 * 
+	 * @return The source code of the body
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Creates a primitive that adds the same method with other body. This
+	 * primitive is not modified.
+	 * 
+	 * @param body
+	 *            The new body of the method
+	 * @return The new primitive
+	 */
+	public AddMethodPrimitive withBody(String body) {
+		return new AddMethodPrimitive(classContent, name, returnClass,
+				parameterClasses, exceptionClasses, paramNames, body,
+				modifiers);
+	}
+
 	/**
 	 * Generates the members needed in the primitive execution
 	 * 
@@ -115,7 +147,7 @@ public class AddMethodPrimitive extends MethodPrimitive {
 				name,
 				clazz.getSimpleName()
 						+ "_NewVersion_"
-						+ (classContent.isUpdated() ? classContent.getVersion() - 1
+						+ (classContent.isUpdated() ? classContent.getPreviousVersion()
 								: classContent.getVersion()), paramsNames,
 				(returnClass.getName().equals("void") ? "" : "return ") };
 
@@ -212,7 +244,7 @@ public class AddMethodPrimitive extends MethodPrimitive {
 		}
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -224,7 +256,7 @@ public class AddMethodPrimitive extends MethodPrimitive {
 		if (!Modifier.isStatic(modifiers)) {
 			td.getMembers().add(invoker);
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -234,7 +266,7 @@ public class AddMethodPrimitive extends MethodPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -256,6 +288,6 @@ public class AddMethodPrimitive extends MethodPrimitive {
 					"An error occurred performing the undo action. "
 							+ "The methods didn't remove correctly.");
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 }
@@ -1,6 +1,8 @@
 package jmplib.primitives.impl;
 
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Set;
 
 import jmplib.asm.util.ASMUtils;
 import jmplib.classversions.DeleteMemberTables;
@@ -39,7 +41,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 	protected void executePrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -50,7 +52,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 		VariableDeclarator declarator;
 		modifiers = type.getModifiers();
 		try {
-			declarator = JavaParserUtils.searchField(unit, clazz, name);
+			declarator = JavaParserUtils.searchField(classContent, name);
 		} catch (NoSuchFieldException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
@@ -69,7 +71,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 					field.getType(), declarator);
 			declaration.setAnnotations(field.getAnnotations());
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -83,14 +85,14 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 	protected void removeSupportMethods(CompilationUnit unit, TypeDeclaration type) {
 		try {
 			if (Modifier.isStatic(modifiers)) {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_getter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_setter");
 			} else {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldGetter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldSetter");
 			}
 			type.getMembers().remove(getter);
@@ -102,7 +104,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 					"This field must have static getter and setter", e);
 		}
 		try {
-			unary = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+			unary = JavaParserUtils.searchMethod(classContent, "_" + name
 					+ "_unary");
 			type.getMembers().remove(unary);
 			DeleteMemberTables.delete(new MemberKey(ASMUtils.getInternalName(clazz), unary.getName(), getUnaryDescriptor()));
@@ -117,7 +119,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -127,7 +129,7 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 				+ "_NewVersion_" + classContent.getVersion());
 		type.getMembers().add(declaration);
 		addSupportMethods(type);
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -160,6 +162,14 @@ public class DeleteFieldPrimitive extends FieldPrimitive {
 		return false;
 	}
 
+	/**
+	 * The classes that reference the deleted member have to be checked
+	 */
+	@Override
+	public Set<String> getUnsafeMembers() {
+		return Collections.singleton(name);
+	}
+
 	protected String getGetterDescriptor() {
 		String descriptor = "(";
 		if(Modifier.isStatic(modifiers)){
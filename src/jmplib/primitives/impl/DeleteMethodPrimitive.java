@@ -1,6 +1,8 @@
 package jmplib.primitives.impl;
 
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Set;
 
 import jmplib.asm.util.ASMUtils;
 import jmplib.classversions.DeleteMemberTables;
@@ -33,6 +35,15 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 		this.name = name;
 	}
 
+	/**
+	 * Obtains the name of the method
+	 * 
+	 * @return The name of the method
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * Deletes one method and its invoker from the source code of the class
 	 */
@@ -40,19 +51,23 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 	protected void executePrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class", e);
 		}
 		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
+			declaration = JavaParserUtils.searchMethod(classContent, name,
 					parameterClasses, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(
 					"No such method in the class "
 							+ classContent.getClazz().getName(), e);
 		}
+		// The unit is not parsed again, so the invoker is searched before
+		// modifying it
+		if (!Modifier.isStatic(modifiers))
+			searchInvoker();
 		TypeDeclaration type = JavaParserUtils.searchType(unit, clazz.getName()
 				+ "_NewVersion_" + classContent.getVersion());
 		type.getMembers().remove(declaration);
@@ -62,25 +77,28 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 					getDescriptor()));
 		}
 		if (!Modifier.isStatic(modifiers))
-			deleteInvoker(unit, type);
-		classContent.setContent(unit.toString());
+			deleteInvoker(type);
+		classContent.setCompilationUnit(unit);
 	}
 
-	private void deleteInvoker(CompilationUnit unit, TypeDeclaration type)
-			throws StructuralIntercessionException {
+	private void searchInvoker() throws StructuralIntercessionException {
 		Class<?>[] params = new Class<?>[parameterClasses.length + 1];
 		System.arraycopy(parameterClasses, 0, params, 1,
 				parameterClasses.length);
 		params[0] = classContent.getClazz();
 		String invokerName = "_".concat(name).concat("_invoker");
 		try {
-			invoker = JavaParserUtils.searchMethod(unit, clazz, invokerName,
+			invoker = JavaParserUtils.searchMethod(classContent, invokerName,
 					params, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(
 					"No such method in the class "
 							+ classContent.getClazz().getName(), e);
 		}
+	}
+
+	private void deleteInvoker(TypeDeclaration type) {
+		String invokerName = "_".concat(name).concat("_invoker");
 		type.getMembers().remove(invoker);
 		if (!getIsOverrideMethod()) {
 			DeleteMemberTables.delete(new MemberKey(ASMUtils
@@ -96,7 +114,7 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class", e);
@@ -113,7 +131,7 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 					.getInternalName(classContent.getClazz()), "_".concat(name)
 					.concat("_invoker"), getInvokerDescriptor()));
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	@Override
@@ -121,6 +139,14 @@ public class DeleteMethodPrimitive extends MethodPrimitive {
 		return false;
 	}
 
+	/**
+	 * The classes that reference the deleted member have to be checked
+	 */
+	@Override
+	public Set<String> getUnsafeMembers() {
+		return Collections.singleton(name);
+	}
+
 	/**
 	 * Checks if the method overrides another method
 	 * 
@@ -40,6 +40,41 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 		this.newInit = newInit;
 	}
 
+	/**
+	 * Obtains the new type of the field
+	 * 
+	 * @return The new type
+	 */
+	public Class<?> getNewFieldClass() {
+		return newFieldClass;
+	}
+
+	/**
+	 * Obtains the new initialization of the field
+	 * 
+	 * @return The source code of the initialization or {@code null} to keep
+	 *         the current one
+	 */
+	public String getNewInit() {
+		return newInit;
+	}
+
+	/**
+	 * Creates a primitive that replaces the same field with other type. This
+	 * primitive is not modified.
+	 * 
+	 * @param newFieldClass
+	 *            The new type of the field
+	 * @param newInit
+	 *            The new initialization, {@code null} keeps the previous one
+	 * @return The new primitive
+	 */
+	public ReplaceFieldPrimitive withType(Class<?> newFieldClass,
+			String newInit) {
+		return new ReplaceFieldPrimitive(classContent, name, newFieldClass,
+				newInit == null ? this.newInit : newInit);
+	}
+
 	/**
 	 * Changes the type of the field and the type of the auxiliary methods
 	 */
@@ -55,7 +90,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 		}
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -65,7 +100,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 				+ "_NewVersion_" + classContent.getVersion());
 		VariableDeclarator declarator;
 		try {
-			declarator = JavaParserUtils.searchField(unit, clazz, name);
+			declarator = JavaParserUtils.searchField(classContent, name);
 		} catch (NoSuchFieldException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
@@ -88,7 +123,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 		oldInit = declarator.getInit();
 		if (newInit != null)
 			declarator.setInit(newInit);
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -104,14 +139,14 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 		Type newType = JavaParserUtils.transform(newFieldClass);
 		try {
 			if (Modifier.isStatic(type.getModifiers())) {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_getter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_setter");
 			} else {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldGetter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldSetter");
 			}
 			getter.setType(newType);
@@ -131,7 +166,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 					"This static field must have static getter and setter", e);
 		}
 		try {
-			unary = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+			unary = JavaParserUtils.searchMethod(classContent, "_" + name
 					+ "_unary");
 			unary.setType(newType);
 		} catch (NoSuchMethodException e) {
@@ -145,7 +180,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -155,7 +190,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 				+ "_NewVersion_" + classContent.getVersion());
 		VariableDeclarator declarator;
 		try {
-			declarator = JavaParserUtils.searchField(unit, clazz, name);
+			declarator = JavaParserUtils.searchField(classContent, name);
 		} catch (NoSuchFieldException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
@@ -163,7 +198,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 		restoreSupportMethods(unit, type);
 		field.setType(oldType);
 		declarator.setInit(oldInit);
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -178,14 +213,14 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 			TypeDeclaration type) {
 		try {
 			if (Modifier.isStatic(type.getModifiers())) {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_getter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_setter");
 			} else {
-				getter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				getter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldGetter");
-				setter = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+				setter = JavaParserUtils.searchMethod(classContent, "_" + name
 						+ "_fieldSetter");
 			}
 			getter.setType(oldType);
@@ -205,7 +240,7 @@ public class ReplaceFieldPrimitive extends FieldPrimitive {
 					"This static field must have static getter and setter", e);
 		}
 		try {
-			unary = JavaParserUtils.searchMethod(unit, clazz, "_" + name
+			unary = JavaParserUtils.searchMethod(classContent, "_" + name
 					+ "_unary");
 			unary.setType(oldType);
 		} catch (NoSuchMethodException e) {
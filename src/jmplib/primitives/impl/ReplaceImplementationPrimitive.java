@@ -24,6 +24,8 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 
 	private String body;
 
+	private boolean inPlace = false;
+
 	public ReplaceImplementationPrimitive(ClassContent classContent,
 			String name, String body, Class<?> returnClass,
 			Class<?>[] parameterClasses) {
@@ -32,6 +34,52 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 		this.body = body;
 	}
 
+	/**
+	 * Obtains the name of the method
+	 * 
+	 * @return The name of the method
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Obtains the new body of the method
+	 * 
+	 * @return The source code of the body
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Changes the method body without evolving the class to a new version.
+	 * The class has to be redefined with HotSwap after the change.
+	 * 
+	 * @return The {@link ClassContent} modified
+	 * @throws StructuralIntercessionException
+	 *             If the method cannot be found
+	 */
+	public ClassContent executeInPlace() throws StructuralIntercessionException {
+		executePrimitive();
+		inPlace = true;
+		return classContent;
+	}
+
+	/**
+	 * Reverts the changes, the version is only reverted if the primitive was
+	 * not executed in place
+	 */
+	@Override
+	public void undo() throws StructuralIntercessionException {
+		if (inPlace) {
+			undoPrimitive();
+			inPlace = false;
+		} else {
+			super.undo();
+		}
+	}
+
 	/**
 	 * Changes the method body
 	 */
@@ -44,7 +92,7 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 		}
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -52,14 +100,14 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 		}
 		MethodDeclaration declaration;
 		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
+			declaration = JavaParserUtils.searchMethod(classContent, name,
 					parameterClasses, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
 		oldBody = declaration.getBody();
 		declaration.setBody(newBody);
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -69,7 +117,7 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -77,13 +125,13 @@ public class ReplaceImplementationPrimitive extends MethodPrimitive {
 		}
 		MethodDeclaration declaration;
 		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
+			declaration = JavaParserUtils.searchMethod(classContent, name,
 					parameterClasses, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
 		declaration.setBody(oldBody);
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 }
@@ -164,7 +164,7 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 				name,
 				clazz.getSimpleName()
 						+ "_NewVersion_"
-						+ (classContent.isUpdated() ? classContent.getVersion() - 1
+						+ (classContent.isUpdated() ? classContent.getPreviousVersion()
 								: classContent.getVersion()), paramsNames,
 				(newReturnClass.getName().equals("void") ? "" : "return ") };
 
@@ -186,7 +186,7 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 	private void obtainMethodData() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -194,7 +194,7 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 		}
 		MethodDeclaration declaration;
 		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
+			declaration = JavaParserUtils.searchMethod(classContent, name,
 					parameterClasses, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
@@ -241,7 +241,7 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 		initialize();
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -249,21 +249,22 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 		}
 		TypeDeclaration td = JavaParserUtils.searchType(unit, clazz.getName()
 				+ "_NewVersion_" + classContent.getVersion());
-		td.getMembers().add(declaration);
-		if (!Modifier.isStatic(modifiers)) {
-			td.getMembers().add(invoker);
-		}
+		// The unit is not parsed again, so it is modified after the search
 		MethodDeclaration declaration;
 		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
+			declaration = JavaParserUtils.searchMethod(classContent, name,
 					parameterClasses, returnClass);
 		} catch (NoSuchMethodException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
+		td.getMembers().add(this.declaration);
+		if (!Modifier.isStatic(modifiers)) {
+			td.getMembers().add(invoker);
+		}
 		oldBody = declaration.getBody();
 		declaration.setBody(newBody);
 		this.declaration.setModifiers(declaration.getModifiers());
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 	/**
@@ -273,7 +274,7 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 	protected void undoPrimitive() throws StructuralIntercessionException {
 		CompilationUnit unit;
 		try {
-			unit = JavaParserUtils.parse(classContent.getContent());
+			unit = classContent.getCompilationUnit();
 		} catch (ParseException e) {
 			throw new StructuralIntercessionException(
 					"An exception was thrown parsing the class. "
@@ -281,29 +282,29 @@ public class ReplaceMethodPrimitive extends MethodPrimitive {
 		}
 		TypeDeclaration td = JavaParserUtils.searchType(unit, clazz.getName()
 				+ "_NewVersion_" + classContent.getVersion());
+		MethodDeclaration declaration;
+		try {
+			declaration = JavaParserUtils.searchMethod(classContent, name,
+					parameterClasses, returnClass);
+		} catch (NoSuchMethodException e) {
+			throw new StructuralIntercessionException(e.getMessage(), e);
+		}
 		int numberOfMethods = td.getMembers().size();
 		int expectedNumber = 0;
-		td.getMembers().remove(declaration);
+		td.getMembers().remove(this.declaration);
 		if (!Modifier.isStatic(modifiers)) {
 			td.getMembers().remove(invoker);
 			expectedNumber = numberOfMethods - 2;
 		} else {
 			expectedNumber = numberOfMethods - 1;
 		}
-		MethodDeclaration declaration;
-		try {
-			declaration = JavaParserUtils.searchMethod(unit, clazz, name,
-					parameterClasses, returnClass);
-		} catch (NoSuchMethodException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
 		declaration.setBody(oldBody);
 		if (expectedNumber != td.getMembers().size()) {
 			throw new RuntimeException(
 					"An error occurred performing the undo action. "
 							+ "The methods didn't remove correctly.");
 		}
-		classContent.setContent(unit.toString());
+		classContent.setCompilationUnit(unit);
 	}
 
 }
@@ -1,20 +1,82 @@
 package jmplib.sourcecode;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jmplib.annotations.AuxiliaryMethod;
+import jmplib.javaparser.util.JavaParserUtils;
+import jmplib.javaparser.util.ReferencedNames;
+import jmplib.javaparser.util.VersionReferences;
+
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.AnnotationExpr;
 
 /**
  * This class acts like a wrapper of needed information of each class. All
  * classes cached have to store the same information on the cache and this class
  * supports this activity. 
+ * <p>
+ * The source code is parsed once and the primitives modify the same
+ * {@link CompilationUnit}. The source code is printed again only when it is
+ * requested, that is, before the class is compiled. The members of the version
+ * class are indexed by name to find them without traversing the class. The
+ * references to the versions are indexed too, so the versions are renamed
+ * without rewriting the source code.
+ * </p>
  * 
  * @author Ignacio Lagartos
  * 
  */
 public class ClassContent {
+	/**
+	 * The names of the methods of Object, all the classes declare them
+	 */
+	private static final Set<String> OBJECT_METHODS = new HashSet<String>();
+
+	static {
+		for (Method method : Object.class.getDeclaredMethods()) {
+			OBJECT_METHODS.add(method.getName());
+		}
+	}
+
 	private Class<?> clazz;
 	private String content;
+	private CompilationUnit unit;
+	/**
+	 * The unit has been modified after printing the content
+	 */
+	private boolean contentOutdated;
+	private Map<String, List<BodyDeclaration>> members;
+	private VersionReferences versionReferences;
+	private Set<String> referencedNames;
 	private String path;
 	private boolean updated;
 	private int version;
+	/**
+	 * The version of the class before it was updated
+	 */
+	private int previousVersion;
+	/**
+	 * The highest version number given to the class. The numbers are not
+	 * reused when the changes are undone, their versions may be defined.
+	 */
+	private int lastVersion;
+	/**
+	 * The state of the class running in the application
+	 */
+	private volatile Published published;
 
 	public Class<?> getClazz() {
 		return clazz;
@@ -24,12 +86,284 @@ public class ClassContent {
 		this.clazz = clazz;
 	}
 
+	/**
+	 * Obtains the source code of the class, the compilation unit is printed
+	 * if it has been modified
+	 * 
+	 * @return The source code
+	 */
 	public String getContent() {
+		if (contentOutdated) {
+			content = unit.toString();
+			contentOutdated = false;
+		}
 		return content;
 	}
 
+	/**
+	 * Replaces the source code of the class, the compilation unit is parsed
+	 * again the next time it is requested
+	 * 
+	 * @param content
+	 *            The source code
+	 */
 	public void setContent(String content) {
 		this.content = content;
+		this.unit = null;
+		this.members = null;
+		this.versionReferences = null;
+		this.referencedNames = null;
+		this.contentOutdated = false;
+	}
+
+	/**
+	 * Obtains the compilation unit of the class. The source code is only
+	 * parsed the first time, the next calls return the same unit.
+	 * 
+	 * @return The {@link CompilationUnit} of the class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public CompilationUnit getCompilationUnit() throws ParseException {
+		if (unit == null)
+			unit = JavaParserUtils.parse(getContent());
+		return unit;
+	}
+
+	/**
+	 * Sets the compilation unit of the class after modifying it. The member
+	 * index is rebuilt and the source code is printed the next time it is
+	 * requested.
+	 * 
+	 * @param unit
+	 *            The modified {@link CompilationUnit}
+	 */
+	public void setCompilationUnit(CompilationUnit unit) {
+		this.unit = unit;
+		this.members = null;
+		this.versionReferences = null;
+		this.referencedNames = null;
+		this.contentOutdated = true;
+	}
+
+	/**
+	 * Renames the references to one version of a class
+	 * 
+	 * @param from
+	 *            The current name of the version
+	 * @param to
+	 *            The new name of the version
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public void renameVersion(String from, String to) throws ParseException {
+		getVersionReferences().rename(from, to);
+		contentOutdated = true;
+	}
+
+	/**
+	 * Changes the superclass of the version class
+	 * 
+	 * @param superclassName
+	 *            The simple name of the superclass version
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public void renameSuperclass(String superclassName) throws ParseException {
+		VersionReferences references = getVersionReferences();
+		references.renameSuperclass(unit.getTypes().get(0), superclassName);
+		contentOutdated = true;
+	}
+
+	/**
+	 * Obtains the names of the members referenced by the class. The names
+	 * are collected again after the class is modified, if the source code
+	 * has not been parsed yet, the unit is not kept.
+	 * 
+	 * @return The names referenced by the class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public Set<String> getReferencedNames() throws ParseException {
+		if (referencedNames == null) {
+			CompilationUnit source = unit != null ? unit : JavaParserUtils
+					.parse(getContent());
+			referencedNames = ReferencedNames.collect(source);
+		}
+		return referencedNames;
+	}
+
+	/**
+	 * Obtains the names of the members declared by the version class. The
+	 * auxiliary members generated by JMPlib and the methods of Object are not
+	 * included, because every class declares them.
+	 * 
+	 * @return The names declared by the class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public Set<String> getDeclaredNames() throws ParseException {
+		if (members == null)
+			members = indexMembers();
+		Set<String> names = new HashSet<String>();
+		for (Map.Entry<String, List<BodyDeclaration>> entry : members
+				.entrySet()) {
+			String name = entry.getKey();
+			if (name.startsWith("_") || OBJECT_METHODS.contains(name)
+					|| isAuxiliary(entry.getValue()))
+				continue;
+			names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * Checks if the source code of this class references the other class or
+	 * any of its members. The names are not resolved, so two classes that
+	 * use the same names are considered related.
+	 * 
+	 * @param other
+	 *            The other class
+	 * @return {@code true} if the class may reference the other class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public boolean references(ClassContent other) throws ParseException {
+		return references(other.getClazz(), other.getDeclaredNames());
+	}
+
+	/**
+	 * Checks if the source code of this class references the published
+	 * version of other class or any of its members
+	 * 
+	 * @param other
+	 *            The published state of the other class
+	 * @return {@code true} if the class may reference the other class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public boolean references(Published other) throws ParseException {
+		return references(other.getClazz(), other.getDeclaredNames());
+	}
+
+	/**
+	 * Checks if the names referenced by this class include the class or any
+	 * of the names declared
+	 * 
+	 * @param clazz
+	 *            The other class
+	 * @param declaredNames
+	 *            The names declared by the other class
+	 * @return {@code true} if the class may reference the other class
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	private boolean references(Class<?> clazz, Set<String> declaredNames)
+			throws ParseException {
+		Set<String> names = getReferencedNames();
+		if (names.contains(clazz.getSimpleName()))
+			return true;
+		for (String name : declaredNames) {
+			if (names.contains(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the declarations are auxiliary members
+	 * 
+	 * @param declarations
+	 *            The declarations of one name
+	 * @return {@code true} if all of them are annotated with
+	 *         {@link AuxiliaryMethod}
+	 */
+	private static boolean isAuxiliary(List<BodyDeclaration> declarations) {
+		for (BodyDeclaration declaration : declarations) {
+			boolean auxiliary = false;
+			if (declaration.getAnnotations() != null) {
+				for (AnnotationExpr annotation : declaration.getAnnotations()) {
+					auxiliary |= annotation.getName().toString()
+							.endsWith(AuxiliaryMethod.class.getSimpleName());
+				}
+			}
+			if (!auxiliary)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Obtains the references to the versions, they are collected again after
+	 * the unit is modified
+	 * 
+	 * @return The references of the unit
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	private VersionReferences getVersionReferences() throws ParseException {
+		if (versionReferences == null)
+			versionReferences = VersionReferences
+					.collect(getCompilationUnit());
+		return versionReferences;
+	}
+
+	/**
+	 * Obtains the members of the version class with the name. The methods
+	 * are indexed by their name and the fields by the name of their
+	 * variables.
+	 * 
+	 * @param name
+	 *            The name of the member
+	 * @return The declarations of the members with the name
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	public List<BodyDeclaration> getMembers(String name) throws ParseException {
+		if (members == null)
+			members = indexMembers();
+		List<BodyDeclaration> declarations = members.get(name);
+		if (declarations == null)
+			return Collections.emptyList();
+		return declarations;
+	}
+
+	/**
+	 * Indexes the members of the version class
+	 * 
+	 * @return The members by name
+	 * @throws ParseException
+	 *             If the source code cannot be parsed
+	 */
+	private Map<String, List<BodyDeclaration>> indexMembers()
+			throws ParseException {
+		Map<String, List<BodyDeclaration>> index = new HashMap<String, List<BodyDeclaration>>();
+		TypeDeclaration type = JavaParserUtils.searchType(
+				getCompilationUnit(), clazz.getName() + "_NewVersion_"
+						+ version);
+		if (type == null || type.getMembers() == null)
+			return index;
+		for (BodyDeclaration member : type.getMembers()) {
+			if (member instanceof MethodDeclaration) {
+				index(index, ((MethodDeclaration) member).getName(), member);
+			} else if (member instanceof FieldDeclaration) {
+				for (VariableDeclarator variable : ((FieldDeclaration) member)
+						.getVariables()) {
+					index(index, variable.getId().getName(), member);
+				}
+			}
+		}
+		return index;
+	}
+
+	private static void index(Map<String, List<BodyDeclaration>> index,
+			String name, BodyDeclaration member) {
+		List<BodyDeclaration> declarations = index.get(name);
+		if (declarations == null) {
+			declarations = new ArrayList<BodyDeclaration>(1);
+			index.put(name, declarations);
+		}
+		declarations.add(member);
 	}
 
 	public String getPath() {
@@ -54,6 +388,62 @@ public class ClassContent {
 
 	public void setVersion(int version) {
 		this.version = version;
+		this.lastVersion = Math.max(lastVersion, version);
+		this.members = null;
+	}
+
+	/**
+	 * Obtains the version of the class before it was updated, that is, the
+	 * version that the application is running
+	 * 
+	 * @return The previous version number
+	 */
+	public int getPreviousVersion() {
+		return previousVersion;
+	}
+
+	/**
+	 * Moves the class to a version number never used before. The numbers of
+	 * the undone versions are skipped, because the classes of a version can
+	 * be defined before the changes are undone.
+	 * 
+	 * @return The new version number
+	 */
+	public int increaseVersion() {
+		previousVersion = version;
+		setVersion(lastVersion + 1);
+		return version;
+	}
+
+	/**
+	 * Returns the class to the version it had before being updated
+	 * 
+	 * @return The previous version number
+	 */
+	public int restoreVersion() {
+		setVersion(previousVersion);
+		return version;
+	}
+
+	/**
+	 * Obtains the state of the class running in the application. It can be
+	 * read without holding the lock of the hierarchy of the class.
+	 * 
+	 * @return The published state or {@code null} if the class has not been
+	 *         published
+	 */
+	public Published getPublished() {
+		return published;
+	}
+
+	/**
+	 * Keeps the source code and the version number as the state running in
+	 * the application. It is called once the version is published. The
+	 * {@link DependencyGraph} collects the names referenced by the class again.
+	 */
+	public void publish() {
+		published = new Published(clazz, version, getContent());
+		DependencyGraph.getInstance().modified(this);
 	}
 
 	@Override
@@ -80,4 +470,57 @@ public class ClassContent {
 			return false;
 		return true;
 	}
+
+	/**
+	 * The source code and the version number of one class when it was
+	 * published. The executions over other hierarchies read this state
+	 * instead of the source code that is being modified.
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	public static class Published {
+		private final Class<?> clazz;
+		private final int version;
+		private final String content;
+		private Set<String> declaredNames;
+
+		private Published(Class<?> clazz, int version, String content) {
+			this.clazz = clazz;
+			this.version = version;
+			this.content = content;
+		}
+
+		public Class<?> getClazz() {
+			return clazz;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public String getContent() {
+			return content;
+		}
+
+		/**
+		 * Obtains the names of the members declared by the published
+		 * version, the source code is parsed the first time
+		 * 
+		 * @return The names declared by the class
+		 * @throws ParseException
+		 *             If the source code cannot be parsed
+		 */
+		public synchronized Set<String> getDeclaredNames()
+				throws ParseException {
+			if (declaredNames == null) {
+				ClassContent classContent = new ClassContent();
+				classContent.setClazz(clazz);
+				classContent.setContent(content);
+				classContent.setVersion(version);
+				declaredNames = classContent.getDeclaredNames();
+			}
+			return declaredNames;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package jmplib.sourcecode;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmplib.exceptions.StructuralIntercessionException;
+
+import com.github.javaparser.ParseException;
+
+/**
+ * <p>
+ * Reverse dependency graph of the cached classes. It stores, for each member
+ * name, the classes whose source code references it. When a change can break
+ * other classes, such as the deletion of a member, only the classes that
+ * reference the changed members have to be checked again.
+ * </p>
+ * <p>
+ * The classes are reported to the graph when they are cached and every time
+ * they are published. The graph is updated with the classes reported since
+ * the last query, the rest of classes are not visited again.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class DependencyGraph {
+
+	private static DependencyGraph _instance = new DependencyGraph();
+
+	/**
+	 * The names referenced by each class, used to detect the modified classes
+	 */
+	private Map<ClassContent, Set<String>> references = new HashMap<ClassContent, Set<String>>();
+
+	/**
+	 * The classes that reference each name
+	 */
+	private Map<String, Set<ClassContent>> dependents = new HashMap<String, Set<ClassContent>>();
+
+	/**
+	 * The names of the classes cached or published since the last update
+	 */
+	private Set<String> modified = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private DependencyGraph() {
+	}
+
+	/**
+	 * Obtains the cached classes that reference any of the members
+	 * 
+	 * @param members
+	 *            The names of the members
+	 * @return The classes that reference the members
+	 * @throws StructuralIntercessionException
+	 *             If any class cannot be parsed
+	 */
+	public synchronized Set<ClassContent> getDependents(
+			Collection<String> members) throws StructuralIntercessionException {
+		update();
+		Set<ClassContent> classContents = new HashSet<ClassContent>();
+		for (String member : members) {
+			Set<ClassContent> memberDependents = dependents.get(member);
+			if (memberDependents != null)
+				classContents.addAll(memberDependents);
+		}
+		return classContents;
+	}
+
+	/**
+	 * Reports a class that has been cached or published. Its edges are
+	 * updated in the next query.
+	 * 
+	 * @param classContent
+	 *            The class
+	 */
+	void modified(ClassContent classContent) {
+		modified.add(classContent.getClazz().getName());
+	}
+
+	/**
+	 * Updates the edges of the classes modified since the last update
+	 * 
+	 * @throws StructuralIntercessionException
+	 *             If any class cannot be parsed
+	 */
+	private void update() throws StructuralIntercessionException {
+		for (Iterator<String> it = modified.iterator(); it.hasNext();) {
+			String className = it.next();
+			ClassContent classContent = SourceCodeCache.getInstance()
+					.getCached(className);
+			// The class is published before it is cached
+			if (classContent == null)
+				continue;
+			it.remove();
+			Set<String> names;
+			try {
+				names = classContent.getReferencedNames();
+			} catch (ParseException e) {
+				// The class is visited again in the next query
+				modified.add(className);
+				throw new StructuralIntercessionException(
+						"An exception was thrown parsing the class "
+								+ classContent.getClazz().getName() + ". "
+								+ e.getMessage(), e);
+			}
+			Set<String> previous = references.put(classContent, names);
+			// The names are collected again only if the class is modified
+			if (previous == names)
+				continue;
+			if (previous != null) {
+				for (String name : previous) {
+					Set<ClassContent> nameDependents = dependents.get(name);
+					nameDependents.remove(classContent);
+					if (nameDependents.isEmpty())
+						dependents.remove(name);
+				}
+			}
+			for (String name : names) {
+				Set<ClassContent> nameDependents = dependents.get(name);
+				if (nameDependents == null) {
+					nameDependents = new HashSet<ClassContent>();
+					dependents.put(name, nameDependents);
+				}
+				nameDependents.add(classContent);
+			}
+		}
+	}
+
+	/**
+	 * Obtains the instance of the DependencyGraph
+	 * 
+	 * @return {@link DependencyGraph}
+	 */
+	public static DependencyGraph getInstance() {
+		return _instance;
+	}
+
+}
@@ -5,12 +5,13 @@ import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jmplib.annotations.AuxiliaryMethod;
 import jmplib.annotations.NoRedirect;
+import jmplib.asm.util.ASMUtils;
 import jmplib.asm.visitor.ClassCacherVisitor;
 import jmplib.classversions.VersionClass;
 import jmplib.exceptions.ClassNotEditableException;
@@ -18,9 +19,9 @@ import jmplib.exceptions.StructuralIntercessionException;
 import jmplib.util.FileUtils;
 import jmplib.util.PathConstants;
 
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
 
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseException;
@@ -40,7 +41,9 @@ import com.github.javaparser.ast.expr.NormalAnnotationExpr;
 import com.github.javaparser.ast.type.ClassOrInterfaceType;
 
 /**
- * This class is a cache of the source code of the application classes.
+ * This class is a cache of the source code of the application classes. The
+ * cache is shared by the executions of disjoint hierarchies, which run
+ * concurrently.
  * 
  * @author Ignacio Lagartos
  * 
@@ -48,7 +51,7 @@ import com.github.javaparser.ast.type.ClassOrInterfaceType;
 public class SourceCodeCache {
 
 	private static SourceCodeCache _instance = null;
-	private static Map<Integer, ClassContent> cache = new HashMap<Integer, ClassContent>();
+	private static Map<String, ClassContent> cache = new ConcurrentHashMap<String, ClassContent>();
 	private static final String PROPERTY_FILE_NAME = "config.properties";
 	private static final String SOURCE_PATH = "source.path";
 
@@ -72,7 +75,7 @@ public class SourceCodeCache {
 	 * 
 	 * @return Returns the unique instance of the class.
 	 */
-	public static SourceCodeCache getInstance() {
+	public static synchronized SourceCodeCache getInstance() {
 		// Singleton pattern
 		if (_instance == null) {
 			_instance = new SourceCodeCache();
@@ -91,16 +94,14 @@ public class SourceCodeCache {
 	 */
 	public ClassContent getClassContent(Class<?> clazz)
 			throws StructuralIntercessionException {
-		int hashcode = clazz.getName().hashCode();
-		ClassContent classContent = cache.get(hashcode);
+		ClassContent classContent = cache.get(clazz.getName());
 		if (classContent != null)
 			return classContent;
 		try {
-			addClass(clazz);
+			return addClass(clazz);
 		} catch (ClassNotEditableException e) {
 			throw new StructuralIntercessionException(e.getMessage(), e);
 		}
-		return cache.get(hashcode);
 	}
 
 	/**
@@ -112,8 +113,7 @@ public class SourceCodeCache {
 	 *         versions returns 0. If the class is not in the cache returns -1.
 	 */
 	public int getVersion(String className) {
-		int hashcode = className.hashCode();
-		ClassContent classContent = cache.get(hashcode);
+		ClassContent classContent = cache.get(className);
 		if (classContent != null)
 			return classContent.getVersion();
 		else
@@ -121,15 +121,17 @@ public class SourceCodeCache {
 	}
 
 	/**
-	 * This method caches the class into the cache.
+	 * This method caches the class into the cache. If other thread caches the
+	 * class first, its {@link ClassContent} is kept.
 	 * 
 	 * @param clazz
 	 *            The class to be cached.
+	 * @return The cached {@link ClassContent} of the class
 	 * @throws StructuralIntercessionException
 	 * @throws ClassNotEditableException
 	 *             When the class doesn't have accessible source code file.
 	 */
-	private void addClass(Class<?> clazz) throws ClassNotEditableException,
+	private ClassContent addClass(Class<?> clazz) throws ClassNotEditableException,
 			StructuralIntercessionException {
 		if (clazz.isInterface()) {
 			throw new ClassNotEditableException("Interfaces are not editable");
@@ -183,8 +185,11 @@ public class SourceCodeCache {
 		classContent.setPath(sourceFile.getAbsolutePath());
 		classContent.setVersion(0);
 		classContent.setClazz(clazz);
+		classContent.publish();
 		// Caches it
-		cache.put(clazz.getName().hashCode(), classContent);
+		ClassContent previous = cache.putIfAbsent(clazz.getName(),
+				classContent);
+		return previous == null ? classContent : previous;
 	}
 
 	/**
@@ -198,10 +203,11 @@ public class SourceCodeCache {
 		Collection<BodyDeclaration> declarations = new ArrayList<BodyDeclaration>();
 		// Auxiliary methods
 		try {
-			ClassReader reader = new ClassReader(Type.getInternalName(clazz));
+			ClassNode classNode = ASMUtils.getClassNode(Type
+					.getInternalName(clazz));
 			ClassCacherVisitor visitor = new ClassCacherVisitor(Opcodes.ASM4,
 					clazz);
-			reader.accept(visitor, 0);
+			classNode.accept(visitor);
 			declarations.addAll(visitor.getDeclarations());
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -304,6 +310,35 @@ public class SourceCodeCache {
 		return javaFile;
 	}
 
+	/**
+	 * Obtains the source file of the original class
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @return The source file
+	 * @throws StructuralIntercessionException
+	 *             If the class has no source file
+	 */
+	public File getSourceFile(Class<?> clazz)
+			throws StructuralIntercessionException {
+		try {
+			return loadJavaFile(clazz);
+		} catch (ClassNotEditableException e) {
+			throw new StructuralIntercessionException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Obtains the ClassContent of the class if it is cached
+	 * 
+	 * @param className
+	 *            The binary name of the class
+	 * @return The ClassContent or {@code null} if the class is not cached
+	 */
+	ClassContent getCached(String className) {
+		return cache.get(className);
+	}
+
 	/**
 	 * Obtains all ClassContent
 	 * 
@@ -1,19 +1,21 @@
 package jmplib.util;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Holds the inheritance information of the modificable classes
+ * Holds the inheritance information of the modificable classes. The tables
+ * are read by concurrent executions without locks.
  * 
  * @author Ignacio Lagartos
  *
  */
 public class InheritanceTables {
 
-	private static Map<Integer, List<Class<?>>> subclassesCache = new HashMap<Integer, List<Class<?>>>();
+	private static Map<String, List<Class<?>>> subclassesCache = new ConcurrentHashMap<String, List<Class<?>>>();
 
 	/**
 	 * Add inheritance information to the inheritance tree
@@ -24,13 +26,8 @@ public class InheritanceTables {
 	 *            The child class
 	 */
 	public static void put(Class<?> mother, Class<?> son) {
-		Integer hascode = mother.getName().hashCode();
-		List<Class<?>> subclasses = subclassesCache.get(hascode);
-		if (subclasses == null) {
-			subclasses = new ArrayList<Class<?>>();
-			subclassesCache.put(hascode, subclasses);
-		}
-		subclasses.add(son);
+		subclassesCache.computeIfAbsent(mother.getName(),
+				name -> new CopyOnWriteArrayList<Class<?>>()).add(son);
 	}
 
 	/**
@@ -41,10 +38,9 @@ public class InheritanceTables {
 	 * @return The direct subclasses
 	 */
 	public static List<Class<?>> getSubclasses(Class<?> clazz) {
-		Integer hascode = clazz.getName().hashCode();
-		List<Class<?>> subclasses = subclassesCache.get(hascode);
+		List<Class<?>> subclasses = subclassesCache.get(clazz.getName());
 		if (subclasses == null) {
-			subclasses = new ArrayList<Class<?>>();
+			return Collections.emptyList();
 		}
 		return subclasses;
 	}
@@ -0,0 +1,337 @@
+package jmplib.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmplib.compiler.VersionClassLoader;
+
+/**
+ * <p>
+ * Publishes the new versions of the objects. The creators of the versions
+ * build the new version of an object without locks and publish it with a
+ * compare-and-set over the {@code _newVersion} field, so only one of the
+ * threads that migrate the same object at the same time wins and the rest
+ * reuse its version.
+ * </p>
+ * <p>
+ * Each instrumented class declares its own {@code _newVersion} field. The
+ * field updated is the one declared by the most derived class, that is, the
+ * field read by the {@code get_NewVersion} method of the object.
+ * </p>
+ * <p>
+ * The compare-and-set is done through a VarHandle of the field, obtained with
+ * MethodHandles.privateLookupIn. Java 8 has no VarHandles, there the field is
+ * compared and set reflectively while the monitor of the object is held. The
+ * field is only written by the constructors and this class, so the monitor
+ * makes the update atomic.
+ * </p>
+ * <p>
+ * The versions published are tracked by their {@link VersionClassLoader}, so
+ * a generation is not released while the migrated objects point at its
+ * versions.
+ * </p>
+ * <p>
+ * The objects whose state is held by a version are registered, weakly
+ * referenced, when they are migrated or created. When a class is rolled back
+ * to its original state, its methods are not redirected anymore, so the state
+ * of those objects is copied back from their versions at once.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class InstanceMigrator {
+
+	private static final String NEW_VERSION_FIELD = "_newVersion";
+
+	private static final MethodType COMPARE_AND_SET_TYPE = MethodType
+			.methodType(boolean.class, Object.class, Object.class,
+					Object.class);
+
+	/**
+	 * The methods used to create the VarHandles, they are {@code null} before
+	 * Java 9
+	 */
+	private static final MethodHandle PRIVATE_LOOKUP_IN, FIND_VAR_HANDLE,
+			TO_METHOD_HANDLE;
+	private static final Object COMPARE_AND_SET;
+
+	private static ClassValue<NewVersionField> fields = new ClassValue<NewVersionField>() {
+		@Override
+		protected NewVersionField computeValue(Class<?> type) {
+			for (Class<?> clazz = type; clazz != null; clazz = clazz
+					.getSuperclass()) {
+				try {
+					return new NewVersionField(
+							clazz.getDeclaredField(NEW_VERSION_FIELD));
+				} catch (NoSuchFieldException e) {
+					continue;
+				}
+			}
+			throw new RuntimeException("The class " + type.getName()
+					+ " has no " + NEW_VERSION_FIELD + " field");
+		}
+	};
+
+	/**
+	 * The objects of each class whose state is held by a version
+	 */
+	private static ClassValue<MigratedObjects> migrated = new ClassValue<MigratedObjects>() {
+		@Override
+		protected MigratedObjects computeValue(Class<?> type) {
+			return new MigratedObjects();
+		}
+	};
+
+	static {
+		MethodHandle privateLookupIn, findVarHandle, toMethodHandle;
+		Object compareAndSet;
+		try {
+			Lookup lookup = MethodHandles.publicLookup();
+			Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+			Class<?> accessMode = Class
+					.forName("java.lang.invoke.VarHandle$AccessMode");
+			privateLookupIn = lookup.findStatic(MethodHandles.class,
+					"privateLookupIn", MethodType.methodType(Lookup.class,
+							Class.class, Lookup.class));
+			findVarHandle = lookup.findVirtual(Lookup.class, "findVarHandle",
+					MethodType.methodType(varHandle, Class.class,
+							String.class, Class.class));
+			toMethodHandle = lookup.findVirtual(varHandle, "toMethodHandle",
+					MethodType.methodType(MethodHandle.class, accessMode));
+			compareAndSet = accessMode.getField("COMPARE_AND_SET").get(null);
+		} catch (ReflectiveOperationException e) {
+			// The fields are updated reflectively
+			privateLookupIn = null;
+			findVarHandle = null;
+			toMethodHandle = null;
+			compareAndSet = null;
+		}
+		PRIVATE_LOOKUP_IN = privateLookupIn;
+		FIND_VAR_HANDLE = findVarHandle;
+		TO_METHOD_HANDLE = toMethodHandle;
+		COMPARE_AND_SET = compareAndSet;
+	}
+
+	private InstanceMigrator() {
+	}
+
+	/**
+	 * Publishes the new version of the object if its current version has not
+	 * been changed by other thread
+	 * 
+	 * @param o
+	 *            The object of the original class
+	 * @param expected
+	 *            The version read before the migration, it can be
+	 *            {@code null}
+	 * @param newVersion
+	 *            The new version of the object
+	 * @return {@code true} if the new version has been published
+	 */
+	public static boolean compareAndSet(Object o, Object expected,
+			Object newVersion) {
+		if (!publish(o, expected, newVersion))
+			return false;
+		// The objects with a version are already registered
+		if (expected == null)
+			register(o);
+		VersionClassLoader.track(newVersion);
+		return true;
+	}
+
+	/**
+	 * Registers an object whose state is held by a version. The constructors
+	 * of the original classes register the objects created when the class
+	 * has a version.
+	 * 
+	 * @param o
+	 *            The object of the original class
+	 */
+	public static void register(Object o) {
+		migrated.get(o.getClass()).add(o);
+	}
+
+	/**
+	 * Copies the state of the objects of the class back from their versions.
+	 * The class has been rolled back to its original state, so its methods
+	 * and fields are accessed without redirections. The writes made through
+	 * the versions by other threads during the copy can be lost.
+	 * 
+	 * @param clazz
+	 *            The original class
+	 * @param version
+	 *            The version number of the class
+	 */
+	public static void restoreOriginals(Class<?> clazz, int version) {
+		for (Object o : migrated.get(clazz).removeAll()) {
+			try {
+				Object current = o.getClass().getMethod("get_NewVersion")
+						.invoke(o);
+				if (current == null)
+					continue;
+				TransferState.transferState(current, o);
+				if (publish(o, current, null))
+					o.getClass()
+							.getMethod("set_CurrentInstanceVersion", int.class)
+							.invoke(o, version);
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException("The state of the object cannot "
+						+ "be restored", e);
+			}
+		}
+	}
+
+	/**
+	 * Compares and sets the {@code _newVersion} field of the object
+	 * 
+	 * @param o
+	 *            The object of the original class
+	 * @param expected
+	 *            The version read before the migration
+	 * @param newVersion
+	 *            The new version of the object
+	 * @return {@code true} if the field has been set
+	 */
+	private static boolean publish(Object o, Object expected,
+			Object newVersion) {
+		NewVersionField field = fields.get(o.getClass());
+		if (field.compareAndSet != null) {
+			try {
+				return (boolean) field.compareAndSet.invokeExact(o, expected,
+						newVersion);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException("The new version of the object "
+						+ "cannot be published", e);
+			}
+		}
+		try {
+			synchronized (o) {
+				if (field.field.get(o) != expected)
+					return false;
+				field.field.set(o, newVersion);
+				return true;
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("The new version of the object "
+					+ "cannot be published", e);
+		}
+	}
+
+	/**
+	 * The {@code _newVersion} field of one class and the compare-and-set of
+	 * its VarHandle
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class NewVersionField {
+
+		private final Field field;
+		private final MethodHandle compareAndSet;
+
+		public NewVersionField(Field field) {
+			this.field = field;
+			this.compareAndSet = getCompareAndSet(field);
+			if (compareAndSet == null)
+				field.setAccessible(true);
+		}
+
+		/**
+		 * Obtains the compare-and-set of the VarHandle of the field
+		 * 
+		 * @param field
+		 *            The field
+		 * @return The method handle or {@code null} if there are no
+		 *         VarHandles
+		 */
+		private static MethodHandle getCompareAndSet(Field field) {
+			if (FIND_VAR_HANDLE == null)
+				return null;
+			try {
+				Object lookup = PRIVATE_LOOKUP_IN.invoke(
+						field.getDeclaringClass(), MethodHandles.lookup());
+				Object varHandle = FIND_VAR_HANDLE.invoke(lookup,
+						field.getDeclaringClass(), field.getName(),
+						field.getType());
+				MethodHandle compareAndSet = (MethodHandle) TO_METHOD_HANDLE
+						.invoke(varHandle, COMPARE_AND_SET);
+				return compareAndSet.asType(COMPARE_AND_SET_TYPE);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException("Cannot access to the field "
+						+ field.getName() + " of the class "
+						+ field.getDeclaringClass().getName(), e);
+			}
+		}
+
+	}
+
+	/**
+	 * The objects of one class whose state is held by a version
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class MigratedObjects {
+
+		private final Set<Reference<Object>> objects = Collections
+				.newSetFromMap(new ConcurrentHashMap<Reference<Object>, Boolean>());
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+		/**
+		 * Adds the object
+		 * 
+		 * @param o
+		 *            The object
+		 */
+		public void add(Object o) {
+			expunge();
+			objects.add(new WeakReference<Object>(o, queue));
+		}
+
+		/**
+		 * Removes all the objects
+		 * 
+		 * @return The objects still alive
+		 */
+		public List<Object> removeAll() {
+			expunge();
+			List<Object> live = new ArrayList<Object>();
+			for (Iterator<Reference<Object>> it = objects.iterator(); it
+					.hasNext();) {
+				Object o = it.next().get();
+				it.remove();
+				if (o != null)
+					live.add(o);
+			}
+			return live;
+		}
+
+		/**
+		 * Removes the objects collected by the garbage collector
+		 */
+		private void expunge() {
+			Reference<?> reference;
+			while ((reference = queue.poll()) != null)
+				objects.remove(reference);
+		}
+
+	}
+
+}
@@ -0,0 +1,196 @@
+package jmplib.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmplib.compiler.ClassCompiler;
+import jmplib.exceptions.StructuralIntercessionException;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * <p>
+ * Generates the classes of the invokers. The generated class implements the
+ * functional interface and its method calls a {@link MethodHandle} stored in a
+ * constant field, so the JIT can inline the member invoked.
+ * </p>
+ * <p>
+ * The handle is the dynamic invoker of a
+ * {@link jmplib.classversions.VersionCallSite}, which is linked again to the
+ * last version of the class when it evolves. The invokers are generated once
+ * and they do not need to be compiled again after the commits.
+ * </p>
+ * <p>
+ * If the virtual machine supports hidden classes, the invokers are hidden
+ * classes of the package of this class. Otherwise they are defined in their
+ * own {@link jmplib.compiler.IsolatedClassLoader}. In both cases the invoker
+ * class is unloaded when the application stops using the invoker.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class InvokerClassGenerator implements Opcodes {
+
+	private static final String TARGET_FIELD = "_target";
+	private static final String HANDLE_DESC = Type
+			.getDescriptor(MethodHandle.class);
+
+	/**
+	 * The targets of the invokers whose class has not been initialized yet
+	 */
+	private static Map<String, MethodHandle> targets = new ConcurrentHashMap<String, MethodHandle>();
+
+	private InvokerClassGenerator() {
+	}
+
+	/**
+	 * Generates the invoker class and creates its instance
+	 * 
+	 * @param className
+	 *            The binary name of the invoker class, the hidden classes
+	 *            keep only its simple name
+	 * @param functionalInterface
+	 *            The functional interface implemented by the invoker
+	 * @param target
+	 *            The handle invoked, its type has to be the erased type of
+	 *            the method of the interface
+	 * @return The instance of the invoker
+	 * @throws StructuralIntercessionException
+	 *             If the class cannot be defined
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T generate(String className,
+			Class<?> functionalInterface, MethodHandle target)
+			throws StructuralIntercessionException {
+		ClassCompiler compiler = ClassCompiler.getInstance();
+		boolean hidden = compiler.supportsHiddenClasses();
+		if (hidden) {
+			className = InvokerClassGenerator.class.getPackage().getName()
+					+ className.substring(className.lastIndexOf('.'));
+		}
+		byte[] bytes = generateBytes(className.replace('.', '/'),
+				functionalInterface);
+		targets.put(className, target);
+		try {
+			Class<?> invokerClass;
+			if (hidden) {
+				invokerClass = compiler.defineHidden(MethodHandles.lookup(),
+						bytes);
+			} else {
+				invokerClass = compiler.defineIsolated(
+						Collections.singletonMap(className, bytes)).get(
+						className);
+			}
+			return (T) invokerClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new StructuralIntercessionException(
+					"The invoker cannot be instantiated", e);
+		} finally {
+			targets.remove(className);
+		}
+	}
+
+	/**
+	 * Obtains the type of the targets of the invokers that implement the
+	 * interface, that is, the erased type of the method of the interface
+	 * 
+	 * @param functionalInterface
+	 *            The functional interface
+	 * @return The type of the target
+	 */
+	public static MethodType getTargetType(Class<?> functionalInterface) {
+		Method method = MemberFinder.getMethod(functionalInterface);
+		return MethodType.methodType(method.getReturnType(),
+				method.getParameterTypes());
+	}
+
+	/**
+	 * Obtains the target of the invoker. It is called by the static
+	 * initializer of the generated classes.
+	 * 
+	 * @param invokerClass
+	 *            The invoker class
+	 * @return The target of the invoker
+	 */
+	public static MethodHandle getTarget(Class<?> invokerClass) {
+		String className = invokerClass.getName();
+		// The names of the hidden classes end with /<suffix>
+		int index = className.indexOf('/');
+		if (index >= 0)
+			className = className.substring(0, index);
+		MethodHandle target = targets.get(className);
+		if (target == null)
+			throw new IllegalStateException("The invoker " + className
+					+ " has no target");
+		return target;
+	}
+
+	/**
+	 * Generates the bytes of the invoker class
+	 * 
+	 * @param internalName
+	 *            The internal name of the class
+	 * @param functionalInterface
+	 *            The functional interface implemented by the invoker
+	 * @return The bytes of the class
+	 */
+	private static byte[] generateBytes(String internalName,
+			Class<?> functionalInterface) {
+		Method method = MemberFinder.getMethod(functionalInterface);
+		String desc = Type.getMethodDescriptor(method);
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName, null,
+				"java/lang/Object",
+				new String[] { Type.getInternalName(functionalInterface) });
+		cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, TARGET_FIELD,
+				HANDLE_DESC, null, null).visitEnd();
+		// Static initializer
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null,
+				null);
+		mv.visitCode();
+		mv.visitLdcInsn(Type.getObjectType(internalName));
+		mv.visitMethodInsn(INVOKESTATIC,
+				Type.getInternalName(InvokerClassGenerator.class),
+				"getTarget", "(Ljava/lang/Class;)" + HANDLE_DESC, false);
+		mv.visitFieldInsn(PUTSTATIC, internalName, TARGET_FIELD, HANDLE_DESC);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		// Constructor
+		mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V",
+				false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		// Method of the interface
+		mv = cw.visitMethod(ACC_PUBLIC, method.getName(), desc, null, null);
+		mv.visitCode();
+		mv.visitFieldInsn(GETSTATIC, internalName, TARGET_FIELD, HANDLE_DESC);
+		int index = 1;
+		for (Type param : Type.getArgumentTypes(desc)) {
+			mv.visitVarInsn(param.getOpcode(ILOAD), index);
+			index += param.getSize();
+		}
+		mv.visitMethodInsn(INVOKEVIRTUAL,
+				Type.getInternalName(MethodHandle.class), "invokeExact", desc,
+				false);
+		mv.visitInsn(Type.getReturnType(desc).getOpcode(IRETURN));
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+}
@@ -0,0 +1,156 @@
+package jmplib.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Registry of the invokers generated by the library. The invokers requested
+ * with the same parameters are the same, so the registry returns the existing
+ * invoker instead of compiling a new class.
+ * </p>
+ * <p>
+ * The invokers are referenced weakly. When the application stops using an
+ * invoker, its class can be unloaded and its entry is removed from the
+ * registry.
+ * </p>
+ * <p>
+ * The entries are attached to the class the invokers belong to through a
+ * {@link ClassValue}, so the registry does not keep that class, nor its class
+ * loader, alive. The rest of the key is only reachable from that class.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class InvokerRegistry {
+
+	private static InvokerRegistry _instance = new InvokerRegistry();
+
+	private final ClassValue<Map<List<Object>, Entry>> invokers = new ClassValue<Map<List<Object>, Entry>>() {
+		@Override
+		protected Map<List<Object>, Entry> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<List<Object>, Entry>();
+		}
+	};
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	private InvokerRegistry() {
+	}
+
+	/**
+	 * Creates the key of one invoker. The arrays are compared by their
+	 * content.
+	 * 
+	 * @param components
+	 *            The parameters that identify the invoker
+	 * @return The key of the invoker
+	 */
+	public static List<Object> key(Object... components) {
+		List<Object> key = new ArrayList<Object>(components.length);
+		for (Object component : components) {
+			if (component instanceof Object[])
+				key.add(Arrays.asList((Object[]) component));
+			else
+				key.add(component);
+		}
+		return Collections.unmodifiableList(key);
+	}
+
+	/**
+	 * Obtains the invoker registered with the key
+	 * 
+	 * @param owner
+	 *            The class the invoker belongs to
+	 * @param key
+	 *            The key of the invoker inside the class
+	 * @return The invoker or {@code null} if there is no invoker for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<?> owner, List<Object> key) {
+		expunge();
+		Entry entry = invokers.get(owner).get(key);
+		if (entry == null)
+			return null;
+		return (T) entry.get();
+	}
+
+	/**
+	 * Registers the invoker. If other thread has registered an invoker for the
+	 * same key, the registered invoker is returned.
+	 * 
+	 * @param owner
+	 *            The class the invoker belongs to
+	 * @param key
+	 *            The key of the invoker inside the class
+	 * @param invoker
+	 *            The new invoker
+	 * @return The invoker registered for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T register(Class<?> owner, List<Object> key, T invoker) {
+		expunge();
+		Map<List<Object>, Entry> invokers = this.invokers.get(owner);
+		Entry entry = new Entry(invokers, key, invoker, queue);
+		while (true) {
+			Entry previous = invokers.putIfAbsent(key, entry);
+			if (previous == null)
+				return invoker;
+			Object registered = previous.get();
+			if (registered != null)
+				return (T) registered;
+			// The previous invoker has been collected
+			if (invokers.replace(key, previous, entry))
+				return invoker;
+		}
+	}
+
+	/**
+	 * Removes the entries of the invokers collected by the garbage collector
+	 */
+	private void expunge() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null) {
+			Entry entry = (Entry) reference;
+			entry.invokers.remove(entry.key, entry);
+		}
+	}
+
+	/**
+	 * Obtains the instance of the InvokerRegistry
+	 * 
+	 * @return {@link InvokerRegistry}
+	 */
+	public static InvokerRegistry getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * Weak reference to one invoker that knows its key and the entries of its
+	 * class
+	 * 
+	 * @author Ignacio Lagartos
+	 * 
+	 */
+	private static class Entry extends WeakReference<Object> {
+
+		private final Map<List<Object>, Entry> invokers;
+		private final List<Object> key;
+
+		public Entry(Map<List<Object>, Entry> invokers, List<Object> key,
+				Object invoker, ReferenceQueue<Object> queue) {
+			super(invoker, queue);
+			this.invokers = invokers;
+			this.key = key;
+		}
+
+	}
+
+}
@@ -0,0 +1,161 @@
+package jmplib.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Copies the state of the objects of one class into the objects of another
+ * class. The fields are matched by name walking both hierarchies at the same
+ * time, as {@link TransferState} did reflectively.
+ * </p>
+ * <p>
+ * The copier is built once for each pair of classes. Each pair of fields is
+ * composed into a {@link MethodHandle} that reads the source field and writes
+ * the destination field without boxing, and all of them are folded into a
+ * single handle, so the copy is a sequence of field moves.
+ * </p>
+ * <p>
+ * The copy is not done by a generated class because the fields are private
+ * and belong to two different classes. A generated class, even a hidden one,
+ * can only be the nestmate of one of them, so it could not access both of
+ * them in any Java version.
+ * </p>
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class StateCopier {
+
+	private static final MethodHandle NOTHING, COPY_FIELD;
+
+	private final MethodHandle copier;
+
+	static {
+		Lookup lookup = MethodHandles.lookup();
+		try {
+			NOTHING = MethodHandles.dropArguments(
+					MethodHandles.constant(Object.class, null).asType(
+							MethodType.methodType(void.class)), 0,
+					Object.class, Object.class);
+			COPY_FIELD = lookup.findStatic(StateCopier.class, "copyField",
+					MethodType.methodType(void.class, Field.class, Field.class,
+							Object.class, Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new RuntimeException("Errors creating the state copiers", e);
+		}
+	}
+
+	/**
+	 * Builds the copier between the two classes
+	 * 
+	 * @param srcClass
+	 *            The class of the objects to read
+	 * @param destClass
+	 *            The class of the objects to write
+	 */
+	public StateCopier(Class<?> srcClass, Class<?> destClass) {
+		MethodHandle copier = NOTHING;
+		// The destination fields are accumulated while both hierarchies are
+		// walked
+		Map<String, Field> destFieldsMap = new HashMap<String, Field>();
+		while (srcClass != null && destClass != null) {
+			for (Field f : TransferState.getFields(destClass))
+				destFieldsMap.put(f.getName(), f);
+			for (Field f : TransferState.getFields(srcClass)) {
+				Field fdest = destFieldsMap.get(f.getName());
+				if (fdest == null)
+					continue;
+				copier = MethodHandles.foldArguments(copier,
+						createFieldCopier(f, fdest));
+			}
+			// We suppose that the Object class has no attribute worth copying
+			srcClass = srcClass.getSuperclass();
+			if (srcClass == Object.class)
+				break;
+			destClass = destClass.getSuperclass();
+		}
+		this.copier = copier;
+	}
+
+	/**
+	 * Copies the state of the source object into the destination object
+	 * 
+	 * @param src
+	 *            The object to read
+	 * @param dest
+	 *            The object to write
+	 */
+	public void copy(Object src, Object dest) {
+		try {
+			copier.invokeExact(dest, src);
+		} catch (Throwable e) {
+			throw new RuntimeException("Errors transferring the state", e);
+		}
+	}
+
+	/**
+	 * Creates the handle that copies one field
+	 * 
+	 * @param src
+	 *            The field to read
+	 * @param dest
+	 *            The field to write
+	 * @return Handle with type {@code (Object dest, Object src)void}
+	 */
+	private static MethodHandle createFieldCopier(Field src, Field dest) {
+		src.setAccessible(true);
+		dest.setAccessible(true);
+		if (src.getType() != dest.getType())
+			return MethodHandles.insertArguments(COPY_FIELD, 0, src, dest);
+		Lookup lookup = MethodHandles.lookup();
+		try {
+			MethodHandle getter = lookup.unreflectGetter(src);
+			MethodHandle setter = lookup.unreflectSetter(dest);
+			// (Object)T
+			if (Modifier.isStatic(src.getModifiers()))
+				getter = MethodHandles.dropArguments(getter, 0, Object.class);
+			getter = getter.asType(getter.type().changeParameterType(0,
+					Object.class));
+			// (Object, T)void
+			if (Modifier.isStatic(dest.getModifiers()))
+				setter = MethodHandles.dropArguments(setter, 0, Object.class);
+			setter = setter.asType(setter.type().changeParameterType(0,
+					Object.class));
+			// (Object dest, Object src)void
+			return MethodHandles.filterArguments(setter, 1, getter);
+		} catch (IllegalAccessException e) {
+			// Final fields cannot be written through a handle
+			return MethodHandles.insertArguments(COPY_FIELD, 0, src, dest);
+		}
+	}
+
+	/**
+	 * Copies the field reflectively when it cannot be done through a handle or
+	 * the types of the fields are different
+	 * 
+	 * @param src
+	 *            The field to read
+	 * @param dest
+	 *            The field to write
+	 * @param destObject
+	 *            The object to write
+	 * @param srcObject
+	 *            The object to read
+	 */
+	@SuppressWarnings("unused")
+	private static void copyField(Field src, Field dest, Object destObject,
+			Object srcObject) {
+		try {
+			dest.set(destObject, src.get(srcObject));
+		} catch (Exception e) {
+		}
+	}
+
+}
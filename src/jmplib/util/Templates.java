@@ -16,18 +16,30 @@ public class Templates {
 	// %2$s: OriginalClass
 	/**
 	 * This template generates the code to generate the creator of a cached
-	 * class
+	 * class. The new version is published with a compare-and-set, so the
+	 * threads that migrate the same object at the same time agree on one
+	 * version.
 	 */
 	public static final String CREATOR_TEMPLATE = "{"
+			// Read before creating the instance, a version published
+			// meanwhile migrates the instance again
+			+ "  int version = o._currentClassVersion;"
 			+ "  %1$s ov = null;"
 			+ "  try{"
 			+ "   ov = (%1$s) o._createInstance();"
-			+ "  }catch (Exception e) {e.printStackTrace();}"
-			+ "  Object oldVersion = o.get_NewVersion() == null? o: o.get_NewVersion();"
-			+ "  " + TransferState.class.getName() + ".transferState(oldVersion, ov);"
-			+ "  ov.set_OldVersion(o);\n" 
-			+ "  o.set_NewVersion(ov);"
-			+ "  o.set_CurrentInstanceVersion(o._currentClassVersion);"
+			+ "  }catch (Exception e) {"
+			+ "   throw new RuntimeException(\"The instance cannot be migrated to the new version\", e);"
+			+ "  }"
+			+ "  while (true) {"
+			+ "   Object current = o.get_NewVersion();"
+			// Other thread has already migrated the object
+			+ "   if (current != null && current.getClass() == ov.getClass()) break;"
+			+ "   Object oldVersion = current == null? o: current;"
+			+ "   " + TransferState.class.getName() + ".transferState(oldVersion, ov);"
+			+ "   ov.set_OldVersion(o);\n"
+			+ "   if (" + InstanceMigrator.class.getName() + ".compareAndSet(o, current, ov)) break;"
+			+ "  }"
+			+ "  o.set_CurrentInstanceVersion(version);"
 			+ "}";
 
 	// New Class in cache template
@@ -11,7 +11,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import jmplib.classversions.VersionTables;
 import jmplib.exceptions.StructuralIntercessionException;
 import jmplib.javaparser.util.JavaParserUtils;
 
@@ -161,521 +160,6 @@ public class WrapperClassGenerator {
 		return createFile(GENERATED_EVAL_PACKAGE + "." + name, cu.toString());
 	}
 
-	/**
-	 * Wraps method invocation
-	 * 
-	 * @param className
-	 *            The class name
-	 * @param targetClass
-	 *            The class that owns the method
-	 * @param methodName
-	 *            Method name
-	 * @param functionalInterface
-	 *            The functional interface to invoke the call
-	 * @param parametrizationClasses
-	 *            Parametrization classes for the interface
-	 * @param isStatic
-	 *            If the method is static
-	 * @return Class File with the call code wrapped
-	 * @throws StructuralIntercessionException
-	 */
-	public static File generateMethodInvoker(String className,
-			Class<?> targetClass, String methodName,
-			Class<?> functionalInterface, Class<?>[] parametrizationClasses,
-			boolean isStatic) throws StructuralIntercessionException {
-		Method m = MemberFinder.getMethod(functionalInterface);
-		boolean[] genericMap = genericMap(m);
-		CompilationUnit cu = new CompilationUnit();
-		cu.setPackage(getInvokerPackage());
-		ClassOrInterfaceDeclaration type = getType(className, cu);
-
-		List<ClassOrInterfaceType> interfaces = getGenericInterface(
-				parametrizationClasses, functionalInterface);
-		type.setImplements(interfaces);
-
-		String invokerName = m.getName();
-		MethodDeclaration method = null;
-		if (isStatic) {
-			method = getInvokerStaticMethod(
-					MemberFinder.resolveGenericParameters(m,
-							parametrizationClasses),
-					MemberFinder
-							.resolveGenericReturn(m, parametrizationClasses),
-					invokerName, VersionTables.getNewVersion(targetClass),
-					methodName, genericMap);
-		} else {
-			method = getInvokerInstanceMethod(
-					MemberFinder.resolveGenericParameters(m,
-							parametrizationClasses),
-					MemberFinder
-							.resolveGenericReturn(m, parametrizationClasses),
-					invokerName, targetClass, methodName, genericMap);
-		}
-		ASTHelper.addMember(type, method);
-		return createFile(GENERATED_INVOKER_PACKAGE + "." + className,
-				cu.toString());
-	}
-
-	/**
-	 * Wraps fieldGetter invocation
-	 * 
-	 * @param className
-	 *            The class name
-	 * @param targetClass
-	 *            The class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param functionalInterface
-	 *            The functional interface to make the call
-	 * @param parametrizationClasses
-	 *            Parametrization classes for the interface
-	 * @param isStatic
-	 *            If the field is static
-	 * @return Class File with the call code wrapped
-	 * @throws StructuralIntercessionException
-	 */
-	public static File generateFieldGetter(String className,
-			Class<?> targetClass, String fieldName,
-			Class<?> functionalInterface, Class<?>[] parametrizationClasses,
-			boolean isStatic) throws StructuralIntercessionException {
-		Method m = MemberFinder.getMethod(functionalInterface);
-		boolean[] genericMap = genericMap(m);
-		CompilationUnit cu = new CompilationUnit();
-		cu.setPackage(getInvokerPackage());
-		ClassOrInterfaceDeclaration type = getType(className, cu);
-
-		List<ClassOrInterfaceType> interfaces = getGenericInterface(
-				parametrizationClasses, functionalInterface);
-		type.setImplements(interfaces);
-
-		String invokerName = m.getName();
-		MethodDeclaration method = null;
-		if (isStatic) {
-			method = staticFieldGetter(MemberFinder.resolveGenericParameters(m,
-					parametrizationClasses), MemberFinder.resolveGenericReturn(
-					m, parametrizationClasses), invokerName,
-					VersionTables.getNewVersion(targetClass), fieldName,
-					genericMap);
-		} else {
-			method = instanceFieldGetter(MemberFinder.resolveGenericParameters(
-					m, parametrizationClasses),
-					MemberFinder
-							.resolveGenericReturn(m, parametrizationClasses),
-					invokerName, targetClass, fieldName, genericMap);
-		}
-		ASTHelper.addMember(type, method);
-		return createFile(GENERATED_INVOKER_PACKAGE + "." + className,
-				cu.toString());
-	}
-
-	/**
-	 * Wraps fieldSetter invocation
-	 * 
-	 * @param className
-	 *            The class name
-	 * @param targetClass
-	 *            The class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param functionalInterface
-	 *            The functional interface to make the call
-	 * @param parametrizationClasses
-	 *            Parametrization classes for the interface
-	 * @param isStatic
-	 *            If the field is static
-	 * @return Class File with the call code wrapped
-	 * @throws StructuralIntercessionException
-	 */
-	public static File generateFieldSetter(String className,
-			Class<?> targetClass, String fieldName,
-			Class<?> functionalInterface, Class<?>[] parametrizationClasses,
-			boolean isStatic) throws StructuralIntercessionException {
-		Method m = MemberFinder.getMethod(functionalInterface);
-		boolean[] genericMap = genericMap(m);
-		CompilationUnit cu = new CompilationUnit();
-		cu.setPackage(getInvokerPackage());
-		ClassOrInterfaceDeclaration type = getType(className, cu);
-
-		List<ClassOrInterfaceType> interfaces = getGenericInterface(
-				parametrizationClasses, functionalInterface);
-		type.setImplements(interfaces);
-
-		String invokerName = m.getName();
-		MethodDeclaration method = null;
-		if (isStatic) {
-			method = staticFieldSetter(MemberFinder.resolveGenericParameters(m,
-					parametrizationClasses), MemberFinder.resolveGenericReturn(
-					m, parametrizationClasses), invokerName,
-					VersionTables.getNewVersion(targetClass), fieldName,
-					genericMap);
-		} else {
-			method = instanceFieldSetter(MemberFinder.resolveGenericParameters(
-					m, parametrizationClasses),
-					MemberFinder
-							.resolveGenericReturn(m, parametrizationClasses),
-					invokerName, targetClass, fieldName, genericMap);
-		}
-		ASTHelper.addMember(type, method);
-		return createFile(GENERATED_INVOKER_PACKAGE + "." + className,
-				cu.toString());
-	}
-
-	/**
-	 * Creates a method with a call for a static method
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param methodName
-	 *            The method name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration getInvokerStaticMethod(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> lastVersion, String methodName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		ClassOrInterfaceType retClassOrInt;
-		if (genericMap[genericMap.length - 1]) {
-			retClassOrInt = new ClassOrInterfaceType(
-					getWrapperName(returnType.getTypeName()));
-		} else {
-			retClassOrInt = new ClassOrInterfaceType(returnType.getTypeName());
-		}
-		MethodDeclaration method = new MethodDeclaration(ModifierSet.PUBLIC,
-				retClassOrInt, invokerName);
-
-		String code = "";
-		code = code.concat(returnType.equals(void.class) ? "" : "return ");
-		code = code.concat(lastVersion.getName());
-		code = code.concat(".");
-		code = code.concat(methodName);
-		code = code.concat("(");
-		for (int i = 0; i < parameters.length; i++) {
-			String paramName = "param" + i;
-			ClassOrInterfaceType type;
-			if (genericMap[i]) {
-				type = new ClassOrInterfaceType(
-						getWrapperName(parameters[i].getTypeName()));
-			} else {
-				type = new ClassOrInterfaceType(parameters[i].getTypeName());
-			}
-			Parameter param = ASTHelper.createParameter(type, paramName);
-			ASTHelper.addParameter(method, param);
-			code = code.concat(paramName);
-			code = code.concat(",");
-		}
-		code = code.substring(0, code.length() - 1);
-		code = code.concat(");");
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Creates a method with a invoker call for an instance method
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param methodName
-	 *            The method name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration getInvokerInstanceMethod(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> targetClass, String methodName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		MethodDeclaration method;
-		ClassOrInterfaceType retClassOrInt;
-		if (genericMap[genericMap.length - 1]) {
-			retClassOrInt = new ClassOrInterfaceType(
-					getWrapperName(returnType.getTypeName()));
-		} else {
-			retClassOrInt = new ClassOrInterfaceType(returnType.getTypeName());
-		}
-		method = new MethodDeclaration(ModifierSet.PUBLIC, retClassOrInt,
-				invokerName);
-
-		String code = "";
-		code = code.concat(returnType.equals(void.class) ? "" : "return ");
-		boolean hasNewVersion = VersionTables.hasNewVersion(targetClass);
-		if (!hasNewVersion) {
-			code = code.concat("param0.");
-			code = code.concat(methodName);
-			code = code.concat("(");
-		} else {
-			Class<?> lastVersion = VersionTables.getNewVersion(targetClass);
-			code = code.concat(lastVersion.getName());
-			code = code.concat("._");
-			code = code.concat(methodName);
-			code = code.concat("_invoker(");
-		}
-		for (int i = 0; i < parameters.length; i++) {
-			String paramName = "param" + i;
-			if (i != 0 || hasNewVersion) {
-				code = code.concat(paramName);
-				code = code.concat(",");
-			}
-			ClassOrInterfaceType type;
-			if (genericMap[i]) {
-				type = new ClassOrInterfaceType(
-						getWrapperName(parameters[i].getTypeName()));
-			} else {
-				type = new ClassOrInterfaceType(parameters[i].getTypeName());
-			}
-			Parameter param = ASTHelper.createParameter(type, paramName);
-			ASTHelper.addParameter(method, param);
-		}
-		code = code.substring(0, code.length() - 1);
-		code = code.concat(");");
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Creates a method with a fieldGetter call for instance field
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration instanceFieldGetter(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> targetClass, String fieldName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		MethodDeclaration method;
-		ClassOrInterfaceType retClassOrInt;
-		if (genericMap[genericMap.length - 1]) {
-			retClassOrInt = new ClassOrInterfaceType(
-					getWrapperName(returnType.getTypeName()));
-		} else {
-			retClassOrInt = new ClassOrInterfaceType(returnType.getTypeName());
-		}
-		method = new MethodDeclaration(ModifierSet.PUBLIC, retClassOrInt,
-				invokerName);
-
-		String code = "return ";
-		Class<?> lastVersion = VersionTables.getNewVersion(targetClass);
-		code = code.concat(lastVersion.getName());
-		code = code.concat("._");
-		code = code.concat(fieldName);
-		code = code.concat("_fieldGetter(param0);");
-		for (int i = 0; i < parameters.length; i++) {
-			String paramName = "param" + i;
-			ClassOrInterfaceType type = new ClassOrInterfaceType(
-					parameters[i].getTypeName());
-			Parameter param = ASTHelper.createParameter(type, paramName);
-			ASTHelper.addParameter(method, param);
-		}
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Creates a method with a fieldSetter call for instance field
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration instanceFieldSetter(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> targetClass, String fieldName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		MethodDeclaration method;
-		method = new MethodDeclaration(ModifierSet.PUBLIC, ASTHelper.VOID_TYPE,
-				invokerName);
-
-		String code = "";
-		Class<?> lastVersion = VersionTables.getNewVersion(targetClass);
-		code = code.concat(lastVersion.getName());
-		code = code.concat("._");
-		code = code.concat(fieldName);
-		code = code.concat("_fieldSetter(param0, param1);");
-		for (int i = 0; i < parameters.length; i++) {
-			String paramName = "param" + i;
-			ClassOrInterfaceType type;
-			if (genericMap[i]) {
-				type = new ClassOrInterfaceType(
-						getWrapperName(parameters[i].getTypeName()));
-			} else {
-				type = new ClassOrInterfaceType(parameters[i].getTypeName());
-			}
-			Parameter param = ASTHelper.createParameter(type, paramName);
-			ASTHelper.addParameter(method, param);
-		}
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Creates a method with a Getter call for static field
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration staticFieldGetter(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> targetClass, String fieldName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		MethodDeclaration method;
-		ClassOrInterfaceType retClassOrInt;
-		if (genericMap[genericMap.length - 1]) {
-			retClassOrInt = new ClassOrInterfaceType(
-					getWrapperName(returnType.getTypeName()));
-		} else {
-			retClassOrInt = new ClassOrInterfaceType(returnType.getTypeName());
-		}
-		method = new MethodDeclaration(ModifierSet.PUBLIC, retClassOrInt,
-				invokerName);
-
-		String code = "return ";
-		Class<?> lastVersion = VersionTables.getNewVersion(targetClass);
-		code = code.concat(lastVersion.getName());
-		code = code.concat("._");
-		code = code.concat(fieldName);
-		code = code.concat("_getter();");
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Creates a method with a Setter call for static field
-	 * 
-	 * @param parameters
-	 *            Parameter types
-	 * @param returnType
-	 *            Return type
-	 * @param invokerName
-	 *            Name of the method
-	 * @param targetClass
-	 *            Class that owns the field
-	 * @param fieldName
-	 *            Field name
-	 * @param genericMap
-	 *            Map with the generic parameters and generic return
-	 * @return The {@link MethodDeclaration} built
-	 * @throws StructuralIntercessionException
-	 */
-	private static MethodDeclaration staticFieldSetter(
-			java.lang.reflect.Type[] parameters,
-			java.lang.reflect.Type returnType, String invokerName,
-			Class<?> targetClass, String fieldName, boolean[] genericMap)
-			throws StructuralIntercessionException {
-		MethodDeclaration method;
-		method = new MethodDeclaration(ModifierSet.PUBLIC, ASTHelper.VOID_TYPE,
-				invokerName);
-
-		String code = "";
-		Class<?> lastVersion = VersionTables.getNewVersion(targetClass);
-		code = code.concat(lastVersion.getName());
-		code = code.concat("._");
-		code = code.concat(fieldName);
-		code = code.concat("_setter(param0);");
-		for (int i = 0; i < parameters.length; i++) {
-			String paramName = "param" + i;
-			ClassOrInterfaceType type;
-			if (genericMap[i]) {
-				type = new ClassOrInterfaceType(
-						getWrapperName(parameters[i].getTypeName()));
-			} else {
-				type = new ClassOrInterfaceType(parameters[i].getTypeName());
-			}
-			Parameter param = ASTHelper.createParameter(type, paramName);
-			ASTHelper.addParameter(method, param);
-		}
-		try {
-			method.setBody(JavaParser.parseBlock("{" + code + "}"));
-		} catch (ParseException e) {
-			throw new StructuralIntercessionException(e.getMessage(), e);
-		}
-		return method;
-	}
-
-	/**
-	 * Returns invoker package created
-	 * 
-	 * @return {@link PackageDeclaration}
-	 */
-	private static PackageDeclaration getInvokerPackage() {
-		return new PackageDeclaration(
-				ASTHelper.createNameExpr(GENERATED_INVOKER_PACKAGE));
-	}
-
 	/**
 	 * Builds the eval method with the dynamic code and the functional interface
 	 * method data.
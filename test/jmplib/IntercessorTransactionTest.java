@@ -0,0 +1,80 @@
+package jmplib;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.primitives.Counter;
+import jmplib.primitives.HierarchyLocks;
+
+import org.junit.Test;
+
+/**
+ * Tests of the life cycle of the transactions. The tests run with the JMPlib
+ * agent and the source.path property pointing to the test folder.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class IntercessorTransactionTest {
+
+	@Test
+	public void testFailedCommitIsNotCommitted() throws Exception {
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "broken",
+				MethodType.methodType(int.class), "return missing;");
+		for (int i = 0; i < 2; i++) {
+			try {
+				transaction.commit();
+				fail("The method does not compile");
+			} catch (StructuralIntercessionException e) {
+				// The second commit fails compiling again
+				assertFalse(String.valueOf(e.getMessage()).contains(
+						"already been committed"));
+			}
+		}
+	}
+
+	@Test(expected = StructuralIntercessionException.class)
+	public void testSuccessfulCommitIsNotRepeated() throws Exception {
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "half",
+				MethodType.methodType(int.class), "return counter / 2;");
+		transaction.commit();
+		transaction.commit();
+	}
+
+	@Test
+	public void testExpiredPrepareReleasesHierarchy() throws Exception {
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "triple",
+				MethodType.methodType(int.class), "return counter * 3;");
+		transaction.prepare(100, TimeUnit.MILLISECONDS);
+		CompletableFuture<HierarchyLocks> locks = CompletableFuture
+				.supplyAsync(() -> {
+					try {
+						return HierarchyLocks.acquire(Collections
+								.<Class<?>> singleton(Counter.class));
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				});
+		assertNotNull(locks.get(10, TimeUnit.SECONDS));
+		locks.get().release();
+		try {
+			transaction.apply();
+			fail("The prepared changes have expired");
+		} catch (StructuralIntercessionException e) {
+			// Not prepared anymore
+		}
+		// The discarded primitives can be committed
+		transaction.commit();
+	}
+
+}
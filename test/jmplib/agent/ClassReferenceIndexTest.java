@@ -0,0 +1,58 @@
+package jmplib.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import jmplib.compiler.Driver;
+import jmplib.compiler.Engine;
+import jmplib.compiler.Radio;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Tests of the index of the classes referenced by the bytecode
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ClassReferenceIndexTest {
+
+	private static final String ENGINE = "jmplib/compiler/Engine";
+
+	@Test
+	public void testOnlyReferencingClassesAreDependents() {
+		ClassReferenceIndex index = new ClassReferenceIndex();
+		index.addAll(Arrays.<Class<?>> asList(Driver.class, Radio.class,
+				Engine.class));
+		Set<Class<?>> dependents = index.getDependents(Collections
+				.singleton(ENGINE));
+		assertTrue(dependents.contains(Driver.class));
+		// The class references itself
+		assertTrue(dependents.contains(Engine.class));
+		assertFalse(dependents.contains(Radio.class));
+	}
+
+	@Test
+	public void testRedefinedClassIsIndexedAgain() {
+		ClassReferenceIndex index = new ClassReferenceIndex();
+		index.addAll(Arrays.<Class<?>> asList(Driver.class, Radio.class));
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "jmplib/compiler/Radio",
+				null, ENGINE, null);
+		cw.visitEnd();
+		index.add(Radio.class, cw.toByteArray());
+		assertTrue(index.getDependents(Collections.singleton(ENGINE))
+				.contains(Radio.class));
+		// The references of the previous bytes are removed
+		assertEquals(Collections.singleton(Driver.class), index
+				.getDependents(Collections.singleton("java/lang/Object")));
+	}
+
+}
@@ -0,0 +1,63 @@
+package jmplib.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Collections;
+import java.util.Set;
+
+import jmplib.sourcecode.ClassContent;
+import jmplib.sourcecode.SourceCodeCache;
+
+import org.junit.Test;
+
+/**
+ * Tests of the keys of the compiled versions cache. The tests run with the
+ * source.path property pointing to the test folder.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class CompiledVersionCacheTest {
+
+	@Test
+	public void testKeyCoversReferencedClasses() throws Exception {
+		SourceCodeCache cache = SourceCodeCache.getInstance();
+		ClassContent driver = cache.getClassContent(Driver.class);
+		ClassContent engine = cache.getClassContent(Engine.class);
+		ClassContent radio = cache.getClassContent(Radio.class);
+		Set<ClassContent> partition = Collections.singleton(driver);
+		String key = CompiledVersionCache.key(partition, partition);
+		String engineContent = engine.getContent();
+		String radioContent = radio.getContent();
+		try {
+			// Driver does not reference Radio
+			radio.setContent(radioContent.replace("++volume", "volume++"));
+			radio.publish();
+			assertEquals(key, CompiledVersionCache.key(partition, partition));
+			// Driver calls Engine.start()
+			engine.setContent(engineContent.replace("return power;",
+					"return power + 1;"));
+			engine.publish();
+			assertNotEquals(key,
+					CompiledVersionCache.key(partition, partition));
+		} finally {
+			engine.setContent(engineContent);
+			engine.publish();
+			radio.setContent(radioContent);
+			radio.publish();
+		}
+		assertEquals(key, CompiledVersionCache.key(partition, partition));
+	}
+
+	@Test
+	public void testKeyCoversCompiledClasses() throws Exception {
+		ClassContent engine = SourceCodeCache.getInstance().getClassContent(
+				Engine.class);
+		Set<ClassContent> partition = Collections.singleton(engine);
+		assertNotEquals(CompiledVersionCache.key(partition, partition),
+				CompiledVersionCache.key(partition,
+						Collections.<ClassContent> emptySet()));
+	}
+
+}
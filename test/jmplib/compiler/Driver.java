@@ -0,0 +1,15 @@
+package jmplib.compiler;
+
+/**
+ * Class partitioned by the tests of the compiler
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Driver {
+
+	public int drive(Engine engine) {
+		return engine.start();
+	}
+
+}
@@ -0,0 +1,17 @@
+package jmplib.compiler;
+
+/**
+ * Class partitioned by the tests of the compiler
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Engine {
+
+	public int power = 100;
+
+	public int start() {
+		return power;
+	}
+
+}
@@ -0,0 +1,83 @@
+package jmplib.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import jmplib.sourcecode.ClassContent;
+
+import org.junit.Test;
+
+/**
+ * Tests of the partitions compiled in parallel
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PartitionedCompilerTest {
+
+	private static final ClassContent ENGINE = classContent(Engine.class,
+			"public class Engine_NewVersion_0 { public int power = 100;"
+					+ " public int start() { return power; } }");
+	private static final ClassContent TURBO_ENGINE = classContent(
+			TurboEngine.class,
+			"public class TurboEngine_NewVersion_0 extends Engine_NewVersion_0 {"
+					+ " public int boost() { return power * 2; } }");
+	private static final ClassContent DRIVER = classContent(Driver.class,
+			"public class Driver_NewVersion_0 {"
+					+ " public int drive(Object engine) {"
+					+ " return ((Engine) engine).start(); } }");
+	private static final ClassContent RADIO = classContent(Radio.class,
+			"public class Radio_NewVersion_0 { public int volume = 0;"
+					+ " public int louder() { return ++volume; } }");
+
+	@Test
+	public void testHierarchySharesPartition() throws Exception {
+		List<Set<ClassContent>> partitions = PartitionedCompiler
+				.partition(Arrays.asList(ENGINE, TURBO_ENGINE, RADIO));
+		assertEquals(2, partitions.size());
+		assertSame(find(partitions, ENGINE), find(partitions, TURBO_ENGINE));
+	}
+
+	@Test
+	public void testReferencedClassesSharePartition() throws Exception {
+		List<Set<ClassContent>> partitions = PartitionedCompiler
+				.partition(Arrays.asList(DRIVER, ENGINE, RADIO));
+		assertEquals(2, partitions.size());
+		assertSame(find(partitions, DRIVER), find(partitions, ENGINE));
+		assertEquals(1, find(partitions, RADIO).size());
+	}
+
+	@Test
+	public void testMemberReferencesSharePartition() throws Exception {
+		ClassContent listener = classContent(Driver.class,
+				"public class Driver_NewVersion_0 {"
+						+ " public int drive(Radio radio) {"
+						+ " return radio.louder(); } }");
+		List<Set<ClassContent>> partitions = PartitionedCompiler
+				.partition(Arrays.asList(listener, ENGINE, RADIO));
+		assertEquals(2, partitions.size());
+		assertSame(find(partitions, listener), find(partitions, RADIO));
+	}
+
+	private static Set<ClassContent> find(List<Set<ClassContent>> partitions,
+			ClassContent classContent) {
+		for (Set<ClassContent> partition : partitions) {
+			if (partition.contains(classContent))
+				return partition;
+		}
+		throw new AssertionError(classContent.getClazz() + " not found");
+	}
+
+	private static ClassContent classContent(Class<?> clazz, String source) {
+		ClassContent classContent = new ClassContent();
+		classContent.setClazz(clazz);
+		classContent.setContent("package jmplib.compiler; " + source);
+		classContent.setVersion(0);
+		return classContent;
+	}
+
+}
@@ -0,0 +1,17 @@
+package jmplib.compiler;
+
+/**
+ * Class partitioned by the tests of the compiler
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Radio {
+
+	public int volume = 0;
+
+	public int louder() {
+		return ++volume;
+	}
+
+}
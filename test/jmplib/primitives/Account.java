@@ -0,0 +1,17 @@
+package jmplib.primitives;
+
+/**
+ * Class modified by the tests of the rollback
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Account {
+
+	public int balance = 100;
+
+	public int deposit(int amount) {
+		return balance += amount;
+	}
+
+}
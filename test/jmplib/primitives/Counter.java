@@ -0,0 +1,17 @@
+package jmplib.primitives;
+
+/**
+ * Class modified by the tests of the executor
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Counter {
+
+	public int counter = 0;
+
+	public int increment() {
+		return ++counter;
+	}
+
+}
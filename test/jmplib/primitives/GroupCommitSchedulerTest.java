@@ -0,0 +1,134 @@
+package jmplib.primitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jmplib.exceptions.StructuralIntercessionException;
+
+import org.junit.Test;
+
+/**
+ * Tests of the group commit
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class GroupCommitSchedulerTest {
+
+	@Test
+	public void testDisjointTransactionsComplete() throws Exception {
+		RecordingPrimitive first = new RecordingPrimitive(Counter.class);
+		RecordingPrimitive second = new RecordingPrimitive(String.class);
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		CompletableFuture<ExecutionResult> firstResult = scheduler
+				.submit(queue(first));
+		CompletableFuture<ExecutionResult> secondResult = scheduler
+				.submit(queue(second));
+		assertNotNull(firstResult.get(10, TimeUnit.SECONDS));
+		assertNotNull(secondResult.get(10, TimeUnit.SECONDS));
+		assertEquals(1, first.getExecutions());
+		assertEquals(1, second.getExecutions());
+	}
+
+	@Test
+	public void testOnlyConflictingTransactionsAreDeferred() throws Exception {
+		List<String> completed = new CopyOnWriteArrayList<String>();
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		CompletableFuture<ExecutionResult> first = scheduler.submit(queue(
+				new RecordingPrimitive(Counter.class))).whenComplete(
+				(result, error) -> completed.add("first"));
+		CompletableFuture<ExecutionResult> conflicting = scheduler.submit(
+				queue(new RecordingPrimitive(Counter.class))).whenComplete(
+				(result, error) -> completed.add("conflicting"));
+		CompletableFuture<ExecutionResult> disjoint = scheduler.submit(queue(
+				new RecordingPrimitive(String.class))).whenComplete(
+				(result, error) -> completed.add("disjoint"));
+		first.get(10, TimeUnit.SECONDS);
+		conflicting.get(10, TimeUnit.SECONDS);
+		disjoint.get(10, TimeUnit.SECONDS);
+		// The disjoint transaction is not deferred by the conflict
+		assertTrue(completed.indexOf("disjoint") < completed
+				.indexOf("conflicting"));
+		assertTrue(completed.indexOf("first") < completed
+				.indexOf("conflicting"));
+	}
+
+	@Test
+	public void testFailureIsReportedOnlyToItsTransaction() throws Exception {
+		RecordingPrimitive first = new RecordingPrimitive(Counter.class);
+		RecordingPrimitive second = new RecordingPrimitive(String.class);
+		RecordingPrimitive third = new RecordingPrimitive(Integer.class);
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		CompletableFuture<ExecutionResult> firstResult = scheduler
+				.submit(queue(first));
+		CompletableFuture<ExecutionResult> failingResult = scheduler
+				.submit(queue(new RecordingPrimitive(Account.class, true)));
+		CompletableFuture<ExecutionResult> secondResult = scheduler
+				.submit(queue(second));
+		CompletableFuture<ExecutionResult> thirdResult = scheduler
+				.submit(queue(third));
+		for (CompletableFuture<ExecutionResult> result : Arrays.asList(
+				firstResult, secondResult, thirdResult)) {
+			assertNotNull(result.get(10, TimeUnit.SECONDS));
+		}
+		try {
+			failingResult.get(10, TimeUnit.SECONDS);
+			fail("The failing transaction has been completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof StructuralIntercessionException);
+		}
+		// The undone executions are not counted
+		assertEquals(1, first.getExecutions());
+		assertEquals(1, second.getExecutions());
+		assertEquals(1, third.getExecutions());
+	}
+
+	@Test
+	public void testWithdrawnTransactionIsNotExecuted() throws Exception {
+		RecordingPrimitive primitive = new RecordingPrimitive(Counter.class);
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		CompletableFuture<ExecutionResult> result = scheduler
+				.submit(queue(primitive));
+		if (scheduler.withdraw(result)) {
+			// Wait for the window of the group
+			Thread.sleep(500);
+			assertFalse(result.isDone());
+			assertEquals(0, primitive.getExecutions());
+		} else {
+			// The group had already started, it reports the result
+			assertNotNull(result.get(10, TimeUnit.SECONDS));
+			assertEquals(1, primitive.getExecutions());
+		}
+		assertFalse(scheduler.withdraw(result));
+	}
+
+	@Test
+	public void testCompletedTransactionCannotBeWithdrawn() throws Exception {
+		RecordingPrimitive primitive = new RecordingPrimitive(Counter.class);
+		GroupCommitScheduler scheduler = GroupCommitScheduler.getInstance();
+		CompletableFuture<ExecutionResult> result = scheduler
+				.submit(queue(primitive));
+		result.get(10, TimeUnit.SECONDS);
+		assertTrue(result.isDone());
+		assertFalse(scheduler.withdraw(result));
+	}
+
+	private static Queue<Primitive> queue(Primitive primitive) {
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(primitive);
+		return primitives;
+	}
+
+}
@@ -0,0 +1,118 @@
+package jmplib.primitives;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the locks of the class hierarchies
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class HierarchyLocksTest {
+
+	@Test
+	public void testSameHierarchyIsSerialized() throws Exception {
+		HierarchyLocks locks = HierarchyLocks.acquire(Collections
+				.<Class<?>> singleton(Counter.class));
+		CompletableFuture<HierarchyLocks> other = acquireAsync(Counter.class);
+		try {
+			Thread.sleep(200);
+			assertFalse(other.isDone());
+		} finally {
+			locks.release();
+		}
+		other.get(10, TimeUnit.SECONDS).release();
+	}
+
+	@Test
+	public void testDisjointHierarchiesRunConcurrently() throws Exception {
+		Class<?> disjoint = findDisjoint(Counter.class);
+		HierarchyLocks locks = HierarchyLocks.acquire(Collections
+				.<Class<?>> singleton(Counter.class));
+		try {
+			acquireAsync(disjoint).get(10, TimeUnit.SECONDS).release();
+		} finally {
+			locks.release();
+		}
+	}
+
+	@Test
+	public void testAcquireAllWaitsForEveryHierarchy() throws Exception {
+		HierarchyLocks locks = HierarchyLocks.acquire(Collections
+				.<Class<?>> singleton(Counter.class));
+		CompletableFuture<HierarchyLocks> all = CompletableFuture
+				.supplyAsync(() -> {
+					try {
+						return HierarchyLocks.acquireAll();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				});
+		try {
+			Thread.sleep(200);
+			assertFalse(all.isDone());
+		} finally {
+			locks.release();
+		}
+		all.get(10, TimeUnit.SECONDS).release();
+	}
+
+	@Test
+	public void testInterruptedAcquireReleasesStripes() throws Exception {
+		Class<?> disjoint = findDisjoint(Counter.class);
+		HierarchyLocks locks = HierarchyLocks.acquire(Collections
+				.<Class<?>> singleton(Counter.class));
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try {
+				HierarchyLocks.acquire(Arrays.<Class<?>> asList(disjoint,
+						Counter.class)).release();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		try {
+			thread.start();
+			Thread.sleep(200);
+			thread.interrupt();
+			assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+			// The stripe of the other hierarchy is not held anymore
+			acquireAsync(disjoint).get(10, TimeUnit.SECONDS).release();
+		} finally {
+			locks.release();
+		}
+	}
+
+	private static CompletableFuture<HierarchyLocks> acquireAsync(
+			Class<?> hierarchy) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return HierarchyLocks.acquire(Collections
+						.<Class<?>> singleton(hierarchy));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	private static Class<?> findDisjoint(Class<?> hierarchy) {
+		for (Class<?> candidate : new Class<?>[] { String.class,
+				Integer.class, Long.class, Double.class, Object.class,
+				Thread.class, Runnable.class, Number.class }) {
+			if (HierarchyLocks.getStripe(candidate) != HierarchyLocks
+					.getStripe(hierarchy))
+				return candidate;
+		}
+		throw new AssertionError("No disjoint stripe found");
+	}
+
+}
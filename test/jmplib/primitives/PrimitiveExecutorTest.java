@@ -0,0 +1,60 @@
+package jmplib.primitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.invoke.MethodType;
+
+import jmplib.IntercessorTransaction;
+import jmplib.classversions.VersionTables;
+import jmplib.sourcecode.SourceCodeCache;
+
+import org.junit.Test;
+
+/**
+ * Tests of the staging of the executions. The tests run with the JMPlib agent
+ * and the source.path property pointing to the test folder.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PrimitiveExecutorTest {
+
+	@Test
+	public void testDiscardKeepsCurrentVersion() throws Exception {
+		Class<?> current = VersionTables.getNewVersion(Counter.class);
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "decrement",
+				MethodType.methodType(int.class), "return --counter;");
+		transaction.prepare();
+		assertSame(current, VersionTables.getNewVersion(Counter.class));
+		transaction.discard();
+		assertSame(current, VersionTables.getNewVersion(Counter.class));
+	}
+
+	@Test
+	public void testCommitAfterDiscard() throws Exception {
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "twice",
+				MethodType.methodType(int.class), "return counter * 2;");
+		transaction.prepare();
+		int discarded = SourceCodeCache.getInstance().getVersion(
+				Counter.class.getName());
+		transaction.discard();
+		// The same class evolves again, the discarded version was defined
+		transaction = new IntercessorTransaction();
+		transaction.addMethod(Counter.class, "twice",
+				MethodType.methodType(int.class), "return counter * 2;");
+		transaction.commit();
+		Class<?> version = VersionTables.getNewVersion(Counter.class);
+		assertNotEquals(Counter.class.getName() + "_NewVersion_" + discarded,
+				version.getName());
+		assertNotNull(version.getMethod("twice"));
+		assertEquals(SourceCodeCache.getInstance().getVersion(
+				Counter.class.getName()), Counter.class.getField(
+				"_currentClassVersion").getInt(null));
+	}
+
+}
@@ -0,0 +1,103 @@
+package jmplib.primitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import jmplib.compiler.Radio;
+import jmplib.primitives.impl.AddMethodPrimitive;
+
+import org.junit.Test;
+
+/**
+ * Tests of the folding of the primitives. The tests run with the source.path
+ * property pointing to the test folder.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class PrimitiveOptimizerTest {
+
+	private static final MethodType INT = MethodType.methodType(int.class);
+
+	@Test
+	public void testAddAndDeleteCancel() throws Exception {
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(add(Counter.class, "twice", "return counter * 2;"));
+		primitives.add(PrimitiveFactory.createDeleteMethodPrimitive(
+				Counter.class, "twice", INT));
+		List<Primitive> eliminated = PrimitiveOptimizer.optimize(primitives);
+		assertEquals(2, eliminated.size());
+		assertTrue(primitives.isEmpty());
+	}
+
+	@Test
+	public void testPrimitiveOverOtherMemberIsBarrier() throws Exception {
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(add(Counter.class, "twice", "return counter * 2;"));
+		primitives.add(add(Counter.class, "quad", "return twice() * 2;"));
+		primitives.add(PrimitiveFactory.createDeleteMethodPrimitive(
+				Counter.class, "twice", INT));
+		List<Primitive> eliminated = PrimitiveOptimizer.optimize(primitives);
+		assertTrue(eliminated.isEmpty());
+		assertEquals(3, primitives.size());
+	}
+
+	@Test
+	public void testPrimitiveOverOtherClassIsNotBarrier() throws Exception {
+		Primitive radio = add(Radio.class, "quieter", "return --volume;");
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(add(Counter.class, "twice", "return counter * 2;"));
+		primitives.add(radio);
+		primitives.add(PrimitiveFactory.createDeleteMethodPrimitive(
+				Counter.class, "twice", INT));
+		List<Primitive> eliminated = PrimitiveOptimizer.optimize(primitives);
+		assertEquals(2, eliminated.size());
+		assertEquals(1, primitives.size());
+		assertSame(radio, primitives.peek());
+	}
+
+	@Test
+	public void testLastImplementationIsKept() throws Exception {
+		Primitive last = PrimitiveFactory.createReplaceImplementation(
+				Counter.class, "increment", INT, "return counter += 2;");
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(PrimitiveFactory.createReplaceImplementation(
+				Counter.class, "increment", INT, "return counter += 1;"));
+		primitives.add(last);
+		List<Primitive> eliminated = PrimitiveOptimizer.optimize(primitives);
+		assertEquals(1, eliminated.size());
+		assertSame(last, primitives.peek());
+	}
+
+	@Test
+	public void testImplementationFoldedIntoAddedMethod() throws Exception {
+		Primitive add = add(Counter.class, "twice", "return counter * 2;");
+		Queue<Primitive> primitives = new LinkedList<Primitive>();
+		primitives.add(add);
+		primitives.add(PrimitiveFactory.createReplaceImplementation(
+				Counter.class, "twice", INT, "return counter + counter;"));
+		List<Primitive> eliminated = PrimitiveOptimizer.optimize(primitives);
+		assertEquals(1, eliminated.size());
+		// The primitive added by the user is not modified
+		AddMethodPrimitive folded = (AddMethodPrimitive) primitives.peek();
+		assertNotSame(add, folded);
+		assertEquals("return counter + counter;", folded.getBody());
+		assertEquals("return counter * 2;",
+				((AddMethodPrimitive) add).getBody());
+	}
+
+	private static Primitive add(Class<?> clazz, String name, String body)
+			throws Exception {
+		return PrimitiveFactory.createAddMethodPrimitive(clazz, name, INT,
+				new String[0], body, Modifier.PUBLIC);
+	}
+
+}
@@ -0,0 +1,63 @@
+package jmplib.primitives;
+
+import java.util.Collections;
+import java.util.Set;
+
+import jmplib.exceptions.StructuralIntercessionException;
+import jmplib.sourcecode.ClassContent;
+
+/**
+ * Primitive that only records its executions, it does not modify any class.
+ * It can be created to fail when it is executed.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class RecordingPrimitive implements Primitive {
+
+	private final Class<?> hierarchy;
+	private final boolean failing;
+	private volatile int executions = 0;
+
+	public RecordingPrimitive(Class<?> hierarchy) {
+		this(hierarchy, false);
+	}
+
+	public RecordingPrimitive(Class<?> hierarchy, boolean failing) {
+		this.hierarchy = hierarchy;
+		this.failing = failing;
+	}
+
+	@Override
+	public void undo() throws StructuralIntercessionException {
+		executions--;
+	}
+
+	@Override
+	public Set<ClassContent> execute() throws StructuralIntercessionException {
+		if (failing)
+			throw new StructuralIntercessionException("The primitive fails");
+		executions++;
+		return Collections.emptySet();
+	}
+
+	@Override
+	public boolean isSafe() {
+		return true;
+	}
+
+	@Override
+	public Set<String> getUnsafeMembers() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public Class<?> getHierarchy() {
+		return hierarchy;
+	}
+
+	public int getExecutions() {
+		return executions;
+	}
+
+}
@@ -0,0 +1,21 @@
+package jmplib.primitives;
+
+/**
+ * Class modified by the test of the rollback of the first commit
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class Savings {
+
+	public int balance = 100;
+
+	public int deposit(int amount) {
+		return balance += amount;
+	}
+
+	public int getBalance() {
+		return balance;
+	}
+
+}
@@ -0,0 +1,92 @@
+package jmplib.primitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.invoke.MethodType;
+
+import jmplib.Intercessor;
+import jmplib.IntercessorTransaction;
+import jmplib.classversions.VersionTables;
+import jmplib.exceptions.StructuralIntercessionException;
+
+import org.junit.Test;
+
+/**
+ * Tests of the rollback to the versions already loaded. The tests run with
+ * the JMPlib agent and the source.path property pointing to the test folder.
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class VersionHistoryTest {
+
+	private static final MethodType INT = MethodType.methodType(int.class);
+
+	@Test
+	public void testRollbackRestoresLoadedVersion() throws Exception {
+		commit("doubled", "return balance * 2;");
+		Class<?> previous = VersionTables.getNewVersion(Account.class);
+		IntercessorTransaction transaction = commit("tripled",
+				"return balance * 3;");
+		assertNotSame(previous, VersionTables.getNewVersion(Account.class));
+		transaction.rollback();
+		assertSame(previous, VersionTables.getNewVersion(Account.class));
+		// The next version is compiled from the restored source code
+		commit("halved", "return balance / 2;");
+		Class<?> next = VersionTables.getNewVersion(Account.class);
+		assertNotNull(next.getMethod("doubled"));
+		assertNotNull(next.getMethod("halved"));
+		try {
+			next.getMethod("tripled");
+			fail("The rolled back method is still in the class");
+		} catch (NoSuchMethodException e) {
+			// Rolled back
+		}
+	}
+
+	@Test
+	public void testRollbackToVersionNumber() throws Exception {
+		commit("withInterest", "return balance + balance / 10;");
+		Class<?> previous = VersionTables.getNewVersion(Account.class);
+		int version = Account.class.getField("_currentClassVersion").getInt(
+				null);
+		commit("withFee", "return balance - 1;");
+		Intercessor.rollback(Account.class, version);
+		assertSame(previous, VersionTables.getNewVersion(Account.class));
+	}
+
+	@Test
+	public void testRollbackFirstCommit() throws Exception {
+		Savings savings = new Savings();
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Savings.class, "doubled", INT,
+				"return balance * 2;");
+		transaction.commit();
+		assertNotSame(Savings.class, VersionTables.getNewVersion(Savings.class));
+		// The object is migrated and its state is held by the version
+		savings.deposit(10);
+		transaction.rollback();
+		assertSame(Savings.class, VersionTables.getNewVersion(Savings.class));
+		assertEquals(0,
+				Savings.class.getField("_currentClassVersion").getInt(null));
+		assertEquals(110, savings.getBalance());
+	}
+
+	@Test(expected = StructuralIntercessionException.class)
+	public void testRollbackNotCommitted() throws Exception {
+		new IntercessorTransaction().rollback();
+	}
+
+	private static IntercessorTransaction commit(String name, String body)
+			throws StructuralIntercessionException {
+		IntercessorTransaction transaction = new IntercessorTransaction();
+		transaction.addMethod(Account.class, name, INT, body);
+		transaction.commit();
+		return transaction;
+	}
+
+}
@@ -0,0 +1,35 @@
+package jmplib.sourcecode;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the version numbers of the classes
+ * 
+ * @author Ignacio Lagartos
+ * 
+ */
+public class ClassContentTest {
+
+	@Test
+	public void testVersionNumbersAreNotReused() {
+		ClassContent classContent = new ClassContent();
+		classContent.setVersion(0);
+		assertEquals(1, classContent.increaseVersion());
+		assertEquals(0, classContent.getPreviousVersion());
+		assertEquals(0, classContent.restoreVersion());
+		assertEquals(2, classContent.increaseVersion());
+		assertEquals(0, classContent.getPreviousVersion());
+	}
+
+	@Test
+	public void testVersionNumbersContinueAfterPublishing() {
+		ClassContent classContent = new ClassContent();
+		classContent.setVersion(3);
+		assertEquals(4, classContent.increaseVersion());
+		assertEquals(5, classContent.increaseVersion());
+		assertEquals(4, classContent.getPreviousVersion());
+	}
+
+}